@@ -0,0 +1,106 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+/** 
+ * The result of validating one document in a batch: the document's name, the MiringValidator that holds it's results, and how long it took.
+*/
+public class BatchResult
+{
+    String name;
+    MiringValidator validator;
+    long elapsedMillis;
+
+    /**
+     * Constructor for a BatchResult
+     *
+     * @param name the name the document was submitted with.  It may be null.
+     * @param validator the MiringValidator that validated the document
+     * @param elapsedMillis how long the validation took, in milliseconds
+     */
+    public BatchResult(String name, MiringValidator validator, long elapsedMillis)
+    {
+        this.name = name;
+        this.validator = validator;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public MiringValidator getValidator()
+    {
+        return validator;
+    }
+
+    public long getElapsedMillis()
+    {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return the hml-compliant value of this document's report.  "true", "false" or "reject"
+     */
+    public String getHMLCompliance()
+    {
+        return ReportGenerator.getHMLCompliance(validator.reportResults);
+    }
+
+    /**
+     * @return the miring-compliant value of this document's report.  "true", "false", "reject" or "warnings"
+     */
+    public String getMiringCompliance()
+    {
+        return ReportGenerator.getMiringCompliance(validator.reportResults);
+    }
+
+    /**
+     * @param batchResults the results of a batch validation
+     * @return the number of documents that are hml compliant
+     */
+    static int countHMLCompliant(BatchResult[] batchResults)
+    {
+        int count = 0;
+        for(int i = 0; i < batchResults.length; i++)
+        {
+            count += batchResults[i].getHMLCompliance().equals("true") ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * @param batchResults the results of a batch validation
+     * @return the number of documents that are miring compliant
+     */
+    static int countMiringCompliant(BatchResult[] batchResults)
+    {
+        int count = 0;
+        for(int i = 0; i < batchResults.length; i++)
+        {
+            count += batchResults[i].getMiringCompliance().equals("true") ? 1 : 0;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** 
+ * This class validates a batch of documents at the same time, on a bounded pool of worker threads.
+ * 
+ * Every request shares the same pool, so a large batch, or many batches at once, can't start more validations than there are workers.
+ * The pool has one thread per processor, unless the system property org.nmdp.miring.batchThreads says otherwise.
+ * Each document gets it's own MiringValidator and ValidationContext, so nothing is shared between the validations.
+*/
+public class BatchValidator
+{
+    static Logger logger = LoggerFactory.getLogger(BatchValidator.class);
+    //System property for the number of worker threads.
+    public static final String threadsProperty = "org.nmdp.miring.batchThreads";
+    private static ExecutorService executor = null;
+
+    /**
+     * Get the worker pool, creating it the first time it is used.
+     *
+     * @return the ExecutorService that runs batch validations
+     */
+    static synchronized ExecutorService getExecutor()
+    {
+        if(executor == null)
+        {
+            int threads = Math.max(1, Integer.getInteger(threadsProperty, Runtime.getRuntime().availableProcessors()));
+            logger.debug("Starting " + threads + " batch validation threads");
+            executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("miring-batch-"));
+        }
+        return executor;
+    }
+
+    /**
+     * Validate a batch of documents concurrently.  The reports are not generated, see ReportGenerator.writeBatchReport.
+     *
+     * @param names the names the documents were submitted with.  Names may be null.
+     * @param documents the HmlSources for the documents.  Each entry is set to null once it is submitted,
+     *   so the array doesn't keep a document after it is validated.
+     * @return a BatchResult for each document, in the same order as the documents
+     * @throws InterruptedException if the thread is interrupted while waiting.  The remaining validations are cancelled.
+     */
+    public static BatchResult[] validate(String[] names, HmlSource[] documents) throws InterruptedException
+    {
+        List<Future<BatchResult>> futures = new ArrayList<Future<BatchResult>>(documents.length);
+        try
+        {
+            for(int i = 0; i < documents.length; i++)
+            {
+                final String name = names[i];
+                final HmlSource document = documents[i];
+                documents[i] = null;
+                futures.add(getExecutor().submit(new Callable<BatchResult>()
+                {
+                    @Override
+                    public BatchResult call()
+                    {
+                        return validate(name, document);
+                    }
+                }));
+            }
+
+            BatchResult[] batchResults = new BatchResult[documents.length];
+            for(int i = 0; i < futures.size(); i++)
+            {
+                try
+                {
+                    batchResults[i] = futures.get(i).get();
+                }
+                catch(ExecutionException e)
+                {
+                    logger.error("Exception validating batch document " + names[i], e.getCause());
+                    batchResults[i] = new BatchResult(names[i], MiringValidator.failedValidator(e.getCause()), 0);
+                }
+            }
+            return batchResults;
+        }
+        catch(InterruptedException e)
+        {
+            for(Future<BatchResult> future : futures)
+            {
+                future.cancel(true);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Validate one document, and time it.
+     *
+     * @param name the name the document was submitted with
+     * @param document the HmlSource for the document
+     * @return the BatchResult for the document
+     */
+    static BatchResult validate(String name, HmlSource document)
+    {
+        long start = System.nanoTime();
+        MiringValidator validator = new MiringValidator(document);
+        try
+        {
+            validator.runValidation();
+            //The BatchResult keeps the validator until the batch report is written, but not the document.
+            validator.releaseDocument();
+        }
+        catch(RuntimeException e)
+        {
+            //One bad document shouldn't fail the whole batch.
+            logger.error("Exception validating batch document " + name, e);
+            validator = MiringValidator.failedValidator(e);
+        }
+        return new BatchResult(name, validator, (System.nanoTime() - start) / 1000000);
+    }
+}
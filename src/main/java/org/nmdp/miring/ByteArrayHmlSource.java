@@ -0,0 +1,107 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.xml.sax.InputSource;
+
+/** 
+ * An HmlSource for the raw bytes of a document, like the body of an application/xml request.
+ * 
+ * The bytes are handed to the parsers as they are, so the parser works out the encoding from the xml declaration.
+ * Nothing is decoded into a String, which would take twice the memory of a UTF-8 document.
+*/
+public class ByteArrayHmlSource implements HmlSource
+{
+    static final int bufferSize = 64 * 1024;
+
+    final byte[] bytes;
+    final int length;
+
+    /**
+     * Constructor for a ByteArrayHmlSource.  The array is used as it is, not copied.
+     *
+     * @param bytes the bytes of the document
+     */
+    public ByteArrayHmlSource(byte[] bytes)
+    {
+        this(bytes, bytes.length);
+    }
+
+    /**
+     * Constructor for a ByteArrayHmlSource of the start of an array.  The array is used as it is, not copied.
+     *
+     * @param bytes an array starting with the bytes of the document
+     * @param length the length of the document
+     */
+    ByteArrayHmlSource(byte[] bytes, int length)
+    {
+        this.bytes = bytes;
+        this.length = length;
+    }
+
+    /**
+     * Read a whole InputStream into a ByteArrayHmlSource.  The stream is not closed.
+     *
+     * @param inputStream the InputStream containing the document
+     * @return a ByteArrayHmlSource holding everything that was read
+     * @throws IOException if the stream can not be read
+     */
+    public static ByteArrayHmlSource read(InputStream inputStream) throws IOException
+    {
+        byte[] buffer = new byte[bufferSize];
+        int length = 0;
+        int bytesRead;
+        while((bytesRead = inputStream.read(buffer, length, buffer.length - length)) != -1)
+        {
+            length += bytesRead;
+            if(length == buffer.length)
+            {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        return new ByteArrayHmlSource(buffer, length);
+    }
+
+    @Override
+    public InputSource newInputSource()
+    {
+        return new InputSource(newInputStream());
+    }
+
+    @Override
+    public InputStream newInputStream()
+    {
+        return new ByteArrayInputStream(bytes, 0, length);
+    }
+
+    @Override
+    public long length()
+    {
+        return length;
+    }
+}
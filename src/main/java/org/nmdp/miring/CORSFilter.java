@@ -16,7 +16,7 @@ public class CORSFilter implements ContainerResponseFilter {
 
         response.getHttpHeaders().add("Access-Control-Allow-Origin", "*");
         response.getHttpHeaders().add("Access-Control-Allow-Headers",
-                "origin, content-type, accept, authorization");
+                "origin, content-type, content-encoding, accept, authorization");
         response.getHttpHeaders().add("Access-Control-Allow-Credentials", "true");
         response.getHttpHeaders().add("Access-Control-Allow-Methods",
                 "POST, OPTIONS, HEAD");
@@ -0,0 +1,54 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** 
+ * A ThreadFactory for the validator's worker pools.  The threads are numbered daemon threads,
+ * so an idle pool doesn't keep the server from shutting down.
+*/
+class DaemonThreadFactory implements ThreadFactory
+{
+    final String namePrefix;
+    final AtomicInteger threadNumber = new AtomicInteger(1);
+
+    /**
+     * Constructor for a DaemonThreadFactory
+     *
+     * @param namePrefix the start of each thread's name.  The thread number is added to it.
+     */
+    DaemonThreadFactory(String namePrefix)
+    {
+        this.namePrefix = namePrefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable)
+    {
+        Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
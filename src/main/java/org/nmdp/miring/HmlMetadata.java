@@ -0,0 +1,270 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/** 
+ * HmlMetadata holds the document-level information that the validation stages and the report need:
+ * the HML version, the prefix bound to the HML namespace, the hmlid root and extension, the root property elements, and the samples.
+ * 
+ * All of it is collected in a single streaming SAX pass, instead of building a DOM for every piece of information.
+ * If the document can not be parsed, the values fall back to what the old DOM helpers returned for a malformed document.
+*/
+public class HmlMetadata
+{
+    static Logger logger = LoggerFactory.getLogger(HmlMetadata.class);
+    static String hmlNamespaceURI = "http://schemas.nmdp.org/spec/hml/1.0.1";
+    //We assume 1.0.1 when we can't read a version from the document.  Otherwise we get server errors.
+    static String defaultVersion = "1.0.1";
+
+    String version;
+    String namespacePrefix;
+    String hmlIdRoot;
+    String hmlIdExtension;
+    HashMap<String,String> properties;
+    List<Sample> samples;
+    boolean wellFormed;
+
+    private HmlMetadata()
+    {
+        this.version = defaultVersion;
+        this.namespacePrefix = null;
+        this.hmlIdRoot = null;
+        this.hmlIdExtension = null;
+        this.properties = null;
+        this.samples = new ArrayList<Sample>();
+        this.wellFormed = false;
+    }
+
+    /**
+     * Read the document-level information from an xml String in one pass.
+     *
+     * @param xml a String containing the xml text
+     * @return an HmlMetadata object.  It is never null, a malformed document gets the default values.
+     */
+    public static HmlMetadata parse(String xml)
+    {
+        if(xml == null || xml.length() == 0)
+        {
+            return new HmlMetadata();
+        }
+        return parse(new StringHmlSource(xml));
+    }
+
+    /**
+     * Read the document-level information from an HmlSource in one pass.
+     *
+     * @param source the HmlSource for the document
+     * @return an HmlMetadata object.  It is never null, a malformed document gets the default values.
+     */
+    public static HmlMetadata parse(HmlSource source)
+    {
+        HmlMetadata metadata = new HmlMetadata();
+        if(source == null || source.length() == 0)
+        {
+            return metadata;
+        }
+
+        try
+        {
+            //Not namespace aware, so the xmlns declarations show up as plain attributes on the root element.
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            SAXParser parser = factory.newSAXParser();
+            MetadataHandler handler = new MetadataHandler();
+            parser.parse(source.newInputSource(), handler);
+
+            metadata.version = handler.version;
+            metadata.namespacePrefix = handler.namespacePrefix;
+            metadata.hmlIdRoot = handler.hmlIdRoot;
+            metadata.hmlIdExtension = handler.hmlIdExtension;
+            metadata.properties = (handler.propertiesValid && handler.properties.size() > 0) ? handler.properties : null;
+            metadata.samples = handler.samples;
+            metadata.wellFormed = true;
+        }
+        catch(Exception e)
+        {
+            logger.debug("Unable to read HML metadata, using defaults: " + e.toString());
+        }
+        return metadata;
+    }
+
+    /**
+     * @return the version attribute on the root hml node, null if there is none.
+     */
+    public String getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @return the prefix bound to the HML 1.0.1 namespace, or null if HML is the default namespace.
+     */
+    public String getNamespacePrefix()
+    {
+        return namespacePrefix;
+    }
+
+    public String getHmlIdRoot()
+    {
+        return hmlIdRoot;
+    }
+
+    public String getHmlIdExtension()
+    {
+        return hmlIdExtension;
+    }
+
+    /**
+     * @return a new map of the property elements directly underneath the root, or null if there are none.
+     */
+    public HashMap<String,String> getProperties()
+    {
+        return (properties == null) ? null : new HashMap<String,String>(properties);
+    }
+
+    public Sample[] getSamples()
+    {
+        return samples.toArray(new Sample[samples.size()]);
+    }
+
+    public boolean isWellFormed()
+    {
+        return wellFormed;
+    }
+
+    /** 
+     * MetadataHandler collects the metadata as the parser streams through the document.
+     * Only the root element and it's immediate children are inspected, except for sample elements, which are found at any depth.
+    */
+    private static class MetadataHandler extends DefaultHandler
+    {
+        int depth = 0;
+        String version = null;
+        String namespacePrefix = null;
+        String hmlIdRoot = null;
+        String hmlIdExtension = null;
+        boolean hmlIdFound = false;
+        HashMap<String,String> properties = new HashMap<String,String>();
+        boolean propertiesValid = true;
+        List<Sample> samples = new ArrayList<Sample>();
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException 
+        {
+            depth++;
+            if(depth == 1)
+            {
+                handleRootElement(attributes);
+            }
+            else if(depth == 2)
+            {
+                handleRootChild(qName, attributes);
+            }
+
+            if(getLocalName(qName).equals("sample"))
+            {
+                //Every sample is stored for reporting purposes
+                samples.add(new Sample(attributes.getValue("id"), attributes.getValue("center-code")));
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException 
+        {
+            depth--;
+        }
+
+        private void handleRootElement(Attributes attributes)
+        {
+            version = attributes.getValue("version");
+
+            String xmlns = attributes.getValue("xmlns");
+            if(xmlns != null && xmlns.equals(hmlNamespaceURI))
+            {
+                logger.debug("HML 1.0.1 is the root namepace.");
+                namespacePrefix = null;
+                return;
+            }
+            for(int i = 0; i < attributes.getLength(); i++)
+            {
+                String name = attributes.getQName(i);
+                String value = attributes.getValue(i);
+                if(name != null && value != null
+                    && name.contains("xmlns:")
+                    && value.equals(hmlNamespaceURI))
+                {
+                    namespacePrefix = name.substring(name.indexOf("xmlns:") + 6, name.length());
+                    logger.debug("Found the HML namespace: " + namespacePrefix);
+                    return;
+                }
+            }
+        }
+
+        private void handleRootChild(String qName, Attributes attributes)
+        {
+            //The first hmlid child of the root wins.
+            String[] nameTokens = Utilities.tokenizeString(qName,":");
+            String childsName = (nameTokens.length == 1) ? qName : nameTokens[1];
+            if(!hmlIdFound && childsName.equals("hmlid"))
+            {
+                hmlIdFound = true;
+                hmlIdRoot = attributes.getValue("root");
+                hmlIdExtension = attributes.getValue("extension");
+            }
+
+            if(qName.contains("property"))
+            {
+                String propertyName = attributes.getValue("name");
+                String propertyValue = attributes.getValue("value");
+                if(propertyName == null || propertyValue == null)
+                {
+                    //One bad property and we don't report any of them.
+                    logger.error("Property element found without a name or value attribute.");
+                    propertiesValid = false;
+                }
+                else
+                {
+                    properties.put(propertyName, propertyValue);
+                }
+            }
+        }
+
+        private static String getLocalName(String qName)
+        {
+            return qName.substring(qName.indexOf(':') + 1);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.xml.sax.InputSource;
+
+/** 
+ * An HmlSource is the HML document being validated.  It can be read any number of times, because every validation stage parses it again.
+ * 
+ * StringHmlSource holds the document as a String, like the form parameter of the web service.
+ * ByteArrayHmlSource holds the raw bytes of a request body, so they are parsed without being decoded into a String first.
+*/
+public interface HmlSource
+{
+    /**
+     * @return a new InputSource for a SAX parser, positioned at the start of the document
+     * @throws IOException if the document can not be read
+     */
+    InputSource newInputSource() throws IOException;
+
+    /**
+     * @return a new InputStream of the document's bytes, positioned at the start of the document
+     * @throws IOException if the document can not be read
+     */
+    InputStream newInputStream() throws IOException;
+
+    /**
+     * @return the length of the document, in characters for a String and in bytes otherwise.  0 if the document is empty.
+     */
+    long length();
+}
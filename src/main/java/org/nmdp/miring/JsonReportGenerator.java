@@ -0,0 +1,414 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONWriter;
+
+import org.nmdp.miring.ValidationResult.Severity;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** 
+ * This class is used to generate a JSON results report, based on the results of a MIRING Validation.
+ * 
+ * The JSON report holds the same information as the XML report from ReportGenerator, with the same names:
+ * hml-compliant, miring-compliant, hmlid, samples, properties, and the results grouped by severity, each with it's xpaths.
+ * It is streamed through a JSONWriter as it is generated, the XML report is never built.
+*/
+public class JsonReportGenerator
+{
+    static Logger logger = LoggerFactory.getLogger(JsonReportGenerator.class);
+
+    /**
+     * Generate a Miring Results Report in JSON format
+     *
+     * @param validationResults an array of ValidationError objects
+     * @param root the root attribute on an HMLID node on the source XML.  If it exists, you should include it in the report
+     * @param extension the extension attribute on an HMLID node on the source XML.  If it exists, you should include it in the report
+     * @param properties a HashMap<String,String> of property values to include on the results report
+     * @param sampleIDs an array of Sample objects to list on the report.
+     * @param hmlstart the index in validationResults where HML results start
+     * @return a String containing MIRING Results Report in JSON format
+     */
+    public static String generateReport(ValidationResult[] validationResults, String root, String extension, HashMap<String,String> properties, Sample[] sampleIDs, int hmlstart)
+    {
+        try 
+        {
+            StringWriter reportWriter = new StringWriter();
+            writeReport(validationResults, root, extension, properties, sampleIDs, hmlstart, reportWriter);
+            return reportWriter.toString();
+        }
+        catch (Exception e) 
+        {
+            logger.error("Exception in JsonReportGenerator", e);
+        }
+        
+        //Oops, something went wrong.
+        logger.error("Unknown Error during Miring Validation JSON Report Generation.  Returning Null");
+        return null;
+    }
+
+    /**
+     * Write a Miring Results Report in JSON format to an OutputStream, as UTF-8.
+     * The report is written as it is generated, so the stream can be a response that is sent as it is written.
+     *
+     * @param validationResults an array of ValidationError objects
+     * @param root the root attribute on an HMLID node on the source XML.  If it exists, you should include it in the report
+     * @param extension the extension attribute on an HMLID node on the source XML.  If it exists, you should include it in the report
+     * @param properties a HashMap<String,String> of property values to include on the results report
+     * @param sampleIDs an array of Sample objects to list on the report.
+     * @param hmlstart the index in validationResults where HML results start
+     * @param outputStream the OutputStream to write the report to.  It is not closed.
+     * @throws IOException if the report can not be written
+     */
+    public static void writeReport(ValidationResult[] validationResults, String root, String extension, HashMap<String,String> properties, Sample[] sampleIDs, int hmlstart, OutputStream outputStream) throws IOException
+    {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        writeReport(validationResults, root, extension, properties, sampleIDs, hmlstart, writer);
+        writer.flush();
+    }
+
+    private static void writeReport(ValidationResult[] validationResults, String root, String extension, HashMap<String,String> properties, Sample[] sampleIDs, int hmlstart, Writer reportWriter) throws IOException
+    {
+        try 
+        {
+            writeReportObject(validationResults, root, extension, properties, sampleIDs, hmlstart, new JSONWriter(reportWriter));
+        }
+        catch (JSONException e) 
+        {
+            throw new IOException("Could not write the MIRING JSON report", e);
+        }
+    }
+
+    /**
+     * Write a Miring Results Report in JSON format for each document in a batch to an OutputStream, as UTF-8.
+     * A batch-summary lists every document's compliance and validation time, then the reports follow in the order the documents were submitted.
+     *
+     * @param batchResults the results of a batch validation, in the order the documents were submitted
+     * @param outputStream the OutputStream to write the report to.  It is not closed.
+     * @throws IOException if the report can not be written
+     */
+    public static void writeBatchReport(BatchResult[] batchResults, OutputStream outputStream) throws IOException
+    {
+        Writer reportWriter = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        try 
+        {
+            JSONWriter writer = new JSONWriter(reportWriter);
+            writer.object();
+            writer.key("timestamp").value(ReportGenerator.dateFormat.format(LocalDateTime.now()));
+            writer.key("document-count").value(batchResults.length);
+
+            writer.key("batch-summary").object();
+            writer.key("hml-compliant-count").value(BatchResult.countHMLCompliant(batchResults));
+            writer.key("miring-compliant-count").value(BatchResult.countMiringCompliant(batchResults));
+            writer.key("document").array();
+            for(int i = 0; i < batchResults.length; i++)
+            {
+                writer.object();
+                writer.key("position").value(i + 1);
+                writer.key("name").value(batchResults[i].getName() == null ? "" : batchResults[i].getName());
+                writer.key("hml-compliant").value(batchResults[i].getHMLCompliance());
+                writer.key("miring-compliant").value(batchResults[i].getMiringCompliance());
+                writer.key("elapsed-ms").value(batchResults[i].getElapsedMillis());
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+
+            writer.key("miring-report").array();
+            for(int i = 0; i < batchResults.length; i++)
+            {
+                MiringValidator validator = batchResults[i].getValidator();
+                writeReportObject(validator.reportResults, validator.hmlIdRoot, validator.hmlIdExt, validator.properties, validator.sampleIDs, validator.hmlStart, writer);
+            }
+            writer.endArray();
+
+            writer.endObject();
+        }
+        catch (JSONException e) 
+        {
+            throw new IOException("Could not write the MIRING JSON batch report", e);
+        }
+        reportWriter.flush();
+    }
+
+    /**
+     * Write the status of a validation job in JSON format to an OutputStream, as UTF-8.
+     *
+     * @param job the ValidationJob
+     * @param outputStream the OutputStream to write the status to.  It is not closed.
+     * @throws IOException if the status can not be written
+     */
+    public static void writeJobStatus(ValidationJob job, OutputStream outputStream) throws IOException
+    {
+        Writer reportWriter = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        try 
+        {
+            JSONWriter writer = new JSONWriter(reportWriter);
+            writer.object();
+            writer.key("id").value(job.getId());
+            writer.key("state").value(job.getState().toString().toLowerCase());
+            writer.key("stage").value(job.getStage().toString().toLowerCase());
+            writer.key("submitted").value(ReportGenerator.dateFormat.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(job.getSubmittedMillis()), ZoneId.systemDefault())));
+            writer.key("elapsed-ms").value(job.getElapsedMillis());
+            writer.endObject();
+        }
+        catch (JSONException e) 
+        {
+            throw new IOException("Could not write the validation job status", e);
+        }
+        reportWriter.flush();
+    }
+
+    /**
+     * Write the statistics of a ReportCache to an OutputStream, as UTF-8.
+     *
+     * @param cache the ReportCache
+     * @param outputStream the OutputStream to write the statistics to.  It is not closed.
+     * @throws IOException if the statistics can not be written
+     */
+    public static void writeCacheStatistics(ReportCache cache, OutputStream outputStream) throws IOException
+    {
+        Writer reportWriter = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        try 
+        {
+            JSONWriter writer = new JSONWriter(reportWriter);
+            writer.object();
+            writer.key("entries").value(cache.getEntryCount());
+            writer.key("bytes").value(cache.getBytes());
+            writer.key("max-bytes").value(cache.getMaxBytes());
+            writer.key("hits").value(cache.getHits());
+            writer.key("misses").value(cache.getMisses());
+            writer.key("evictions").value(cache.getEvictions());
+            writer.key("expirations").value(cache.getExpirations());
+            writer.key("coalesced").value(cache.getCoalesced());
+            writer.key("in-flight").value(cache.getInFlightCount());
+            writer.endObject();
+        }
+        catch (JSONException e) 
+        {
+            throw new IOException("Could not write the report cache statistics", e);
+        }
+        reportWriter.flush();
+    }
+
+    /**
+     * Write a report object.
+     *
+     * @param validationResults an array of ValidationError objects
+     * @param root the root attribute on an HMLID node on the source XML.  If it exists, you should include it in the report
+     * @param extension the extension attribute on an HMLID node on the source XML.  If it exists, you should include it in the report
+     * @param properties a HashMap<String,String> of property values to include on the results report
+     * @param sampleIDs an array of Sample objects to list on the report.
+     * @param hmlstart the index in validationResults where HML results start
+     * @param writer the JSONWriter to write the object to
+     */
+    private static void writeReportObject(ValidationResult[] validationResults, String root, String extension, HashMap<String,String> properties, Sample[] sampleIDs, int hmlstart, JSONWriter writer)
+    {
+        validationResults = ReportGenerator.assignSampleIDs(validationResults,sampleIDs);
+        validationResults = ReportGenerator.combineSimilarResults(validationResults);
+
+        writer.object();
+        writer.key("timestamp").value(ReportGenerator.dateFormat.format(LocalDateTime.now()));
+        writer.key("hml-compliant").value(ReportGenerator.getHMLCompliance(validationResults));
+        writer.key("miring-compliant").value(ReportGenerator.getMiringCompliance(validationResults));
+
+        writeHmlid(root, extension, writer);
+
+        writeSamples(validationResults, sampleIDs, hmlstart, writer);
+
+        writeProperties(properties, writer);
+
+        writeValidationResults(validationResults, writer);
+
+        writer.endObject();
+    }
+
+    /**
+     * Write an hmlid object.  Like on the XML report, the root and extension are left out when they are empty.
+     *
+     * @param root the hmlid's root attribute
+     * @param extension the hmlid's extension attribute
+     * @param writer the JSONWriter to write the object to
+     */
+    private static void writeHmlid(String root, String extension, JSONWriter writer)
+    {
+        writer.key("hmlid").object();
+        if(extension != null && extension.length()>0)
+        {
+            writer.key("extension").value(extension);
+        }
+        if(root != null && root.length()>0)
+        {
+            writer.key("root").value(root);
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Write the properties object, with one key per property.
+     *
+     * @param properties a HashMap containing key-value pairs of properties to include on the report
+     * @param writer the JSONWriter to write the object to
+     */
+    private static void writeProperties(HashMap<String, String> properties, JSONWriter writer)
+    {
+        if(properties != null)
+        {
+            writer.key("properties").object();
+            for(Map.Entry<String, String> property : properties.entrySet())
+            {
+                writer.key(property.getKey()).value(property.getValue());
+            }
+            writer.endObject();
+        }
+    }
+
+    /**
+     * Write the samples object, with the sample counts and an array of samples.
+     *
+     * @param validationResults an array of ValidationResults, with sample ids assigned
+     * @param sampleIDs an array of Sample objects to include on the report
+     * @param hmlstart the index in validationResults where HML results start
+     * @param writer the JSONWriter to write the object to
+     */
+    private static void writeSamples(ValidationResult[] validationResults, Sample[] sampleIDs, int hmlstart, JSONWriter writer)
+    {
+        if(sampleIDs != null && sampleIDs.length > 0)
+        {
+            boolean[] miringCompliant = new boolean[sampleIDs.length];
+            boolean[] hmlCompliant = new boolean[sampleIDs.length];
+            int numberGoodSamples = ReportGenerator.getSampleCompliance(validationResults, sampleIDs, hmlstart, miringCompliant, hmlCompliant);
+
+            writer.key("samples").object();
+            writer.key("sample-count").value(sampleIDs.length);
+            writer.key("compliant-sample-count").value(numberGoodSamples);
+            writer.key("noncompliant-sample-count").value(2 * sampleIDs.length - numberGoodSamples);
+            writer.key("sample").array();
+            for(int i = 0; i < sampleIDs.length; i++)
+            {
+                String centerCode = sampleIDs[i].centerCode;
+
+                writer.object();
+                writer.key("id").value(sampleIDs[i].id == null ? "" : sampleIDs[i].id);
+                if(!(centerCode==null) && !(centerCode.isEmpty()))
+                {
+                    writer.key("center-code").value(centerCode);
+                }
+                writer.key("hml-compliant").value(hmlCompliant[i]);
+                writer.key("miring-compliant").value(miringCompliant[i]);
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+    }
+
+    /**
+     * Write the ValidationResults, grouped by severity in the same groups as the XML report.
+     *
+     * @param validationResults an array of ValidationResult objects to include on the report
+     * @param writer the JSONWriter to write the arrays to
+     */
+    private static void writeValidationResults(ValidationResult[] validationResults, JSONWriter writer)
+    {
+        writeResultGroup(writer, "fatal-validation-errors", ReportGenerator.getResultsBySeverity(validationResults,Severity.FATAL), false);
+        writeResultGroup(writer, "miring-validation-errors", ReportGenerator.getResultsBySeverity(validationResults,Severity.MIRING), false);
+        writeResultGroup(writer, "validation-warnings", ReportGenerator.getResultsBySeverity(validationResults,Severity.WARNING), false);
+        writeResultGroup(writer, "validation-info", ReportGenerator.getResultsBySeverity(validationResults,Severity.INFO), false);
+        writeResultGroup(writer, "fatal-hml-schema-validation-errors", ReportGenerator.getResultsBySeverity(validationResults,Severity.HMLFATAL), true);
+        writeResultGroup(writer, "hml-schema-validation-errors", ReportGenerator.getResultsBySeverity(validationResults,Severity.HML), true);
+        writeResultGroup(writer, "hml-schema-validation-warnings", ReportGenerator.getResultsBySeverity(validationResults,Severity.HMLWARNING), true);
+    }
+
+    /**
+     * Write one group of results as an array, if there are any.
+     *
+     * @param writer the JSONWriter to write the array to
+     * @param groupName the key of the array that holds the results
+     * @param results an array of ValidationResult objects in this group
+     * @param hmlResults true for hml results, which have no miring-rule-id
+     */
+    private static void writeResultGroup(JSONWriter writer, String groupName, ValidationResult[] results, boolean hmlResults)
+    {
+        if(results != null && results.length > 0)
+        {
+            writer.key(groupName).array();
+            for(int i = 0; i < results.length; i++)
+            {
+                writeResult(writer, results[i], hmlResults);
+            }
+            writer.endArray();
+        }
+    }
+
+    /**
+     * Write a single result object
+     *
+     * @param writer the JSONWriter to write the object to
+     * @param validationResult an object containing the result information
+     * @param hmlResult true for an hml result, false for a miring result
+     */
+    private static void writeResult(JSONWriter writer, ValidationResult validationResult, boolean hmlResult)
+    {
+        writer.object();
+        if(!hmlResult)
+        {
+            writer.key("miring-rule-id").value(validationResult.getMiringRule() == null ? "" : validationResult.getMiringRule());
+        }
+        if(validationResult.getSampleID() != null && validationResult.getSampleID().length() > 0)
+        {
+            writer.key("sample-id").value(validationResult.getSampleID());
+        }
+        writer.key("severity").value(ReportGenerator.getSeverityName(validationResult, hmlResult));
+        writer.key("description").value(validationResult.getErrorText() == null ? "" : validationResult.getErrorText());
+        writer.key("solution").value(validationResult.getSolutionText() == null ? "" : validationResult.getSolutionText());
+
+        writer.key("xpath").array();
+        List<String> xPaths = validationResult.getXPaths();
+        if(xPaths != null)
+        {
+            for(int i = 0; i < xPaths.size(); i++)
+            {
+                writer.value(xPaths.get(i));
+            }
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+}
@@ -0,0 +1,280 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+
+/** 
+ * An HmlSource for a document in a file, which is memory mapped instead of read onto the heap.
+ * 
+ * Every validation stage reads the document again through it's own InputStream over the mapping, so a large document
+ * takes the same amount of heap as a small one.  The operating system pages the file in and out as it is read.
+ * 
+ * read() is how request bodies become HmlSources.  A body up to the threshold is kept in memory as a ByteArrayHmlSource,
+ * a larger one is spooled to a temp file and mapped.  The threshold comes from the system property org.nmdp.miring.spoolMegabytes.
+ * A body larger than org.nmdp.miring.maxDocumentMegabytes (1024 by default, and always under 2 GB) stops with a DocumentTooLargeException
+ * as soon as that many bytes are read, so a compressed upload can't fill the temp directory.
+ * 
+ * Only the reading is bounded.  The schema stages stream the document, but the schematron rules build a tree of the whole document,
+ * so the heap a Tier 2 validation needs grows with the document's size unless the document is sharded, see ShardedValidator.
+*/
+public class MappedFileHmlSource implements HmlSource
+{
+    static Logger logger = LoggerFactory.getLogger(MappedFileHmlSource.class);
+    public static final String spoolMegabytesProperty = "org.nmdp.miring.spoolMegabytes";
+    public static final String maxMegabytesProperty = "org.nmdp.miring.maxDocumentMegabytes";
+    //A mapping has to be smaller than 2 GB.
+    static final long mappableBytes = Integer.MAX_VALUE;
+
+    final MappedByteBuffer buffer;
+
+    /**
+     * Constructor for a MappedFileHmlSource.  The file is mapped read only, and can be deleted once the source is made.
+     *
+     * @param file the file containing the document
+     * @throws IOException if the file can not be mapped, or is 2 GB or larger
+     */
+    public MappedFileHmlSource(File file) throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = randomAccessFile.getChannel();
+            if(channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException("Documents of 2 GB or more are not supported: " + file);
+            }
+            //The mapping stays valid after the channel is closed.
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Read a request body into an HmlSource.  The stream is not closed.
+     * Small bodies are kept in memory.  A body larger than the threshold is written to a temp file, which is mapped and then deleted.
+     *
+     * @param inputStream the InputStream containing the document
+     * @return a ByteArrayHmlSource, or a MappedFileHmlSource for a body larger than the threshold
+     * @throws DocumentTooLargeException if the body is larger than org.nmdp.miring.maxDocumentMegabytes
+     * @throws IOException if the stream can not be read, or the temp file can not be written
+     */
+    public static HmlSource read(InputStream inputStream) throws IOException
+    {
+        long maxBytes = Math.min(mappableBytes, Math.max(1, Integer.getInteger(maxMegabytesProperty, 1024)) * 1024L * 1024L);
+        return read(inputStream, Math.max(0, Integer.getInteger(spoolMegabytesProperty, 32)) * 1024L * 1024L, maxBytes);
+    }
+
+    /**
+     * Read a request body into an HmlSource, spooling it to a temp file if it is larger than a threshold.  The stream is not closed.
+     *
+     * @param inputStream the InputStream containing the document
+     * @param threshold the most bytes to keep in memory
+     * @return a ByteArrayHmlSource, or a MappedFileHmlSource for a body larger than the threshold
+     * @throws IOException if the stream can not be read, or the temp file can not be written
+     */
+    static HmlSource read(InputStream inputStream, long threshold) throws IOException
+    {
+        return read(inputStream, threshold, mappableBytes);
+    }
+
+    /**
+     * Read a request body into an HmlSource, spooling it to a temp file if it is larger than a threshold.  The stream is not closed.
+     *
+     * @param inputStream the InputStream containing the document
+     * @param threshold the most bytes to keep in memory
+     * @param maxBytes the most bytes the document can have
+     * @return a ByteArrayHmlSource, or a MappedFileHmlSource for a body larger than the threshold
+     * @throws DocumentTooLargeException if the body is larger than maxBytes.  Nothing more is read.
+     * @throws IOException if the stream can not be read, or the temp file can not be written
+     */
+    static HmlSource read(InputStream inputStream, long threshold, long maxBytes) throws IOException
+    {
+        byte[] buffer = new byte[(int)Math.min(ByteArrayHmlSource.bufferSize, threshold + 1)];
+        int length = 0;
+        int bytesRead;
+        while((bytesRead = inputStream.read(buffer, length, buffer.length - length)) != -1)
+        {
+            length += bytesRead;
+            if(length > maxBytes)
+            {
+                throw new DocumentTooLargeException(maxBytes);
+            }
+            if(length > threshold)
+            {
+                return spool(buffer, length, inputStream, maxBytes);
+            }
+            if(length == buffer.length)
+            {
+                buffer = Arrays.copyOf(buffer, (int)Math.min(buffer.length * 2L, threshold + 1));
+            }
+        }
+        return new ByteArrayHmlSource(buffer, length);
+    }
+
+    /**
+     * Write what has been read so far and the rest of the stream to a temp file, and map it.
+     */
+    private static HmlSource spool(byte[] buffer, int length, InputStream inputStream, long maxBytes) throws IOException
+    {
+        File file = File.createTempFile("miring-", ".xml");
+        try
+        {
+            OutputStream fileStream = new FileOutputStream(file);
+            try
+            {
+                fileStream.write(buffer, 0, length);
+                long fileLength = length;
+                int bytesRead;
+                while((bytesRead = inputStream.read(buffer)) != -1)
+                {
+                    fileLength += bytesRead;
+                    if(fileLength > maxBytes)
+                    {
+                        throw new DocumentTooLargeException(maxBytes);
+                    }
+                    fileStream.write(buffer, 0, bytesRead);
+                }
+            }
+            finally
+            {
+                fileStream.close();
+            }
+            logger.debug("Spooled a request body of " + file.length() + " bytes to " + file);
+            return new MappedFileHmlSource(file);
+        }
+        finally
+        {
+            //The mapping keeps the contents.  Where a mapped file can't be deleted, it goes when the JVM exits.
+            if(!file.delete())
+            {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * @return a read only view of the document, from index 0 to it's limit.  The view's position can be changed.
+     */
+    ByteBuffer getBuffer()
+    {
+        return buffer.duplicate();
+    }
+
+    @Override
+    public InputSource newInputSource()
+    {
+        return new InputSource(newInputStream());
+    }
+
+    @Override
+    public InputStream newInputStream()
+    {
+        return new ByteBufferInputStream(getBuffer());
+    }
+
+    @Override
+    public long length()
+    {
+        return buffer.limit();
+    }
+
+    /** 
+     * Thrown when a request body has more bytes than a document can have.
+    */
+    public static class DocumentTooLargeException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        DocumentTooLargeException(long maxBytes)
+        {
+            super("A document can have at most " + (maxBytes / (1024 * 1024)) + " megabytes.");
+        }
+    }
+
+    /** 
+     * An InputStream over a ByteBuffer.  Each stream has it's own view of the mapping, so streams can be read at the same time.
+    */
+    private static class ByteBufferInputStream extends InputStream
+    {
+        final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            if(len == 0)
+            {
+                return 0;
+            }
+            if(!buffer.hasRemaining())
+            {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n)
+        {
+            int count = (int)Math.max(0, Math.min(n, buffer.remaining()));
+            ((Buffer)buffer).position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import org.nmdp.miring.MappedFileHmlSource.DocumentTooLargeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import com.sun.jersey.multipart.BodyPart;
+import com.sun.jersey.multipart.FormDataBodyPart;
+import com.sun.jersey.multipart.FormDataMultiPart;
+
+/** 
+ * This class provides a REST service to validate a batch of HML documents in one request.
+ * It expects a multipart/form-data POST request, with one part per document.  Every part is validated, whatever it's field name.
+ * 
+ * The documents are validated concurrently by BatchValidator.  The response has a batch summary, followed by
+ * one MIRING Results Report per document in the order the parts were sent.  Like MiringValidatorService, the response is XML
+ * unless the Accept header prefers application/json.
+ * 
+ * Every part is read before the validations start, so a batch is limited to org.nmdp.miring.batchMaxDocuments documents (100 by default)
+ * and org.nmdp.miring.batchMaxMegabytes megabytes in total (256 by default).  A larger batch gets 413 Request Entity Too Large.
+*/
+
+@Path("/ValidateMiringBatch")
+public class MiringBatchValidatorService
+{
+    Logger logger = LoggerFactory.getLogger(MiringBatchValidatorService.class);
+    //System properties for the most documents in a batch, and the most megabytes they can add up to.
+    public static final String maxDocumentsProperty = "org.nmdp.miring.batchMaxDocuments";
+    public static final String maxMegabytesProperty = "org.nmdp.miring.batchMaxMegabytes";
+
+    /**
+     * This method provides a RESTFUL service for validating a batch of MIRING compliant HML files
+     *
+     * @param multiPart the multipart form, with one part per document
+     * @param headers the request headers, used to choose between an XML and a JSON report
+     * @return a Response that writes the MIRING Batch Report in XML or JSON format, or 413 if the batch is too large.
+     * @throws IOException if a part can not be read
+     */
+    @POST
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces({"application/xml", "application/json"})
+    public Response validateMiringBatch(FormDataMultiPart multiPart, @Context HttpHeaders headers) throws IOException
+    {
+        logger.debug( "Received Miring Batch Validation web service call.");
+
+        final boolean json = MiringValidatorService.prefersJson(headers);
+        List<BodyPart> parts = multiPart.getBodyParts();
+        int maxDocuments = Math.max(1, Integer.getInteger(maxDocumentsProperty, 100));
+        if(parts.size() > maxDocuments)
+        {
+            return tooLarge("A batch can have at most " + maxDocuments + " documents, this one has " + parts.size() + ".");
+        }
+        long maxBytes = Math.max(1, Integer.getInteger(maxMegabytesProperty, 256)) * 1024L * 1024L;
+        long remainingBytes = maxBytes;
+        final String[] names = new String[parts.size()];
+        final HmlSource[] documents = new HmlSource[parts.size()];
+        //The parts can only be read here, before the response starts.
+        for(int i = 0; i < parts.size(); i++)
+        {
+            FormDataBodyPart part = (FormDataBodyPart)parts.get(i);
+            names[i] = (part.getContentDisposition().getFileName() != null) ? part.getContentDisposition().getFileName() : part.getName();
+            LimitedInputStream partStream = new LimitedInputStream(part.getEntityAs(InputStream.class), remainingBytes);
+            try
+            {
+                documents[i] = MappedFileHmlSource.read(partStream);
+            }
+            catch(BatchTooLargeException e)
+            {
+                return tooLarge("The documents in a batch can add up to at most " + (maxBytes / (1024 * 1024)) + " megabytes.");
+            }
+            catch(DocumentTooLargeException e)
+            {
+                return tooLarge(e.getMessage());
+            }
+            finally
+            {
+                partStream.close();
+            }
+            remainingBytes -= partStream.bytesRead;
+        }
+        logger.debug("Batch of " + documents.length + " documents");
+
+        StreamingOutput output = new StreamingOutput()
+        {
+            @Override
+            public void write(OutputStream outputStream) throws IOException
+            {
+                BatchResult[] batchResults;
+                try
+                {
+                    batchResults = BatchValidator.validate(names, documents);
+                }
+                catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted during batch validation");
+                }
+
+                if(json)
+                {
+                    JsonReportGenerator.writeBatchReport(batchResults, outputStream);
+                }
+                else
+                {
+                    ReportGenerator.writeBatchReport(batchResults, outputStream);
+                }
+            }
+        };
+        return Response.ok(output, json ? MediaType.APPLICATION_JSON_TYPE : MediaType.APPLICATION_XML_TYPE).build();
+    }
+
+    private Response tooLarge(String message)
+    {
+        logger.debug("Rejected a batch: " + message);
+        return MiringValidatorService.tooLarge(message);
+    }
+
+    /** 
+     * Thrown when the parts of a batch add up to more bytes than the batch can have.
+    */
+    static class BatchTooLargeException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** 
+     * An InputStream for one part of a batch, that stops with a BatchTooLargeException once the batch has too many bytes.
+    */
+    static class LimitedInputStream extends FilterInputStream
+    {
+        final long limit;
+        long bytesRead = 0;
+
+        /**
+         * Constructor for a LimitedInputStream
+         *
+         * @param inputStream the part's InputStream
+         * @param limit the most bytes that can be read from it
+         */
+        LimitedInputStream(InputStream inputStream, long limit)
+        {
+            super(inputStream);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if(b != -1)
+            {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int length = super.read(b, off, len);
+            if(length > 0)
+            {
+                count(length);
+            }
+            return length;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long length = super.skip(n);
+            count(length);
+            return length;
+        }
+
+        private void count(long length) throws BatchTooLargeException
+        {
+            bytesRead += length;
+            if(bytesRead > limit)
+            {
+                throw new BatchTooLargeException();
+            }
+        }
+    }
+}
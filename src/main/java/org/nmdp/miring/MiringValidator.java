@@ -22,26 +22,20 @@
 */
 package org.nmdp.miring;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.*;
 import java.util.Map.*;
-import java.io.StringReader;
 
 import org.nmdp.miring.ValidationResult.Severity;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.xml.sax.Attributes;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
@@ -53,12 +47,31 @@ public class MiringValidator
 {
     Logger logger = LoggerFactory.getLogger(MiringValidator.class);
     String xml;
+    HmlSource source;
     String report;
     ValidationResult[] tier1ValidationErrors;
     ValidationResult[] tier2ValidationErrors;
     ValidationResult[] hmlValidationErrors;
     Sample[] sampleIDs;
-    public static Document xmlDom;
+    HmlMetadata metadata;
+    //What goes on the report, decided by runValidation()
+    ValidationResult[] reportResults;
+    String hmlIdRoot;
+    String hmlIdExt;
+    HashMap<String,String> properties;
+    int hmlStart;
+    //Volatile, so another thread can watch the validation's progress.
+    volatile Stage stage = Stage.NOT_STARTED;
+
+    public enum Stage
+    {
+        //The stage a validation is in.  Stages only move forward, a validation that stops early goes straight to REPORT.
+        //HML = Reading the document and validating it against the HML schema.
+        //TIER1 = Validating against the MIRING tier 1 schema.
+        //TIER2 = Running the MIRING schematron rules.
+        //REPORT = Writing the MIRING Results Report.
+        NOT_STARTED, HML, TIER1, TIER2, REPORT, DONE
+    }
     
     /**
      * Constructor for a MiringValidator object
@@ -68,6 +81,20 @@ public class MiringValidator
     public MiringValidator(String xml)
     {
         this.xml = xml;
+        this.source = (xml == null) ? null : new StringHmlSource(xml);
+        this.report = null;
+    }
+
+    /**
+     * Constructor for a MiringValidator object, for a document that is not held as a String.
+     * The source is read by every validation stage, getXml() will return null.
+     *
+     * @param source the HmlSource for the document
+     */
+    public MiringValidator(HmlSource source)
+    {
+        this.xml = null;
+        this.source = source;
         this.report = null;
     }
     
@@ -78,42 +105,104 @@ public class MiringValidator
      */
     public String validate()
     {
-        if(xml==null || xml.length() == 0)
+        runValidation();
+        stage = Stage.REPORT;
+        report = ReportGenerator.generateReport(reportResults, hmlIdRoot, hmlIdExt, properties, sampleIDs, hmlStart);
+        stage = Stage.DONE;
+        return report;
+    }
+
+    /**
+     * Validate the xml text against MIRING checklist, and write the MIRING Results Report to an OutputStream.
+     * The report is written as it is generated, it is never held in memory as a String.  getReport() will return null.
+     *
+     * @param outputStream the OutputStream to write the report to.  It is not closed.
+     * @throws IOException if the report can not be written
+     */
+    public void validate(OutputStream outputStream) throws IOException
+    {
+        runValidation();
+        report = null;
+        stage = Stage.REPORT;
+        ReportGenerator.writeReport(reportResults, hmlIdRoot, hmlIdExt, properties, sampleIDs, hmlStart, outputStream);
+        stage = Stage.DONE;
+    }
+
+    /**
+     * Validate the xml text against MIRING checklist, and write the MIRING Results Report to an OutputStream in JSON format.
+     * The JSON report has the same information as the XML report.  It is written as it is generated, and getReport() will return null.
+     *
+     * @param outputStream the OutputStream to write the report to.  It is not closed.
+     * @throws IOException if the report can not be written
+     */
+    public void validateJson(OutputStream outputStream) throws IOException
+    {
+        runValidation();
+        report = null;
+        stage = Stage.REPORT;
+        JsonReportGenerator.writeReport(reportResults, hmlIdRoot, hmlIdExt, properties, sampleIDs, hmlStart, outputStream);
+        stage = Stage.DONE;
+    }
+
+    /**
+     * Run the HML, tier 1 and tier 2 validations, and decide what goes on the report.
+     */
+    void runValidation()
+    {
+        stage = Stage.HML;
+        hmlIdRoot = null;
+        hmlIdExt = null;
+        properties = null;
+        sampleIDs = null;
+        hmlStart = 0;
+        if(source==null || source.length() == 0)
         {
             logger.error("XML is null or length 0.");
-            return ReportGenerator.generateReport(new ValidationResult[]{new ValidationResult("XML is null or length 0.",Severity.FATAL), new ValidationResult("XML is null or length 0.", Severity.HMLFATAL)}, null, null,null,null,0);
+            reportResults = new ValidationResult[]{new ValidationResult("XML is null or length 0.",Severity.FATAL), new ValidationResult("XML is null or length 0.", Severity.HMLFATAL)};
+            return;
         }
         
-        HashMap<String,String> properties = Utilities.getPropertiesFromRootHml(xml);
+        //Read the version, namespace, hmlid, properties and samples in one pass, and reuse them below.
+        metadata = HmlMetadata.parse(source);
+        //Everything the validation stages need for this document lives in the context, so validators can run in parallel.
+        ValidationContext context = new ValidationContext(source, metadata);
         logger.debug("Attempting HML Validation");
         String version = getVersion();
-        System.out.println("Version Number = "+version);
+        logger.debug("Version Number = " + version);
         if(version==null)
         {
-            report = ReportGenerator.generateReport(new ValidationResult[]{new ValidationResult("No Version Number Detected Please have a version number under then HML node",Severity.FATAL),new ValidationResult("No Version Number Detected Please have a version number under then HML node",Severity.HMLFATAL)}, null, null,null,null,0);
+            reportResults = new ValidationResult[]{new ValidationResult("No Version Number Detected Please have a version number under then HML node",Severity.FATAL),new ValidationResult("No Version Number Detected Please have a version number under then HML node",Severity.HMLFATAL)};
+            return;
         }
-        else
-        {
+
+        properties = metadata.getProperties();
+        hmlIdRoot = metadata.getHmlIdRoot();
+        hmlIdExt = metadata.getHmlIdExtension();
+        //Documents with many samples can be validated a few samples at a time, in parallel.  null if this one is validated as a whole.
+        ShardedValidator shards = ShardedValidator.forDocument(context);
         //Make method called version control
-        hmlValidationErrors = SchemaValidator.validate(xml,"/org/nmdp/miring/schema/hml-"+version+".xsd");
+        String hmlSchema = "/org/nmdp/miring/schema/hml-"+version+".xsd";
+        hmlValidationErrors = (shards == null) ? SchemaValidator.validate(context, hmlSchema) : shards.validateSchema(hmlSchema);
         //If there are any fatal issues with HML do not continue
         if(!Utilities.hasHMLFatalErrors(hmlValidationErrors)&&!Utilities.hasRejects(hmlValidationErrors))
         {
         	//Tier 1
             logger.debug("Attempting Tier 1 Validation");
-            tier1ValidationErrors = SchemaValidator.validate(xml, getMiring(version));
-            sampleIDs = SchemaValidator.samples.toArray(new Sample[SchemaValidator.samples.size()]);
+            stage = Stage.TIER1;
+            tier1ValidationErrors = (shards == null) ? SchemaValidator.validate(context, getMiring(version)) : shards.validateSchema(getMiring(version));
+            sampleIDs = metadata.getSamples();
             //Tier 2
             //If tier 1 has fatal errors, we should not continue to tier 2.
             if(!Utilities.hasFatalErrors(tier1ValidationErrors))
             {
                 logger.debug("Attempting Tier 2 validation");
+                stage = Stage.TIER2;
                 
-                tier2ValidationErrors = SchematronValidator.validate(xml, new String[] {"/org/nmdp/miring/schematron/MiringAll.sch"});
-                //Make a report.
-                String hmlIdRoot = Utilities.getHMLIDRoot(xml);
-                String hmlIdExt = Utilities.getHMLIDExtension(xml);
-                report = ReportGenerator.generateReport(Utilities.combineArrays(tier1ValidationErrors, tier2ValidationErrors, hmlValidationErrors), hmlIdRoot, hmlIdExt, properties, sampleIDs,(tier1ValidationErrors.length + tier2ValidationErrors.length));
+                String[] schematronFiles = new String[] {"/org/nmdp/miring/schematron/MiringAll.sch"};
+                tier2ValidationErrors = (shards == null) ? SchematronValidator.validate(context, schematronFiles) : shards.validateSchematron(schematronFiles);
+                //Report everything.
+                reportResults = ValidationResultCollector.merge(tier1ValidationErrors, tier2ValidationErrors, hmlValidationErrors);
+                hmlStart = tier1ValidationErrors.length + tier2ValidationErrors.length;
 
                 
                 //Tier 3 is outside scope for now.  Okay.
@@ -127,26 +216,19 @@ public class MiringValidator
                 logger.error("Did not perform tier 2 validation, fatal errors in tier 1.");
                 tier2ValidationErrors=new ValidationResult[0];
                 
-                //Make a report.
-                String hmlIdRoot = Utilities.getHMLIDRoot(xml);
-                String hmlIdExt = Utilities.getHMLIDExtension(xml);
-                report = ReportGenerator.generateReport(Utilities.combineArrays(tier1ValidationErrors,tier2ValidationErrors,  hmlValidationErrors), hmlIdRoot, hmlIdExt, properties, sampleIDs,(tier1ValidationErrors.length+1));
+                //Report everything.
+                reportResults = ValidationResultCollector.merge(tier1ValidationErrors, tier2ValidationErrors, hmlValidationErrors);
+                hmlStart = tier1ValidationErrors.length+1;
             }
 
         }
         else
         {
-            //Make a report.
-            String hmlIdRoot = Utilities.getHMLIDRoot(xml);
-            String hmlIdExt = Utilities.getHMLIDExtension(xml);
-            report = ReportGenerator.generateReport(hmlValidationErrors, hmlIdRoot, hmlIdExt, properties, sampleIDs,0);
+            //Report the HML errors.
+            reportResults = hmlValidationErrors;
 
             logger.error("Did not perform Tier 1 validation, fatal errors in HML or malformed HML");
         }
-        }
-        
-        
-        return report;
     }
 
     public String getXml()
@@ -157,6 +239,8 @@ public class MiringValidator
     public void setXml(String xml)
     {
         this.xml = xml;
+        this.source = (xml == null) ? null : new StringHmlSource(xml);
+        this.metadata = null;
     }
 
     
@@ -164,35 +248,50 @@ public class MiringValidator
     {
         return report;
     }
+
+    public Stage getStage()
+    {
+        return stage;
+    }
+
+    /**
+     * Forget the document, so a validator that is kept around for it's results doesn't hold on to a large document.
+     * The report can still be written after this, everything it needs is kept.
+     */
+    void releaseDocument()
+    {
+        xml = null;
+        source = null;
+        metadata = null;
+    }
+
+    /**
+     * A MiringValidator whose report only says that the validation failed.
+     *
+     * @param cause the reason the validation failed
+     * @return a MiringValidator ready to write a report
+     */
+    static MiringValidator failedValidator(Throwable cause)
+    {
+        MiringValidator validator = new MiringValidator((HmlSource)null);
+        String errorText = "Validation failed: " + cause;
+        validator.reportResults = new ValidationResult[]{new ValidationResult(errorText,Severity.FATAL),new ValidationResult(errorText,Severity.HMLFATAL)};
+        return validator;
+    }
     /* Gets the version of HML used to validate
      */
     public String getVersion()
     {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder;
-        Document xmlDOM=null;
-        try {
-            builder = factory.newDocumentBuilder();
-             xmlDOM = builder.parse(new InputSource(new StringReader(xml)));
-            
-        }
-        //I am returning 1.0.1 due to server error if it returns a null.
-        catch (Exception e) {
-            System.out.println("Error in handle Grabbing ");
-            return "1.0.1";
+        if(metadata == null)
+        {
+            metadata = HmlMetadata.parse(source);
         }
-        NodeList xmlAttributes = xmlDOM.getElementsByTagName("*");
-        NamedNodeMap xmlAttribute = xmlAttributes.item(0).getAttributes();
-        for(int i = 0; i<xmlAttribute.getLength();i++){
-            if(xmlAttribute.item(i).getNodeName().equals("version"))
-            {
-                return xmlAttribute.item(i).getNodeValue();
-            }
+        if(!metadata.isWellFormed())
+        {
+            //HmlMetadata keeps it's default version, 1.0.1, when the document can't be read.  A null version causes server errors.
+            logger.error("Can not read the HML version, the document is not well formed.  Using version " + metadata.getVersion());
         }
-        return null;
-        
-        
-        
+        return metadata.getVersion();
     }
     /* Based on version choose correct miring schema (They are the same except for the name space)
      */
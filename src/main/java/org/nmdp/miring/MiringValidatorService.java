@@ -22,34 +22,59 @@
 */
 package org.nmdp.miring;
 
+import org.nmdp.miring.MappedFileHmlSource.DocumentTooLargeException;
 import org.nmdp.miring.ValidationResult.Severity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.ws.rs.Consumes;
 import javax.ws.rs.FormParam;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 /** 
  * This class provides a REST service to access the MIRING Validator.  
- * It expects a POST request with a single form parameter called xml.
+ * It expects a POST request with a single form parameter called xml, like the web page sends,
+ * or a POST request whose body is the xml itself, with a Content-Type of application/xml or text/xml.
+ * Either request may be sent with Content-Encoding: gzip, and the report is gzipped if Accept-Encoding allows it.
+ * The compression is handled by the GZIPContentEncodingFilter configured in web.xml.
+ * 
+ * The report is XML, unless the Accept header prefers application/json.  Then the same report is written as JSON.
+ * Reports are kept in the ReportCache, so a document that is sent again gets it's report without being validated again.
+ * Copies of a document that arrive while it is being validated wait for that validation, instead of validating it again.
+ * GET ValidateMiring/cache for the cache's statistics.
 */
 
 @Path("/ValidateMiring")
 public class MiringValidatorService
 {
     Logger logger = LoggerFactory.getLogger(MiringValidatorService.class);
+    //JAX-RS 1.1 has no Response.Status for 413.
+    static final int requestEntityTooLarge = 413;
     
     /**
      * This method provides a RESTFUL service for validating a MIRING compliant HML file
+     * 
+     * The validation runs when the response is written, and the report is streamed straight to the response as it is generated.
      *
      * @param xml this method accepts a Form Parameter "xml" containing the xml text
-     * @return a String containing MIRING Results Report in XML format.
+     * @param headers the request headers, used to choose between an XML and a JSON report
+     * @return a Response that writes the MIRING Results Report in XML or JSON format.
      */
     @POST
-    @Produces("application/xml")
-    public String validateMiring(@FormParam("xml") String xml)
+    @Produces({"application/xml", "application/json"})
+    public Response validateMiring(@FormParam("xml") final String xml, @Context HttpHeaders headers)
     {
         //System.out.println("Web Service Call Received.  ");
         //System.out.println("XML length=" + xml==null?"NULL":(xml.length() + " : " + xml.substring(0,20) + " ... " + xml.substring(xml.length()-20, xml.length())));
@@ -57,24 +82,197 @@ public class MiringValidatorService
         logger.debug( "Received Miring Validation web service call.");
         //logger.debug("The exact text of the variable 'xml' is between the curly braces: \n{" + xml + "}\n");
         
+        boolean json = prefersJson(headers);
         if(xml == null)
         {
             logger.error("XML is Null.");
-            return ReportGenerator.generateReport(new ValidationResult[]{new ValidationResult("XML is null.",Severity.FATAL),new ValidationResult("XML is null.",Severity.HMLFATAL)}, null, null,null,null,0);
+            return reportResponse(new ValidationResult[]{new ValidationResult("XML is null.",Severity.FATAL),new ValidationResult("XML is null.",Severity.HMLFATAL)}, json);
         }
         else if(xml.length() == 0)
         {
             logger.error("XML is Empty.");
-            return ReportGenerator.generateReport(new ValidationResult[]{new ValidationResult("XML is length 0.",Severity.FATAL),new ValidationResult("XML is length 0.",Severity.HMLFATAL)}, null, null,null,null,0);
+            return reportResponse(new ValidationResult[]{new ValidationResult("XML is length 0.",Severity.FATAL),new ValidationResult("XML is length 0.",Severity.HMLFATAL)}, json);
         }
         else
         {
             logger.debug("XML Length = " + xml.length());
 
-            MiringValidator myValidator = new MiringValidator(xml);
-            myValidator.validate();
+            return validationResponse(new MiringValidator(xml), json);
+        }
+    }
+
+    /**
+     * This method provides a RESTFUL service for validating a MIRING compliant HML file sent as the request body.
+     * 
+     * The body is read as raw bytes and handed to the parsers, it is never form decoded or copied into a String.
+     * The parsers honor the encoding in the xml declaration.  A body larger than org.nmdp.miring.spoolMegabytes is
+     * spooled to a temp file and memory mapped, so the body itself isn't held on the heap.  The schematron stage still builds
+     * a tree of the document, see MappedFileHmlSource.  A body larger than org.nmdp.miring.maxDocumentMegabytes gets 413 Request Entity Too Large.
+     *
+     * @param body the request body, containing the xml document
+     * @param headers the request headers, used to choose between an XML and a JSON report
+     * @return a Response that writes the MIRING Results Report in XML or JSON format, or 413 if the document is too large.
+     * @throws IOException if the request body can not be read
+     */
+    @POST
+    @Consumes({"application/xml", "text/xml"})
+    @Produces({"application/xml", "application/json"})
+    public Response validateMiringXml(InputStream body, @Context HttpHeaders headers) throws IOException
+    {
+        logger.debug( "Received Miring Validation web service call with an xml body.");
 
-            return myValidator.getReport();
+        boolean json = prefersJson(headers);
+        //The request body can only be read here, before the response starts.  Every validation stage reads these bytes again.
+        HmlSource source;
+        try
+        {
+            source = MappedFileHmlSource.read(body);
         }
+        catch(DocumentTooLargeException e)
+        {
+            logger.debug("Rejected a document: " + e.getMessage());
+            return tooLarge(e.getMessage());
+        }
+        if(source.length() == 0)
+        {
+            logger.error("XML is Empty.");
+            return reportResponse(new ValidationResult[]{new ValidationResult("XML is length 0.",Severity.FATAL),new ValidationResult("XML is length 0.",Severity.HMLFATAL)}, json);
+        }
+
+        logger.debug("XML Length = " + source.length() + " bytes");
+
+        return validationResponse(new MiringValidator(source), json);
+    }
+
+    /**
+     * Get the report cache's statistics, the number of hits, misses, evictions and coalesced requests and how full it is.
+     *
+     * @param headers the request headers, used to choose between XML and JSON
+     * @return a Response that writes the statistics
+     */
+    @GET
+    @Path("cache")
+    @Produces({"application/xml", "application/json"})
+    public Response getCacheStatistics(@Context HttpHeaders headers)
+    {
+        final boolean json = prefersJson(headers);
+        final ReportCache cache = ReportCache.getInstance();
+        StreamingOutput output = new StreamingOutput()
+        {
+            @Override
+            public void write(OutputStream outputStream) throws IOException
+            {
+                if(json)
+                {
+                    JsonReportGenerator.writeCacheStatistics(cache, outputStream);
+                }
+                else
+                {
+                    ReportGenerator.writeCacheStatistics(cache, outputStream);
+                }
+            }
+        };
+        return Response.ok(output, json ? MediaType.APPLICATION_JSON_TYPE : MediaType.APPLICATION_XML_TYPE).build();
+    }
+
+    /**
+     * Decide whether the client wants a JSON report.  The Accept header is checked in order of preference,
+     * and the first type that matches either report wins.  A wildcard, or no Accept header, gets the XML report.
+     *
+     * @param headers the request headers
+     * @return true if application/json is preferred to application/xml
+     */
+    static boolean prefersJson(HttpHeaders headers)
+    {
+        if(headers != null)
+        {
+            for(MediaType mediaType : headers.getAcceptableMediaTypes())
+            {
+                if(mediaType.isCompatible(MediaType.APPLICATION_XML_TYPE))
+                {
+                    return false;
+                }
+                if(mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A Response that runs the validation when it is written, and streams the report to the client.
+     *
+     * @param validator the MiringValidator for the document
+     * @param json true for a JSON report, false for an XML report
+     * @return a Response that writes the report
+     */
+    private static Response validationResponse(final MiringValidator validator, final boolean json)
+    {
+        final StreamingOutput validation = new StreamingOutput()
+        {
+            @Override
+            public void write(OutputStream outputStream) throws IOException
+            {
+                if(json)
+                {
+                    validator.validateJson(outputStream);
+                }
+                else
+                {
+                    validator.validate(outputStream);
+                }
+            }
+        };
+        StreamingOutput output = new StreamingOutput()
+        {
+            @Override
+            public void write(OutputStream outputStream) throws IOException
+            {
+                //A document that was validated recently, or is being validated for another request, gets the same report with a new timestamp.
+                ReportCache cache = ReportCache.getInstance();
+                cache.writeReport(cache.getKey(validator.source, json), json, outputStream, validation);
+            }
+        };
+        return Response.ok(output, json ? MediaType.APPLICATION_JSON_TYPE : MediaType.APPLICATION_XML_TYPE).build();
+    }
+
+    /**
+     * A 413 Response, for a request body that is too large.
+     *
+     * @param message the reason, sent as plain text
+     * @return the Response
+     */
+    static Response tooLarge(String message)
+    {
+        return Response.status(requestEntityTooLarge).entity(message).type(MediaType.TEXT_PLAIN_TYPE).build();
+    }
+
+    /**
+     * A Response for a report with no HML information, like when there is no xml to validate.
+     *
+     * @param validationResults the ValidationResults to put on the report
+     * @param json true for a JSON report, false for an XML report
+     * @return a Response that writes the report
+     */
+    private static Response reportResponse(final ValidationResult[] validationResults, final boolean json)
+    {
+        StreamingOutput output = new StreamingOutput()
+        {
+            @Override
+            public void write(OutputStream outputStream) throws IOException
+            {
+                if(json)
+                {
+                    JsonReportGenerator.writeReport(validationResults, null, null, null, null, 0, outputStream);
+                }
+                else
+                {
+                    ReportGenerator.writeReport(validationResults, null, null, null, null, 0, outputStream);
+                }
+            }
+        };
+        return Response.ok(output, json ? MediaType.APPLICATION_JSON_TYPE : MediaType.APPLICATION_XML_TYPE).build();
     }
 }
@@ -0,0 +1,222 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/** 
+ * ProbatronEngine is the long-lived Tier 2 engine.  It loads the Probatron classes once, and compiles each schematron schema once.
+ * 
+ * Probatron's SchematronSchema.validateCandidate turns the schematron into XSLT on every call: it resolves the includes,
+ * expands the abstract patterns, and compiles the result with iso_svrl_for_xslt2.xsl, before it finally runs the rules on the candidate.
+ * This class performs the same steps with Probatron's own classes and stylesheets, but keeps the compiled XSLT as a Templates object.
+ * A validation only runs the compiled rules against the document.  Templates are thread safe, so every request shares them.
+*/
+public class ProbatronEngine implements SchematronEngine
+{
+    static Logger logger = LoggerFactory.getLogger(ProbatronEngine.class);
+    static String jarFileName = "/org/nmdp/miring/jar/probatron.jar";
+    private static ProbatronEngine instance = null;
+
+    ClassLoader loadedProbatronClasses;
+    ConcurrentMap<String, Templates> compiledSchemas = new ConcurrentHashMap<String, Templates>();
+
+    private ProbatronEngine() throws Exception
+    {
+        logger.debug("Opening jar file: " + jarFileName);
+        URL jarURL = ProbatronEngine.class.getResource(jarFileName);
+        loadedProbatronClasses = Utilities.loadJarElements(new File(jarURL.toURI()));
+        if(loadedProbatronClasses == null)
+        {
+            throw new Exception("Unable to load Probatron from " + jarFileName);
+        }
+    }
+
+    /**
+     * Get the shared ProbatronEngine, loading the Probatron jar the first time it is called.
+     *
+     * @return the ProbatronEngine
+     * @throws Exception if the Probatron jar can not be loaded
+     */
+    public static synchronized ProbatronEngine getInstance() throws Exception
+    {
+        if(instance == null)
+        {
+            instance = new ProbatronEngine();
+        }
+        return instance;
+    }
+
+    /**
+     * Run a schematron schema against an xml document.
+     *
+     * @param document the Source for the xml to validate
+     * @param schemaLocation the name of the schematron schema resource to validate against
+     * @param result the Result that receives the SVRL report, the same report as org.probatron.ValidationReport.reportAsBytes()
+     * @throws Exception if the schema can not be compiled, or the transform fails
+     */
+    @Override
+    public void validate(Source document, String schemaLocation, Result result) throws Exception
+    {
+        getCompiledSchema(schemaLocation).newTransformer().transform(document, result);
+    }
+
+    /**
+     * Get the compiled XSLT for a schematron schema, compiling it if this is the first request for it.
+     *
+     * @param schemaLocation the name of the schematron schema resource
+     * @return the compiled Templates
+     * @throws Exception if the schema can not be compiled
+     */
+    Templates getCompiledSchema(String schemaLocation) throws Exception
+    {
+        Templates templates = compiledSchemas.get(schemaLocation);
+        if(templates == null)
+        {
+            //Two threads may both compile a schema the first time it is used.  Only one copy is kept.
+            Templates compiledTemplates = compileSchema(schemaLocation);
+            templates = compiledSchemas.putIfAbsent(schemaLocation, compiledTemplates);
+            if(templates == null)
+            {
+                templates = compiledTemplates;
+            }
+        }
+        return templates;
+    }
+
+    /**
+     * Compile a schematron schema into XSLT.  This mimics the first three steps of Probatron's SchematronSchema.validateCandidate.
+     *
+     * @param schemaLocation the name of the schematron schema resource
+     * @return the compiled Templates
+     * @throws Exception if the schema can not be compiled
+     */
+    private Templates compileSchema(String schemaLocation) throws Exception
+    {
+        long startTime = System.currentTimeMillis();
+        URL schemaFileURL = ProbatronEngine.class.getResource(schemaLocation);
+        if(schemaFileURL == null)
+        {
+            throw new Exception("Schematron resource not found: " + schemaLocation);
+        }
+
+        //org.probatron.JarUriResolver finds the ISO schematron stylesheets inside the probatron jar.
+        URIResolver jarUriResolver = (URIResolver) loadedProbatronClasses.loadClass("org.probatron.JarUriResolver").newInstance();
+        TransformerFactory transformerFactory = getTransformerFactory();
+        transformerFactory.setURIResolver(jarUriResolver);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        //Resolve the .incl files, using org.probatron.IncludingFilter
+        logger.debug("Performing inclusion on " + schemaLocation);
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        XMLFilterImpl includingFilter = (XMLFilterImpl) loadedProbatronClasses.loadClass("org.probatron.IncludingFilter")
+            .getConstructor(URL.class, boolean.class).newInstance(schemaFileURL, true);
+        includingFilter.setParent(factory.newSAXParser().getXMLReader());
+        includingFilter.setContentHandler((ContentHandler) loadedProbatronClasses.loadClass("com.megginson.sax.XMLWriter")
+            .getConstructor(Writer.class).newInstance(new OutputStreamWriter(outputStream)));
+        includingFilter.parse(new InputSource(new ByteArrayInputStream(readResource(schemaFileURL))));
+        byte[] schemaBytes = outputStream.toByteArray();
+        outputStream.reset();
+
+        //Expand the abstract patterns
+        logger.debug("Running abstract template expansion transform on " + schemaLocation);
+        Transformer transformer = transformerFactory.newTransformer(jarUriResolver.resolve("iso_abstract_expand.xsl", null));
+        transformer.transform(new StreamSource(new ByteArrayInputStream(schemaBytes)), new StreamResult(outputStream));
+        schemaBytes = outputStream.toByteArray();
+        outputStream.reset();
+
+        //Turn the schematron into XSLT.  full-path-notation 4 is what Probatron uses, it gives the locations we strip namespaces from.
+        logger.debug("Transforming schema to XSLT " + schemaLocation);
+        transformer = transformerFactory.newTransformer(jarUriResolver.resolve("iso_svrl_for_xslt2.xsl", null));
+        transformer.setParameter("full-path-notation", "4");
+        transformer.transform(new StreamSource(new ByteArrayInputStream(schemaBytes)), new StreamResult(outputStream));
+        schemaBytes = outputStream.toByteArray();
+
+        Templates templates = getTransformerFactory().newTemplates(new StreamSource(new ByteArrayInputStream(schemaBytes)));
+        logger.debug("Compiled " + schemaLocation + " in " + (System.currentTimeMillis() - startTime) + " ms");
+        return templates;
+    }
+
+    /**
+     * Get a TransformerFactory the same way Probatron does, from org.probatron.Utils.getTransformerFactory.
+     *
+     * @return a Saxon TransformerFactory
+     * @throws Exception if the reflected call fails
+     */
+    private TransformerFactory getTransformerFactory() throws Exception
+    {
+        return (TransformerFactory) loadedProbatronClasses.loadClass("org.probatron.Utils").getMethod("getTransformerFactory").invoke(null);
+    }
+
+    /**
+     * Read the bytes of a resource.
+     *
+     * @param resourceURL the URL of the resource
+     * @return a byte array with the contents of the resource
+     * @throws Exception if the resource can not be read
+     */
+    private static byte[] readResource(URL resourceURL) throws Exception
+    {
+        InputStream inputStream = resourceURL.openStream();
+        try
+        {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int length;
+            while((length = inputStream.read(buffer)) != -1)
+            {
+                outputStream.write(buffer, 0, length);
+            }
+            return outputStream.toByteArray();
+        }
+        finally
+        {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,746 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** 
+ * ReportCache keeps the MIRING Results Reports of recent validations, so a document that is sent again is not validated again.
+ * 
+ * Reports are keyed by a SHA-256 digest of the document's bytes, the kind of HmlSource, the report format, the schematron engine
+ * and the rule set version.  The rule set version is a digest of the schema and schematron resources, so a deployment with
+ * different rules never sees a report made with the old ones.  The rules are compiled once, so the version is read once too.
+ * 
+ * A hit writes the stored report with the timestamp replaced by the current time, everything else is the same as a new validation.
+ * A miss for a document that is already being validated for another request waits for that validation, and shares it's report.
+ * Retries of the same document that arrive together are validated once.  They are counted as coalesced.
+ * The shared validation streams it's report to the request that started it, and keeps a copy no bigger than a cache entry can be.
+ * If that client goes away the copy is still made, so the waiting requests get the report.  If the report is too big to keep,
+ * the copy is dropped and each waiting request validates the document itself.  If the validation fails, the waiting requests fail with it.
+ * A request that waits longer than org.nmdp.miring.reportCacheWaitSeconds stops waiting and validates the document itself.
+ * The least recently used reports are evicted when the cache is full, and reports older than the time to live are not used.
+ * The sizes come from the system properties org.nmdp.miring.reportCacheMegabytes and org.nmdp.miring.reportCacheMinutes.
+ * A size of 0 turns the cache off, and every request validates it's own document.
+*/
+public class ReportCache
+{
+    static Logger logger = LoggerFactory.getLogger(ReportCache.class);
+    public static final String megabytesProperty = "org.nmdp.miring.reportCacheMegabytes";
+    public static final String minutesProperty = "org.nmdp.miring.reportCacheMinutes";
+    public static final String waitSecondsProperty = "org.nmdp.miring.reportCacheWaitSeconds";
+    private static ReportCache instance = null;
+
+    //Every resource directory that can change a validation result: the schemas, the schematron rules and the iso stylesheets that compile them,
+    //and the rule templates that give results their text.  Every file under them is part of the rule set version, so a new or renamed file counts.
+    static final String[] ruleSetDirectories = new String[]
+    {
+        "/org/nmdp/miring/schema/",
+        "/org/nmdp/miring/schematron/",
+        "/org/nmdp/miring/ruletemplates/"
+    };
+    //The timestamp is the first one in an XML or JSON report.
+    static final byte[] xmlTimestampMarker = "timestamp=\"".getBytes(StandardCharsets.UTF_8);
+    static final byte[] jsonTimestampMarker = "\"timestamp\":\"".getBytes(StandardCharsets.UTF_8);
+    static final int timestampSearchLength = 1024;
+
+    private static volatile String ruleSetVersion = null;
+
+    final long maxBytes;
+    final long timeToLiveMillis;
+    //How long a request waits for the same document's validation for another request.
+    final long waitMillis;
+    //Access order, so the eldest entry is the least recently used.
+    private final LinkedHashMap<String, CachedReport> reports = new LinkedHashMap<String, CachedReport>(16, 0.75f, true);
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long expirations = 0;
+    //The documents being validated, by key.  A Flight is done when the report is ready, or the validation fails.
+    private final Map<String, Flight> inFlight = new HashMap<String, Flight>();
+    private long coalesced = 0;
+
+    /**
+     * Constructor for a ReportCache
+     *
+     * @param maxBytes the total size of the reports that are kept, in bytes.  0 to keep no reports.
+     * @param timeToLiveMillis how long a report is used, in milliseconds
+     */
+    ReportCache(long maxBytes, long timeToLiveMillis)
+    {
+        this(maxBytes, timeToLiveMillis, TimeUnit.MINUTES.toMillis(5));
+    }
+
+    /**
+     * Constructor for a ReportCache
+     *
+     * @param maxBytes the total size of the reports that are kept, in bytes.  0 to keep no reports.
+     * @param timeToLiveMillis how long a report is used, in milliseconds
+     * @param waitMillis how long a request waits for the same document's validation for another request, in milliseconds
+     */
+    ReportCache(long maxBytes, long timeToLiveMillis, long waitMillis)
+    {
+        this.maxBytes = maxBytes;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.waitMillis = waitMillis;
+    }
+
+    /**
+     * Get the ReportCache that the web service uses, creating it the first time.
+     *
+     * @return the shared ReportCache
+     */
+    public static synchronized ReportCache getInstance()
+    {
+        if(instance == null)
+        {
+            long megabytes = Math.max(0, Integer.getInteger(megabytesProperty, 64));
+            long minutes = Math.max(1, Integer.getInteger(minutesProperty, 60));
+            long waitSeconds = Math.max(1, Integer.getInteger(waitSecondsProperty, 300));
+            logger.debug("Keeping " + megabytes + " MB of reports for " + minutes + " minutes");
+            instance = new ReportCache(megabytes * 1024 * 1024, TimeUnit.MINUTES.toMillis(minutes), TimeUnit.SECONDS.toMillis(waitSeconds));
+        }
+        return instance;
+    }
+
+    /**
+     * @return true if the cache keeps any reports
+     */
+    public boolean isEnabled()
+    {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Get the key of a document's report.  The whole document is read to digest it.
+     *
+     * @param source the HmlSource for the document
+     * @param json true for a JSON report, false for an XML report
+     * @return the key, or null if the cache is off or the document can not be read
+     */
+    public String getKey(HmlSource source, boolean json)
+    {
+        if(!isEnabled() || source == null)
+        {
+            return null;
+        }
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            //A String and the same bytes can be parsed differently, the encoding in the xml declaration only applies to bytes.
+            String context = getRuleSetVersion() + "\n" + SchematronValidator.getEngine().getClass().getName()
+                + "\n" + source.getClass().getName() + "\n" + (json ? "json" : "xml") + "\n";
+            digest.update(context.getBytes(StandardCharsets.UTF_8));
+            InputStream inputStream = source.newInputStream();
+            try
+            {
+                digest(digest, inputStream);
+            }
+            finally
+            {
+                inputStream.close();
+            }
+            return toHex(digest.digest());
+        }
+        catch(Exception e)
+        {
+            logger.error("Can not make a report cache key, the report will not be cached.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Write a document's report.  A stored report is written with the current time as it's timestamp.
+     * If the same document is being validated for another request, this one waits for that validation and writes it's report.
+     * Otherwise the validation is streamed to this request, and the report is kept if it is small enough.
+     *
+     * @param key the key of the document's report, or null to just run the validation
+     * @param json true for a JSON report, false for an XML report
+     * @param outputStream the OutputStream to write the report to.  It is not closed.
+     * @param validation validates the document and writes it's report to the OutputStream it is given
+     * @throws IOException if the report can not be written, or the validation fails
+     */
+    public void writeReport(String key, boolean json, OutputStream outputStream, StreamingOutput validation) throws IOException
+    {
+        if(key == null)
+        {
+            validation.write(outputStream);
+            return;
+        }
+
+        CachedReport cachedReport = null;
+        Flight flight = null;
+        boolean owner = false;
+        synchronized(this)
+        {
+            cachedReport = getReport(key, System.currentTimeMillis());
+            if(cachedReport == null)
+            {
+                flight = inFlight.get(key);
+                if(flight == null)
+                {
+                    flight = new Flight();
+                    inFlight.put(key, flight);
+                    owner = true;
+                }
+                else
+                {
+                    coalesced++;
+                }
+            }
+        }
+        if(owner)
+        {
+            validate(key, json, outputStream, validation, flight);
+            return;
+        }
+        if(cachedReport == null)
+        {
+            if(!flight.await(waitMillis))
+            {
+                logger.warn("Waited " + waitMillis + " ms for the same document's validation for another request, validating it again");
+                validation.write(outputStream);
+                return;
+            }
+            if(flight.failure != null)
+            {
+                throw new IOException("The validation of the same document for another request failed", flight.failure);
+            }
+            if(flight.report == null)
+            {
+                //The report was too big to keep.
+                validation.write(outputStream);
+                return;
+            }
+            cachedReport = flight.report;
+        }
+        String timestamp = ReportGenerator.dateFormat.format(LocalDateTime.now());
+        cachedReport.write(timestamp.getBytes(StandardCharsets.UTF_8), outputStream);
+    }
+
+    /**
+     * Validate a document for this request, and keep a copy of it's report for the cache and the requests waiting on the flight.
+     * The copy is dropped once it is bigger than a quarter of the cache, so a big report is never held in memory.
+     *
+     * @param key the key of the document's report
+     * @param json true for a JSON report, false for an XML report
+     * @param outputStream this request's OutputStream
+     * @param validation writes the document's report
+     * @param flight the Flight the other requests wait on.  It is done when this returns or throws.
+     * @throws IOException if the validation fails, or the report can not be written to this request's OutputStream
+     */
+    private void validate(String key, boolean json, OutputStream outputStream, StreamingOutput validation, Flight flight) throws IOException
+    {
+        ReportCapture capture = new ReportCapture(outputStream, maxBytes / 4);
+        CachedReport cachedReport = null;
+        Throwable failure = null;
+        try
+        {
+            validation.write(capture);
+            byte[] report = capture.getReport();
+            if(report != null)
+            {
+                long now = System.currentTimeMillis();
+                cachedReport = new CachedReport(report, findTimestamp(report, json ? jsonTimestampMarker : xmlTimestampMarker), now);
+                putReport(key, report, json, now);
+            }
+            capture.throwClientFailure();
+        }
+        catch(Throwable e)
+        {
+            //This request's client going away, with a report too big to keep, is not a failure of the validation.
+            failure = (capture.clientFailure == null) ? e : null;
+            throw e;
+        }
+        finally
+        {
+            synchronized(this)
+            {
+                inFlight.remove(key);
+            }
+            flight.finish(cachedReport, failure);
+        }
+    }
+
+    /**
+     * Get a report, if it is in the cache and hasn't expired.
+     *
+     * @param key the key of the document's report, or null
+     * @param now the current time in milliseconds
+     * @return the CachedReport, or null
+     */
+    synchronized CachedReport getReport(String key, long now)
+    {
+        if(key == null)
+        {
+            return null;
+        }
+        CachedReport cachedReport = reports.get(key);
+        if(cachedReport != null && now - cachedReport.storedMillis >= timeToLiveMillis)
+        {
+            remove(key);
+            expirations++;
+            cachedReport = null;
+        }
+        if(cachedReport == null)
+        {
+            misses++;
+        }
+        else
+        {
+            hits++;
+        }
+        return cachedReport;
+    }
+
+    /**
+     * Keep a report, evicting the least recently used reports to make room for it.
+     *
+     * @param key the key of the document's report
+     * @param report the report as it was written
+     * @param json true for a JSON report, false for an XML report
+     * @param now the current time in milliseconds
+     */
+    synchronized void putReport(String key, byte[] report, boolean json, long now)
+    {
+        int timestampOffset = findTimestamp(report, json ? jsonTimestampMarker : xmlTimestampMarker);
+        if(timestampOffset < 0 || report.length > maxBytes)
+        {
+            logger.debug("Not caching a report of " + report.length + " bytes");
+            return;
+        }
+        remove(key);
+        reports.put(key, new CachedReport(report, timestampOffset, now));
+        bytes += report.length;
+        Iterator<CachedReport> it = reports.values().iterator();
+        while(bytes > maxBytes && it.hasNext())
+        {
+            bytes -= it.next().report.length;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private void remove(String key)
+    {
+        CachedReport cachedReport = reports.remove(key);
+        if(cachedReport != null)
+        {
+            bytes -= cachedReport.report.length;
+        }
+    }
+
+    /**
+     * Forget every report.  The statistics are kept.
+     */
+    public synchronized void clear()
+    {
+        reports.clear();
+        bytes = 0;
+    }
+
+    public synchronized int getEntryCount()
+    {
+        return reports.size();
+    }
+
+    public synchronized long getBytes()
+    {
+        return bytes;
+    }
+
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    public synchronized long getExpirations()
+    {
+        return expirations;
+    }
+
+    /**
+     * @return the number of requests that waited for the validation of the same document for another request, instead of validating it again.
+     * They are counted as misses too.
+     */
+    public synchronized long getCoalesced()
+    {
+        return coalesced;
+    }
+
+    /**
+     * @return the number of documents being validated now, that other requests can wait for
+     */
+    public synchronized int getInFlightCount()
+    {
+        return inFlight.size();
+    }
+
+    /**
+     * Get the rule set version, a digest of every resource in the rule set directories.  It is read the first time it is needed.
+     *
+     * @return the rule set version, as hex
+     * @throws Exception if a directory can not be listed, or a resource can not be read
+     */
+    static String getRuleSetVersion() throws Exception
+    {
+        if(ruleSetVersion == null)
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for(String resourceName : listRuleSetResources())
+            {
+                digest.update(resourceName.getBytes(StandardCharsets.UTF_8));
+                InputStream resourceStream = ReportCache.class.getResourceAsStream(resourceName);
+                if(resourceStream == null)
+                {
+                    throw new IOException("Rule set resource not found: " + resourceName);
+                }
+                try
+                {
+                    digest(digest, resourceStream);
+                }
+                finally
+                {
+                    resourceStream.close();
+                }
+            }
+            ruleSetVersion = toHex(digest.digest());
+            logger.debug("Rule set version " + ruleSetVersion);
+        }
+        return ruleSetVersion;
+    }
+
+    /**
+     * List the resources in the rule set directories, from the classes directory or from a jar.
+     *
+     * @return the resource names, sorted so the version doesn't depend on the order the files are listed in
+     * @throws Exception if a directory is missing, or can not be listed
+     */
+    static List<String> listRuleSetResources() throws Exception
+    {
+        List<String> resourceNames = new ArrayList<String>();
+        for(String directoryName : ruleSetDirectories)
+        {
+            URL directoryURL = ReportCache.class.getResource(directoryName);
+            if(directoryURL == null)
+            {
+                throw new IOException("Rule set directory not found: " + directoryName);
+            }
+            if(directoryURL.getProtocol().equals("file"))
+            {
+                listFiles(new File(directoryURL.toURI()), directoryName, resourceNames);
+            }
+            else if(directoryURL.getProtocol().equals("jar"))
+            {
+                JarURLConnection connection = (JarURLConnection)directoryURL.openConnection();
+                JarFile jarFile = connection.getJarFile();
+                String prefix = directoryName.substring(1);
+                for(Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements();)
+                {
+                    JarEntry entry = entries.nextElement();
+                    if(!entry.isDirectory() && entry.getName().startsWith(prefix))
+                    {
+                        resourceNames.add("/" + entry.getName());
+                    }
+                }
+            }
+            else
+            {
+                throw new IOException("Can not list the rule set directory " + directoryURL);
+            }
+        }
+        Collections.sort(resourceNames);
+        return resourceNames;
+    }
+
+    private static void listFiles(File directory, String directoryName, List<String> resourceNames) throws IOException
+    {
+        File[] files = directory.listFiles();
+        if(files == null)
+        {
+            throw new IOException("Can not list the rule set directory " + directory);
+        }
+        for(File file : files)
+        {
+            if(file.isDirectory())
+            {
+                listFiles(file, directoryName + file.getName() + "/", resourceNames);
+            }
+            else
+            {
+                resourceNames.add(directoryName + file.getName());
+            }
+        }
+    }
+
+    private static void digest(MessageDigest digest, InputStream inputStream) throws IOException
+    {
+        byte[] buffer = new byte[8192];
+        int bytesRead;
+        while((bytesRead = inputStream.read(buffer)) != -1)
+        {
+            digest.update(buffer, 0, bytesRead);
+        }
+    }
+
+    static String toHex(byte[] digest)
+    {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for(byte b : digest)
+        {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Find where the timestamp value starts in a report.
+     *
+     * @param report the report
+     * @param marker the text just before the timestamp
+     * @return the offset of the timestamp, or -1 if it isn't near the start of the report
+     */
+    static int findTimestamp(byte[] report, byte[] marker)
+    {
+        int last = Math.min(report.length, timestampSearchLength) - marker.length;
+        for(int i = 0; i <= last; i++)
+        {
+            int j = 0;
+            while(j < marker.length && report[i + j] == marker[j])
+            {
+                j++;
+            }
+            if(j == marker.length)
+            {
+                return i + marker.length;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A report as it was written, and where it's timestamp is.
+     */
+    static class CachedReport
+    {
+        final byte[] report;
+        final int timestampOffset;
+        final long storedMillis;
+
+        CachedReport(byte[] report, int timestampOffset, long storedMillis)
+        {
+            this.report = report;
+            this.timestampOffset = timestampOffset;
+            this.storedMillis = storedMillis;
+        }
+
+        /**
+         * Write the report with a new timestamp.  Timestamps are all the same length, so the rest of the report is unchanged.
+         * A report without a timestamp is written as it is.
+         *
+         * @param timestamp the new timestamp
+         * @param outputStream the OutputStream to write the report to
+         * @throws IOException if the report can not be written
+         */
+        void write(byte[] timestamp, OutputStream outputStream) throws IOException
+        {
+            if(timestampOffset < 0)
+            {
+                outputStream.write(report);
+                return;
+            }
+            outputStream.write(report, 0, timestampOffset);
+            outputStream.write(timestamp);
+            int rest = timestampOffset + timestamp.length;
+            outputStream.write(report, rest, report.length - rest);
+        }
+    }
+
+    /**
+     * Writes a report to a request's OutputStream, and keeps a copy of it up to a limit.
+     * If the request's OutputStream fails, the copy is still made, and the failure is kept until the report is done.
+     */
+    private static class ReportCapture extends OutputStream
+    {
+        final OutputStream outputStream;
+        final long limit;
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        IOException clientFailure = null;
+
+        ReportCapture(OutputStream outputStream, long limit)
+        {
+            this.outputStream = outputStream;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[]{(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            if(copy != null && copy.size() + (long)len > limit)
+            {
+                copy = null;
+            }
+            if(copy != null)
+            {
+                copy.write(b, off, len);
+            }
+            if(clientFailure == null)
+            {
+                try
+                {
+                    outputStream.write(b, off, len);
+                }
+                catch(IOException e)
+                {
+                    clientFailure = e;
+                }
+            }
+            if(clientFailure != null && copy == null)
+            {
+                //Nobody is left to read the report.
+                throw clientFailure;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            if(clientFailure == null)
+            {
+                try
+                {
+                    outputStream.flush();
+                }
+                catch(IOException e)
+                {
+                    clientFailure = e;
+                }
+            }
+        }
+
+        /**
+         * @return the whole report, or null if it was bigger than the limit
+         */
+        byte[] getReport()
+        {
+            return (copy == null) ? null : copy.toByteArray();
+        }
+
+        void throwClientFailure() throws IOException
+        {
+            if(clientFailure != null)
+            {
+                throw clientFailure;
+            }
+        }
+    }
+
+    /**
+     * A validation that other requests for the same document are waiting on.
+     */
+    private static class Flight
+    {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile CachedReport report = null;
+        volatile Throwable failure = null;
+
+        /**
+         * Wait for the validation.
+         *
+         * @param waitMillis the longest time to wait, in milliseconds
+         * @return true if the validation is done, false if it took too long
+         * @throws InterruptedIOException if the thread is interrupted while it waits
+         */
+        boolean await(long waitMillis) throws InterruptedIOException
+        {
+            try
+            {
+                return done.await(waitMillis, TimeUnit.MILLISECONDS);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the same document's validation");
+            }
+        }
+
+        /**
+         * @param report the report, or null if it was too big to keep or the validation failed
+         * @param failure what the validation threw, or null
+         */
+        void finish(CachedReport report, Throwable failure)
+        {
+            this.report = report;
+            this.failure = failure;
+            done.countDown();
+        }
+    }
+}
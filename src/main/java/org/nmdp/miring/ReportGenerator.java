@@ -21,38 +21,51 @@
 
 */
 package org.nmdp.miring;
-import java.util.Arrays;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.Serializer;
 
 import org.nmdp.miring.ValidationResult.Severity;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Attr;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
 /** 
  * This class is used to generate an XML results report, based on the results of a MIRING Validation.
+ * 
+ * The report is streamed through an XMLStreamWriter as it is generated, there is no DOM of the report.
+ * Saxon's serializer does the writing, so the report is formatted the same as when it was built as a DOM and transformed by Saxon.
+ * Attributes are written in alphabetical order, the order the DOM kept them in.
 */
 public class ReportGenerator
 {
     static Logger logger = LoggerFactory.getLogger(ReportGenerator.class);
+    static String xsiNamespace = "http://www.w3.org/2001/XMLSchema-instance";
     
-    public static DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy HH:mm:ss");
-    public static int hmls;
+    //DateTimeFormatter is immutable, so unlike SimpleDateFormat it can be shared by concurrent reports.
+    public static final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm:ss");
+    //A Processor is thread safe.  Each report gets it's own Serializer.
+    private static final Processor processor = new Processor(false);
     
     /**
      * Generate a Miring Results Report
@@ -62,49 +75,17 @@ public class ReportGenerator
      * @param extension the extension attribute on an HMLID node on the source XML.  If it exists, you should include it in the report
      * @param properties a HashMap<String,String> of property values to include on the results report
      * @param sampleIDs an array of Sample objects to list on the report.
+     * @param hmlstart the index in validationResults where HML results start
      * @return a String containing MIRING Results Report
      */
     public static String generateReport(ValidationResult[] validationResults, String root, String extension, HashMap<String,String> properties, Sample[] sampleIDs, int hmlstart)
     {
-        validationResults = assignSampleIDs(validationResults,sampleIDs);
-        validationResults = combineSimilarResults(validationResults);
-        hmls=hmlstart;
         try 
         {
-            DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-
-            //DOCUMENT
-            Document doc = docBuilder.newDocument();
-            
-            //MIRINGREPORT ROOT
-            Element rootElement = doc.createElement("miring-report");
-            String currentDate = (dateFormat.format(new Date()));
-            rootElement.setAttribute("timestamp", currentDate);
-            doc.appendChild(rootElement);
-            
-            //NAMESPACES
-            rootElement.setAttribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
-            rootElement.setAttribute("xsi:noNamespaceSchemaLocation", "http://schemas.nmdp.org/spec/miringreport/1.0/miringreport.xsd");
-            
-            addHMLCompliantElement(validationResults,doc);
-            
-            addMiringCompliantElement(validationResults, doc);
-            
-            addHmlidElement(root, extension, doc);
-            
-            addSampleElements(validationResults, sampleIDs, doc);
-            
-            addPropertyElements(properties, doc);
-            
-            addValidationResultElements(validationResults, doc);
-
-            return(Utilities.getStringFromDoc(doc));
+            StringWriter reportWriter = new StringWriter();
+            writeReport(validationResults, root, extension, properties, sampleIDs, hmlstart, processor.newSerializer(reportWriter));
+            return reportWriter.toString();
         }
-        catch (ParserConfigurationException pce) 
-        {
-            logger.error("Parser Configuration Exception in ReportGenerator", pce);
-        } 
         catch (Exception e) 
         {
             logger.error("Exception in ReportGenerator", e);
@@ -116,291 +97,465 @@ public class ReportGenerator
     }
 
     /**
-     * Add a hml-compliant element to the document.
+     * Write a Miring Results Report to an OutputStream, as UTF-8.
+     * The report is written as it is generated, so the stream can be a response that is sent as it is written.
      *
-     * @param validationResults an array of the validationError objects from this validation.
-     * @param doc a Document to add the element to
+     * @param validationResults an array of ValidationError objects
+     * @param root the root attribute on an HMLID node on the source XML.  If it exists, you should include it in the report
+     * @param extension the extension attribute on an HMLID node on the source XML.  If it exists, you should include it in the report
+     * @param properties a HashMap<String,String> of property values to include on the results report
+     * @param sampleIDs an array of Sample objects to list on the report.
+     * @param hmlstart the index in validationResults where HML results start
+     * @param outputStream the OutputStream to write the report to.  It is not closed.
+     * @throws IOException if the report can not be written
      */
-    private static void addHMLCompliantElement(ValidationResult[] validationResults, Document doc)
+    public static void writeReport(ValidationResult[] validationResults, String root, String extension, HashMap<String,String> properties, Sample[] sampleIDs, int hmlstart, OutputStream outputStream) throws IOException
     {
+        writeReport(validationResults, root, extension, properties, sampleIDs, hmlstart, processor.newSerializer(outputStream));
+    }
 
-        ValidationResult[] hmlErrors=validationResults;
-    	Element compliantElement = doc.createElement("hml-compliant");
-    	compliantElement.setTextContent(
-    	(hmlErrors == null)? "false"
-    	:(hmlErrors.length==0)?"true"
-        :(Utilities.hasRejects(hmlErrors))?"reject"
-    	:(Utilities.isHMLCompliant(hmlErrors))?"true" 
-    	:"false"
-        );
-        doc.getDocumentElement().appendChild(compliantElement);
+    private static void writeReport(ValidationResult[] validationResults, String root, String extension, HashMap<String,String> properties, Sample[] sampleIDs, int hmlstart, Serializer serializer) throws IOException
+    {
+        try 
+        {
+            XMLStreamWriter writer = newXMLStreamWriter(serializer);
+            writer.writeStartDocument();
+            writeReportElement(validationResults, root, extension, properties, sampleIDs, hmlstart, writer);
+            writer.writeEndDocument();
+            writer.close();
+        }
+        catch (XMLStreamException e) 
+        {
+            throw new IOException("Could not write the MIRING report", e);
+        }
+        catch (SaxonApiException e) 
+        {
+            throw new IOException("Could not create a serializer for the MIRING report", e);
+        }
+    }
+
+    /**
+     * Write a Miring Results Report for each document in a batch to an OutputStream, as UTF-8.
+     * A batch-summary element lists every document's compliance and validation time, then the reports follow in the order the documents were submitted.
+     *
+     * @param batchResults the results of a batch validation, in the order the documents were submitted
+     * @param outputStream the OutputStream to write the report to.  It is not closed.
+     * @throws IOException if the report can not be written
+     */
+    public static void writeBatchReport(BatchResult[] batchResults, OutputStream outputStream) throws IOException
+    {
+        try 
+        {
+            XMLStreamWriter writer = newXMLStreamWriter(processor.newSerializer(outputStream));
+            writer.writeStartDocument();
+            writer.writeStartElement("miring-batch-report");
+            writer.writeAttribute("document-count", "" + batchResults.length);
+            writer.writeAttribute("timestamp", dateFormat.format(LocalDateTime.now()));
+
+            writer.writeStartElement("batch-summary");
+            writer.writeAttribute("hml-compliant-count", "" + BatchResult.countHMLCompliant(batchResults));
+            writer.writeAttribute("miring-compliant-count", "" + BatchResult.countMiringCompliant(batchResults));
+            for(int i = 0; i < batchResults.length; i++)
+            {
+                writer.writeStartElement("document");
+                writer.writeAttribute("elapsed-ms", "" + batchResults[i].getElapsedMillis());
+                writer.writeAttribute("hml-compliant", batchResults[i].getHMLCompliance());
+                writer.writeAttribute("miring-compliant", batchResults[i].getMiringCompliance());
+                writeAttribute(writer, "name", batchResults[i].getName());
+                writer.writeAttribute("position", "" + (i + 1));
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+
+            for(int i = 0; i < batchResults.length; i++)
+            {
+                MiringValidator validator = batchResults[i].getValidator();
+                writeReportElement(validator.reportResults, validator.hmlIdRoot, validator.hmlIdExt, validator.properties, validator.sampleIDs, validator.hmlStart, writer);
+            }
+
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        }
+        catch (XMLStreamException e) 
+        {
+            throw new IOException("Could not write the MIRING batch report", e);
+        }
+        catch (SaxonApiException e) 
+        {
+            throw new IOException("Could not create a serializer for the MIRING batch report", e);
+        }
+    }
+
+    /**
+     * Write the status of a validation job to an OutputStream, as UTF-8.
+     *
+     * @param job the ValidationJob
+     * @param outputStream the OutputStream to write the status to.  It is not closed.
+     * @throws IOException if the status can not be written
+     */
+    public static void writeJobStatus(ValidationJob job, OutputStream outputStream) throws IOException
+    {
+        try 
+        {
+            XMLStreamWriter writer = newXMLStreamWriter(processor.newSerializer(outputStream));
+            writer.writeStartDocument();
+            writer.writeStartElement("validation-job");
+            writer.writeAttribute("elapsed-ms", "" + job.getElapsedMillis());
+            writer.writeAttribute("id", job.getId());
+            writer.writeAttribute("stage", job.getStage().toString().toLowerCase());
+            writer.writeAttribute("state", job.getState().toString().toLowerCase());
+            writer.writeAttribute("submitted", dateFormat.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(job.getSubmittedMillis()), ZoneId.systemDefault())));
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        }
+        catch (XMLStreamException e) 
+        {
+            throw new IOException("Could not write the validation job status", e);
+        }
+        catch (SaxonApiException e) 
+        {
+            throw new IOException("Could not create a serializer for the validation job status", e);
+        }
+    }
+
+    /**
+     * Write the statistics of a ReportCache to an OutputStream, as UTF-8.
+     *
+     * @param cache the ReportCache
+     * @param outputStream the OutputStream to write the statistics to.  It is not closed.
+     * @throws IOException if the statistics can not be written
+     */
+    public static void writeCacheStatistics(ReportCache cache, OutputStream outputStream) throws IOException
+    {
+        try 
+        {
+            XMLStreamWriter writer = newXMLStreamWriter(processor.newSerializer(outputStream));
+            writer.writeStartDocument();
+            writer.writeStartElement("report-cache");
+            writer.writeAttribute("bytes", "" + cache.getBytes());
+            writer.writeAttribute("coalesced", "" + cache.getCoalesced());
+            writer.writeAttribute("entries", "" + cache.getEntryCount());
+            writer.writeAttribute("evictions", "" + cache.getEvictions());
+            writer.writeAttribute("expirations", "" + cache.getExpirations());
+            writer.writeAttribute("hits", "" + cache.getHits());
+            writer.writeAttribute("in-flight", "" + cache.getInFlightCount());
+            writer.writeAttribute("max-bytes", "" + cache.getMaxBytes());
+            writer.writeAttribute("misses", "" + cache.getMisses());
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        }
+        catch (XMLStreamException e) 
+        {
+            throw new IOException("Could not write the report cache statistics", e);
+        }
+        catch (SaxonApiException e) 
+        {
+            throw new IOException("Could not create a serializer for the report cache statistics", e);
+        }
+    }
+
+    private static XMLStreamWriter newXMLStreamWriter(Serializer serializer) throws SaxonApiException
+    {
+        serializer.setOutputProperty(Serializer.Property.METHOD, "xml");
+        serializer.setOutputProperty(Serializer.Property.INDENT, "yes");
+        return serializer.getXMLStreamWriter();
+    }
+
+    /**
+     * Write a miring-report element.
+     *
+     * @param validationResults an array of ValidationError objects
+     * @param root the root attribute on an HMLID node on the source XML.  If it exists, you should include it in the report
+     * @param extension the extension attribute on an HMLID node on the source XML.  If it exists, you should include it in the report
+     * @param properties a HashMap<String,String> of property values to include on the results report
+     * @param sampleIDs an array of Sample objects to list on the report.
+     * @param hmlstart the index in validationResults where HML results start
+     * @param writer the XMLStreamWriter to write the element to
+     */
+    private static void writeReportElement(ValidationResult[] validationResults, String root, String extension, HashMap<String,String> properties, Sample[] sampleIDs, int hmlstart, XMLStreamWriter writer) throws XMLStreamException
+    {
+        validationResults = assignSampleIDs(validationResults,sampleIDs);
+        validationResults = combineSimilarResults(validationResults);
+
+        //MIRINGREPORT ROOT
+        writer.writeStartElement("miring-report");
+        
+        //NAMESPACES
+        writer.writeNamespace("xsi", xsiNamespace);
+        String currentDate = (dateFormat.format(LocalDateTime.now()));
+        writer.writeAttribute("timestamp", currentDate);
+        writer.writeAttribute("xsi", xsiNamespace, "noNamespaceSchemaLocation", "http://schemas.nmdp.org/spec/miringreport/1.0/miringreport.xsd");
+        
+        writeHMLCompliantElement(validationResults, writer);
+        
+        writeMiringCompliantElement(validationResults, writer);
+        
+        writeHmlidElement(root, extension, writer);
+        
+        writeSampleElements(validationResults, sampleIDs, hmlstart, writer);
+        
+        writePropertyElements(properties, writer);
+        
+        writeValidationResultElements(validationResults, writer);
+
+        writer.writeEndElement();
+    }
+
+    /**
+     * Write a hml-compliant element.
+     *
+     * @param validationResults an array of the validationError objects from this validation.
+     * @param writer the XMLStreamWriter to write the element to
+     */
+    private static void writeHMLCompliantElement(ValidationResult[] validationResults, XMLStreamWriter writer) throws XMLStreamException
+    {
+        writeTextElement(writer, "hml-compliant", getHMLCompliance(validationResults));
     } 
     
     /**
-     * Add a miring-compliant element to the document.
+     * Write a miring-compliant element.
+     *
+     * @param validationResults an array of the validationError objects from this validation.
+     * @param writer the XMLStreamWriter to write the element to
+     */
+    private static void writeMiringCompliantElement(ValidationResult[] validationResults, XMLStreamWriter writer) throws XMLStreamException
+    {
+        writeTextElement(writer, "miring-compliant", getMiringCompliance(validationResults));
+    }
+
+    /**
+     * Decide the hml-compliant value of a report.
      *
      * @param validationResults an array of the validationError objects from this validation.
-     * @param doc a Document to add the element to
+     * @return "true", "false" or "reject"
      */
-    private static void addMiringCompliantElement(ValidationResult[] validationResults, Document doc)
+    static String getHMLCompliance(ValidationResult[] validationResults)
     {
-        Element compliantElement = doc.createElement("miring-compliant");
-        compliantElement.setTextContent(
-            (validationResults == null)?"false"
+        ValidationResult[] hmlErrors=validationResults;
+        return (hmlErrors == null)? "false"
+            :(hmlErrors.length==0)?"true"
+            :(Utilities.hasRejects(hmlErrors))?"reject"
+            :(Utilities.isHMLCompliant(hmlErrors))?"true" 
+            :"false";
+    }
+
+    /**
+     * Decide the miring-compliant value of a report.
+     *
+     * @param validationResults an array of the validationError objects from this validation.
+     * @return "true", "false", "reject" or "warnings"
+     */
+    static String getMiringCompliance(ValidationResult[] validationResults)
+    {
+        return (validationResults == null)?"false"
             :(validationResults.length==0)?"true"
             :(Utilities.hasRejects(validationResults))?"reject"
             :(Utilities.hasHMLFatalErrors(validationResults))?"false"
             :(Utilities.isMiringCompliant(validationResults))?"true"
             :(Utilities.hasMiringErrors(validationResults))?"false"
             :(Utilities.hasWarnings(validationResults))?"warnings"
-            :"false"
-        );
-
-        doc.getDocumentElement().appendChild(compliantElement);
+            :"false";
     }
 
     /**
-     * Add an hmlid element to the document.
+     * Write an hmlid element.
      *
      * @param root the hmlid's root attribute
      * @param extension the hmlid's extension attribute
-     * @param doc a Document to add the element to
+     * @param writer the XMLStreamWriter to write the element to
      */
-    private static void addHmlidElement(String root, String extension, Document doc)
+    private static void writeHmlidElement(String root, String extension, XMLStreamWriter writer) throws XMLStreamException
     {
-        Element hmlidElement = doc.createElement("hmlid");
-        if(root != null && root.length()>0)
+        writer.writeStartElement("hmlid");
+        if(extension != null && extension.length()>0)
         {
-            hmlidElement.setAttribute("root",root);
+            writer.writeAttribute("extension", extension);
         }
-        if(extension != null && extension.length()>0)
+        if(root != null && root.length()>0)
         {
-            hmlidElement.setAttribute("extension", extension);
+            writer.writeAttribute("root",root);
         }
-        doc.getDocumentElement().appendChild(hmlidElement);
+        writer.writeEndElement();
     }
     
     /**
-     * Add property elements to the document.
+     * Write property elements.
      *
      * @param properties a HashMap containing key-value pairs of properties to include on the report
-     * @param doc a Document to add the elements to
+     * @param writer the XMLStreamWriter to write the elements to
      */
-    private static void addPropertyElements(HashMap<String, String> properties, Document doc)
+    private static void writePropertyElements(HashMap<String, String> properties, XMLStreamWriter writer) throws XMLStreamException
     {
         if(properties != null)
         {
-            Iterator it = properties.entrySet().iterator();
-            while (it.hasNext()) 
+            for(Map.Entry<String, String> property : properties.entrySet())
             {
-                Map.Entry pair = (Map.Entry)it.next();
-                String name = pair.getKey().toString();
-                String value = pair.getValue().toString();
-
-                it.remove();
-                Element property = doc.createElement("property");
-
-                property.setAttribute("name", name);
-                property.setAttribute("value",value);
-                
-                doc.getDocumentElement().appendChild(property);
+                writer.writeStartElement("property");
+                writer.writeAttribute("name", property.getKey());
+                writer.writeAttribute("value", property.getValue());
+                writer.writeEndElement();
             }
         }
     }
 
     /**
-     * Add Sample elements to the document.
+     * Write Sample elements.
+     * The counts are attributes on the samples element, so every sample is checked before anything is written.
      *
      * @param validationResults an array of ValidationResults to assign samples to
      * @param sampleIDs an array of Sample objects to include on the report
-     * @param doc a Document to add the elements to
+     * @param hmlstart the index in validationResults where HML results start
+     * @param writer the XMLStreamWriter to write the elements to
      */
-    private static void addSampleElements(ValidationResult[] validationResults, Sample[] sampleIDs, Document doc)
+    private static void writeSampleElements(ValidationResult[] validationResults, Sample[] sampleIDs, int hmlstart, XMLStreamWriter writer) throws XMLStreamException
     {
         if(sampleIDs != null && sampleIDs.length > 0)
         {
             int numberSampleIDs = sampleIDs.length;
-            int numberBadSamples = 0;
-            int numberGoodSamples = 0;
-            Element samplesElement = doc.createElement("samples");
+            boolean[] miringCompliant = new boolean[sampleIDs.length];
+            boolean[] hmlCompliant = new boolean[sampleIDs.length];
+            int numberGoodSamples = getSampleCompliance(validationResults, sampleIDs, hmlstart, miringCompliant, hmlCompliant);
+            int numberBadSamples = 2 * numberSampleIDs - numberGoodSamples;
+
+            writer.writeStartElement("samples");
+            writer.writeAttribute("compliant-sample-count", ("" + numberGoodSamples));
+            writer.writeAttribute("noncompliant-sample-count", ("" + numberBadSamples));
+            writer.writeAttribute("sample-count", ("" + numberSampleIDs));
 
             for(int i = 0; i < sampleIDs.length; i++)
             {
-                Element currentSampleElement = doc.createElement("sample");
                 String sampleID = sampleIDs[i].id;
                 String centerCode = sampleIDs[i].centerCode;
                 
-                currentSampleElement.setAttribute("id",sampleID);
+                writer.writeStartElement("sample");
                 if(!(centerCode==null) && !(centerCode.isEmpty()))
                 {
-                    currentSampleElement.setAttribute("center-code",centerCode);
+                    writer.writeAttribute("center-code",centerCode);
                 }
-                //Make one for HML? Probably
-                if(doesSampleHaveMiringErrors(sampleID, validationResults))
-                {
-                    currentSampleElement.setAttribute("miring-compliant", "false");
-                    numberBadSamples++;
-                }
-                else
-                {
-                    currentSampleElement.setAttribute("miring-compliant", "true");
-                    numberGoodSamples++;
-                }
-                if(doesSampleHaveHMLErrors(sampleID, validationResults))
-                {
-                	currentSampleElement.setAttribute("hml-compliant", "false");
-                	numberBadSamples++;//Do we need seperate variable and new setAttributes for hml? I feel like its a waste.
-                }
-                else
-                {
-                	currentSampleElement.setAttribute("hml-compliant", "true");
-                	numberGoodSamples++;//do we need?
-                }
-
-                samplesElement.appendChild(currentSampleElement);
+                writer.writeAttribute("hml-compliant", hmlCompliant[i] ? "true" : "false");
+                writeAttribute(writer, "id", sampleID);
+                writer.writeAttribute("miring-compliant", miringCompliant[i] ? "true" : "false");
+                writer.writeEndElement();
             }
             
-            samplesElement.setAttribute("sample-count", ("" + numberSampleIDs));
-            samplesElement.setAttribute("noncompliant-sample-count", ("" + numberBadSamples));
-            samplesElement.setAttribute("compliant-sample-count", ("" + numberGoodSamples));
-            
-            doc.getDocumentElement().appendChild(samplesElement);
+            writer.writeEndElement();
         }
     }
 
     /**
-     * Add ValidationResult elements to the document.
+     * Decide whether each sample is miring and hml compliant.
      *
-     * @param validationResults an array of ValidationResult objects to include on the report
-     * @param doc a Document to add the elements to
+     * @param validationResults an array of ValidationResults, with sample ids assigned
+     * @param sampleIDs an array of Sample objects on the report
+     * @param hmlstart the index in validationResults where HML results start
+     * @param miringCompliant an array, as long as sampleIDs, that is filled in with each sample's miring compliance
+     * @param hmlCompliant an array, as long as sampleIDs, that is filled in with each sample's hml compliance
+     * @return the number of compliances that are true.  Each sample counts once for miring and once for hml.
      */
-    private static void addValidationResultElements(ValidationResult[] validationResults, Document doc)
+    static int getSampleCompliance(ValidationResult[] validationResults, Sample[] sampleIDs, int hmlstart, boolean[] miringCompliant, boolean[] hmlCompliant)
     {
-        ValidationResult[] fatalErrors = getResultsBySeverity(validationResults,Severity.FATAL);
-        ValidationResult[] miringErrors = getResultsBySeverity(validationResults,Severity.MIRING);
-        ValidationResult[] warnings = getResultsBySeverity(validationResults,Severity.WARNING);
-        ValidationResult[] info = getResultsBySeverity(validationResults,Severity.INFO);
-        ValidationResult[] hmlErrors = getResultsBySeverity(validationResults,Severity.HML);
-        ValidationResult[] hmlFatal = getResultsBySeverity(validationResults,Severity.HMLFATAL);
-        ValidationResult[] hmlWarnings = getResultsBySeverity(validationResults,Severity.HMLWARNING);
-
-        if(fatalErrors != null && fatalErrors.length > 0)
-        {
-            Element fatalErrorsElement = doc.createElement("fatal-validation-errors");
-            for(int i = 0; i < fatalErrors.length; i++)
-            {
-                fatalErrorsElement.appendChild(generateMiringResultElement(doc, fatalErrors[i]));
-            }
-            doc.getDocumentElement().appendChild(fatalErrorsElement);
-        }
-        if(miringErrors != null && miringErrors.length > 0)
-        {
-            Element miringErrorsElement = doc.createElement("miring-validation-errors");
-            for(int i = 0; i < miringErrors.length; i++)
-            {
-                miringErrorsElement.appendChild(generateMiringResultElement(doc, miringErrors[i]));
-            }
-            doc.getDocumentElement().appendChild(miringErrorsElement);
-        }
-        if(warnings != null && warnings.length > 0)
-        {
-            Element warningsElement = doc.createElement("validation-warnings");
-            for(int i = 0; i < warnings.length; i++)
-            {
-                warningsElement.appendChild(generateMiringResultElement(doc, warnings[i]));
-            }
-            doc.getDocumentElement().appendChild(warningsElement);
-        }
-        if(info != null && info.length > 0)
-        {
-            Element infoElement = doc.createElement("validation-info");
-            for(int i = 0; i < info.length; i++)
-            {
-                infoElement.appendChild(generateMiringResultElement(doc, info[i]));
-            }
-            doc.getDocumentElement().appendChild(infoElement);
-        }
-        if(hmlFatal != null && hmlFatal.length > 0)
-        {
-            Element hmlFatalElement = doc.createElement("fatal-hml-schema-validation-errors");
-            
-            for(int i = 0; i < hmlFatal.length; i++)
-            {
-                hmlFatalElement.appendChild(generateHMLResultElement(doc, hmlFatal[i]));
-            }
-            doc.getDocumentElement().appendChild(hmlFatalElement);
-        }
-        if(hmlErrors != null && hmlErrors.length > 0)
-        {
-            Element hmlErrorsElement = doc.createElement("hml-schema-validation-errors");
-            
-            for(int i = 0; i < hmlErrors.length; i++)
-            {
-                hmlErrorsElement.appendChild(generateHMLResultElement(doc, hmlErrors[i]));
-            }
-            doc.getDocumentElement().appendChild(hmlErrorsElement);
-        }
-        if(hmlWarnings != null && hmlWarnings.length > 0)
+        int numberGoodSamples = 0;
+        //One pass over the results, instead of one per sample.
+        Set<String> samplesWithMiringErrors = new HashSet<String>();
+        Set<String> samplesWithHMLErrors = new HashSet<String>();
+        indexSampleErrors(validationResults, hmlstart, samplesWithMiringErrors, samplesWithHMLErrors);
+
+        for(int i = 0; i < sampleIDs.length; i++)
         {
-            Element hmlWarningsElement = doc.createElement("hml-schema-validation-warnings");
-            
-            for(int i = 0; i < hmlErrors.length; i++)
-            {
-                hmlWarningsElement.appendChild(generateHMLResultElement(doc, hmlWarnings[i]));
-            }
-            doc.getDocumentElement().appendChild(hmlWarningsElement);
+            String sampleID = sampleIDs[i].id;
+            //Make one for HML? Probably
+            miringCompliant[i] = !samplesWithMiringErrors.contains(sampleID);
+            hmlCompliant[i] = !samplesWithHMLErrors.contains(sampleID);
+            //Do we need seperate variable and new setAttributes for hml? I feel like its a waste.
+            numberGoodSamples += (miringCompliant[i] ? 1 : 0) + (hmlCompliant[i] ? 1 : 0);
         }
+        return numberGoodSamples;
     }
-    
+
     /**
-     * Check if a sampleID has any assigned validationResult objects with severity of either FATAL or MIRING
+     * Write ValidationResult elements, grouped by severity.
      *
-     * @param sampleID the sample's ID
-     * @param validationResults an array of ValidationResult objects to compare against the sampleID
+     * @param validationResults an array of ValidationResult objects to include on the report
+     * @param writer the XMLStreamWriter to write the elements to
      */
-    private static boolean doesSampleHaveMiringErrors(String sampleID, ValidationResult[] validationResults)
+    private static void writeValidationResultElements(ValidationResult[] validationResults, XMLStreamWriter writer) throws XMLStreamException
     {
-        if(validationResults != null && validationResults.length > 0)
+        writeResultGroup(writer, "fatal-validation-errors", getResultsBySeverity(validationResults,Severity.FATAL), false);
+        writeResultGroup(writer, "miring-validation-errors", getResultsBySeverity(validationResults,Severity.MIRING), false);
+        writeResultGroup(writer, "validation-warnings", getResultsBySeverity(validationResults,Severity.WARNING), false);
+        writeResultGroup(writer, "validation-info", getResultsBySeverity(validationResults,Severity.INFO), false);
+        writeResultGroup(writer, "fatal-hml-schema-validation-errors", getResultsBySeverity(validationResults,Severity.HMLFATAL), true);
+        writeResultGroup(writer, "hml-schema-validation-errors", getResultsBySeverity(validationResults,Severity.HML), true);
+        writeResultGroup(writer, "hml-schema-validation-warnings", getResultsBySeverity(validationResults,Severity.HMLWARNING), true);
+    }
+
+    /**
+     * Write one group of results, if there are any.
+     *
+     * @param writer the XMLStreamWriter to write the elements to
+     * @param groupName the name of the element that holds the results
+     * @param results an array of ValidationResult objects in this group
+     * @param hmlResults true to write hml-result elements, false to write miring-result elements
+     */
+    private static void writeResultGroup(XMLStreamWriter writer, String groupName, ValidationResult[] results, boolean hmlResults) throws XMLStreamException
+    {
+        if(results != null && results.length > 0)
         {
-            for(int i = 0; i < validationResults.length; i++)
+            writer.writeStartElement(groupName);
+            for(int i = 0; i < results.length; i++)
             {
-                ValidationResult tempResult = validationResults[i];
-                String currentSampleID = tempResult.getSampleID();
-                Severity currentSeverity = tempResult.getSeverity();
-                if(currentSampleID != null && currentSampleID.equals(sampleID))
+                if(hmlResults)
                 {
-                    if(currentSeverity != null && (
-                        currentSeverity.equals(Severity.FATAL)
-                        || currentSeverity.equals(Severity.MIRING)))
-                    {
-                        return true;
-                    }
+                    writeHMLResultElement(writer, results[i]);
+                }
+                else
+                {
+                    writeMiringResultElement(writer, results[i]);
                 }
             }
+            writer.writeEndElement();
         }
-        return false;
     }
-    private static boolean doesSampleHaveHMLErrors(String sampleID, ValidationResult[] validationResults)
+    
+    /**
+     * Find the samples that have any assigned validationResult objects with severity of either FATAL or MIRING,
+     * and the samples with HML results of severity HMLFATAL or HML.
+     *
+     * @param validationResults an array of ValidationResult objects
+     * @param hmlstart the index in validationResults where HML results start
+     * @param samplesWithMiringErrors a Set that the IDs of samples with FATAL or MIRING results are added to
+     * @param samplesWithHMLErrors a Set that the IDs of samples with HMLFATAL or HML results are added to
+     */
+    private static void indexSampleErrors(ValidationResult[] validationResults, int hmlstart, Set<String> samplesWithMiringErrors, Set<String> samplesWithHMLErrors)
     {
         if(validationResults != null && validationResults.length > 0)
         {
-            for(int i = hmls; i < validationResults.length; i++)
+            for(int i = 0; i < validationResults.length; i++)
             {
                 ValidationResult tempResult = validationResults[i];
                 String currentSampleID = tempResult.getSampleID();
                 Severity currentSeverity = tempResult.getSeverity();
-                if(currentSampleID != null && currentSampleID.equals(sampleID))
+                if(currentSampleID == null || currentSeverity == null)
                 {
-                    if(currentSeverity != null && (
-                        currentSeverity.equals(Severity.HMLFATAL)
-                        || currentSeverity.equals(Severity.HML)))
-                    {
-                        return true;
-                    }
+                    continue;
+                }
+                if(currentSeverity.equals(Severity.FATAL)
+                    || currentSeverity.equals(Severity.MIRING))
+                {
+                    samplesWithMiringErrors.add(currentSampleID);
+                }
+                //Only results from hmlstart on are HML results.
+                else if(i >= hmlstart && (
+                    currentSeverity.equals(Severity.HMLFATAL)
+                    || currentSeverity.equals(Severity.HML)))
+                {
+                    samplesWithHMLErrors.add(currentSampleID);
                 }
             }
         }
-        return false;
     }
 
     /**
@@ -409,7 +564,7 @@ public class ReportGenerator
      * @param validationResults an array of ValidationResult objects to assign sampleIDs to
      * @param sampleIDs an array of sampleIDs found in the HML
      */
-    private static ValidationResult[] assignSampleIDs(ValidationResult[] validationResults, Sample[] sampleIDs)
+    static ValidationResult[] assignSampleIDs(ValidationResult[] validationResults, Sample[] sampleIDs)
     {
         try
         {
@@ -452,7 +607,7 @@ public class ReportGenerator
      * @param severity a ValidationResult.Severity.  One of "FATAL" "MIRING" "INFO" "WARNING" "HML" "HMLFATAL 
      * "REJECT" "HMLWARNING".
      */
-    private static ValidationResult[] getResultsBySeverity(ValidationResult[] validationResults, Severity severity)
+    static ValidationResult[] getResultsBySeverity(ValidationResult[] validationResults, Severity severity)
     {
         if(validationResults != null && validationResults.length > 0)
         {
@@ -473,149 +628,211 @@ public class ReportGenerator
     }
 
     /**
-     * Combine similar results.  They are considered similar if they have the same error text.  The results are combined, with multiple xpaths.
+     * Combine similar results.  They are considered similar if they have the same miring rule, error text, and sample.  The results are combined, with multiple xpaths.
+     * 
+     * Results are grouped in a hash map keyed on those three values, and each group keeps a set of the xpaths it has, so this is linear in the number of results.
+     * The first result of each group is kept, in the order the groups were found.  If anything was merged into it, it's xpaths are sorted.
+     * 
+     * A result with a null rule, text or sample id can't be compared to a result that matches it so far.  When that happens
+     * the results are returned without combining them, like always.  Reports rely on it: for example the FATAL and HMLFATAL copies
+     * of the same message have no sample id, and must both be listed.
      *
      * @param validationResults an array of ValidationResult objects to combine
      */
-    private static ValidationResult[] combineSimilarResults(ValidationResult[] validationResults)
+    static ValidationResult[] combineSimilarResults(ValidationResult[] validationResults)
     {
-        List<ValidationResult> newResultList = new ArrayList<ValidationResult>();
-        try{
-        for(int i = 0; i < validationResults.length; i++)
-        {
-            ValidationResult oldResult = validationResults[i];
-            //Scan existing list for an error that is a close match.
-            boolean foundMatch = false;
-            for (ValidationResult newResult: newResultList)
+        Map<List<String>, ResultGroup> groups = new LinkedHashMap<List<String>, ResultGroup>();
+        try
+        {
+            //The rules, and rules and texts, of the groups so far.  Used to find results that can't be compared.
+            Set<String> rules = new HashSet<String>();
+            Set<List<String>> rulesAndTexts = new HashSet<List<String>>();
+            for(int i = 0; i < validationResults.length; i++)
             {
-                if(oldResult.miringRule.equals(newResult.miringRule)
-                   && oldResult.errorText.equals(newResult.errorText)
-                    && oldResult.sampleID.equals(newResult.sampleID)
-                   )
+                ValidationResult oldResult = validationResults[i];
+                List<String> ruleAndText = Arrays.asList(oldResult.miringRule, oldResult.errorText);
+                if((oldResult.miringRule == null && !groups.isEmpty())
+                    || (oldResult.errorText == null && rules.contains(oldResult.miringRule))
+                    || (oldResult.sampleID == null && rulesAndTexts.contains(ruleAndText)))
+                {
+                    logger.debug("Can not compare a result with no rule, text or sample id, not combining: " + oldResult.errorText);
+                    finishGroups(groups);
+                    return validationResults;
+                }
+
+                List<String> key = Arrays.asList(oldResult.miringRule, oldResult.errorText, oldResult.sampleID);
+                ResultGroup group = groups.get(key);
+                if(group == null)
+                {
+                    groups.put(key, new ResultGroup(oldResult));
+                    rules.add(oldResult.miringRule);
+                    rulesAndTexts.add(ruleAndText);
+                }
+                else
                 {
-                    foundMatch = true;
                     //Add all the xpaths to the existing new error.
-                    for (String xPath:oldResult.xPaths)
-                    {
-                        if(!newResult.xPaths.contains(xPath))
-                        {
-                            newResult.addXPath(xPath);
-                        }
-                    }
-                    Collections.sort(newResult.xPaths);
+                    group.merge(oldResult);
                 }
             }
-            
-            if(!foundMatch)
+
+            ValidationResult[] newResults = new ValidationResult[groups.size()];
+            int i = 0;
+            for(ResultGroup group : groups.values())
             {
-                newResultList.add(oldResult);
+                newResults[i++] = group.finish();
             }
-        }
-        
-        ValidationResult[] newResults = new ValidationResult[newResultList.size()];
-        for(int i = 0; i < newResultList.size(); i++)
-        {
-            newResults[i]=newResultList.get(i);
-        }
-        
-        return newResults;
+            return newResults;
         }
         catch(Exception e)
         {
             logger.error("Can not combine similar results due to some unknown reason "+ e);
+            finishGroups(groups);
             return validationResults;
         }
     }
+
+    /**
+     * Finish the groups combined so far, so they keep their xpaths when the results are returned without combining them.
+     *
+     * @param groups the groups of similar results
+     */
+    private static void finishGroups(Map<List<String>, ResultGroup> groups)
+    {
+        for(ResultGroup group : groups.values())
+        {
+            group.finish();
+        }
+    }
+
+    /** 
+     * The first result of a group of similar results, and the xpaths it has.
+    */
+    private static class ResultGroup
+    {
+        final ValidationResult result;
+        Set<String> xPaths = null;
+        boolean merged = false;
+
+        ResultGroup(ValidationResult result)
+        {
+            this.result = result;
+        }
+
+        void merge(ValidationResult otherResult)
+        {
+            if(xPaths == null)
+            {
+                xPaths = new HashSet<String>(result.xPaths);
+            }
+            for (String xPath : otherResult.xPaths)
+            {
+                if(xPaths.add(xPath))
+                {
+                    result.addXPath(xPath);
+                }
+            }
+            merged = true;
+        }
+
+        ValidationResult finish()
+        {
+            if(merged)
+            {
+                //Sort once, instead of after every merge.
+                Collections.sort(result.xPaths);
+            }
+            return result;
+        }
+    }
     
     /**
-     * Generate a single miring-result element
+     * Write a single miring-result element
      *
-     * @param doc the original document to add to
+     * @param writer the XMLStreamWriter to write the element to
      * @param validationResult an object containing the result information
      */
-    private static Element generateMiringResultElement(Document doc, ValidationResult validationResult)
+    private static void writeMiringResultElement(XMLStreamWriter writer, ValidationResult validationResult) throws XMLStreamException
     {
         //Change a validation error into an XML Node to put in our report.
-        Element invMiringElement = doc.createElement("miring-result");
+        writer.writeStartElement("miring-result");
         
         //miringElementID
-        Attr miringElementAttr = doc.createAttribute("miring-rule-id");
-        miringElementAttr.setValue(validationResult.getMiringRule());
-        invMiringElement.setAttributeNode(miringElementAttr);
-        
-        //severity
-        Attr fatalAttr = doc.createAttribute("severity");
-        fatalAttr.setValue(validationResult.getSeverity()==Severity.FATAL?"fatal":
-            validationResult.getSeverity()==Severity.MIRING?"miring":
-            validationResult.getSeverity()==Severity.WARNING?"warning":
-            validationResult.getSeverity()==Severity.INFO?"info":
-                "?");
-        invMiringElement.setAttributeNode(fatalAttr);
+        writeAttribute(writer, "miring-rule-id", validationResult.getMiringRule());
         
         //sampleID
-        Attr sampleIDAttr = doc.createAttribute("sample-id");
         if(validationResult.getSampleID() != null && validationResult.getSampleID().length() > 0)
         {
-            sampleIDAttr.setValue(validationResult.getSampleID());
-            invMiringElement.setAttributeNode(sampleIDAttr);
+            writer.writeAttribute("sample-id", validationResult.getSampleID());
         }
         
-        //description
-        Element descriptionElement = doc.createElement("description");
-        descriptionElement.appendChild(doc.createTextNode(validationResult.getErrorText()));
-        invMiringElement.appendChild(descriptionElement);
-        
-        //solution
-        Element solutionElement = doc.createElement("solution");
-        solutionElement.appendChild(doc.createTextNode(validationResult.getSolutionText()));
-        invMiringElement.appendChild(solutionElement);
-        
-        //xPath
-        if(validationResult.getXPaths() != null && validationResult.getXPaths().size() > 0)
-        {
-            List<String> xPaths = validationResult.getXPaths();
-            for(int i = 0; i < xPaths.size(); i++)
-            {
-                Element xPathElement = doc.createElement("xpath");
-                xPathElement.appendChild(doc.createTextNode(xPaths.get(i)));
-                invMiringElement.appendChild(xPathElement);
-            }
-        }
+        //severity
+        writer.writeAttribute("severity", getSeverityName(validationResult, false));
         
-        return invMiringElement;
+        writeResultContent(writer, validationResult);
+        writer.writeEndElement();
     }
-    private static Element generateHMLResultElement(Document doc, ValidationResult validationResult)
+
+    /**
+     * Write a single hml-result element
+     *
+     * @param writer the XMLStreamWriter to write the element to
+     * @param validationResult an object containing the result information
+     */
+    private static void writeHMLResultElement(XMLStreamWriter writer, ValidationResult validationResult) throws XMLStreamException
     {
         //Change a validation error into an XML Node to put in our report.
-        Element invHMLElement = doc.createElement("hml-result");
-        
-        
-        //severity
-        Attr fatalAttr = doc.createAttribute("severity");
-        fatalAttr.setValue(validationResult.getSeverity()==Severity.HMLFATAL?"fatal":
-            validationResult.getSeverity()==Severity.HML?"hml":
-            validationResult.getSeverity()==Severity.HMLWARNING?"warning"://make hml-warning
-            validationResult.getSeverity()==Severity.INFO?"info":
-                "?");
-        invHMLElement.setAttributeNode(fatalAttr);
+        writer.writeStartElement("hml-result");
         
         //sampleID
-        Attr sampleIDAttr = doc.createAttribute("sample-id");
         if(validationResult.getSampleID() != null && validationResult.getSampleID().length() > 0)
         {
-            sampleIDAttr.setValue(validationResult.getSampleID());
-            invHMLElement.setAttributeNode(sampleIDAttr);
+            writer.writeAttribute("sample-id", validationResult.getSampleID());
         }
         
+        //severity
+        writer.writeAttribute("severity", getSeverityName(validationResult, true));
+        
+        writeResultContent(writer, validationResult);
+        writer.writeEndElement();
+    }
+
+    /**
+     * Get the severity of a result, as it is written on the report.
+     *
+     * @param validationResult an object containing the result information
+     * @param hmlResult true for an hml-result, false for a miring-result
+     * @return the severity name, or "?" if the severity doesn't belong on that kind of result
+     */
+    static String getSeverityName(ValidationResult validationResult, boolean hmlResult)
+    {
+        if(hmlResult)
+        {
+            return validationResult.getSeverity()==Severity.HMLFATAL?"fatal":
+                validationResult.getSeverity()==Severity.HML?"hml":
+                validationResult.getSeverity()==Severity.HMLWARNING?"warning"://make hml-warning
+                validationResult.getSeverity()==Severity.INFO?"info":
+                    "?";
+        }
+        return validationResult.getSeverity()==Severity.FATAL?"fatal":
+            validationResult.getSeverity()==Severity.MIRING?"miring":
+            validationResult.getSeverity()==Severity.WARNING?"warning":
+            validationResult.getSeverity()==Severity.INFO?"info":
+                "?";
+    }
+
+    /**
+     * Write the description, solution and xpath elements of a result.
+     *
+     * @param writer the XMLStreamWriter to write the elements to
+     * @param validationResult an object containing the result information
+     */
+    private static void writeResultContent(XMLStreamWriter writer, ValidationResult validationResult) throws XMLStreamException
+    {
         //description
-        Element descriptionElement = doc.createElement("description");
-        descriptionElement.appendChild(doc.createTextNode(validationResult.getErrorText()));
-        invHMLElement.appendChild(descriptionElement);
+        writeTextElement(writer, "description", validationResult.getErrorText());
         
         //solution
-        Element solutionElement = doc.createElement("solution");
-        solutionElement.appendChild(doc.createTextNode(validationResult.getSolutionText()));
-        invHMLElement.appendChild(solutionElement);
+        writeTextElement(writer, "solution", validationResult.getSolutionText());
         
         //xPath
         if(validationResult.getXPaths() != null && validationResult.getXPaths().size() > 0)
@@ -623,12 +840,24 @@ public class ReportGenerator
             List<String> xPaths = validationResult.getXPaths();
             for(int i = 0; i < xPaths.size(); i++)
             {
-                Element xPathElement = doc.createElement("xpath");
-                xPathElement.appendChild(doc.createTextNode(xPaths.get(i)));
-                invHMLElement.appendChild(xPathElement);
+                writeTextElement(writer, "xpath", xPaths.get(i));
             }
         }
-        
-        return invHMLElement;
+    }
+
+    private static void writeTextElement(XMLStreamWriter writer, String elementName, String text) throws XMLStreamException
+    {
+        writer.writeStartElement(elementName);
+        if(text != null && text.length() > 0)
+        {
+            writer.writeCharacters(text);
+        }
+        writer.writeEndElement();
+    }
+
+    private static void writeAttribute(XMLStreamWriter writer, String attributeName, String value) throws XMLStreamException
+    {
+        //A DOM attribute with no value was written as an empty attribute.
+        writer.writeAttribute(attributeName, (value == null) ? "" : value);
     }
 }
@@ -0,0 +1,342 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.nmdp.miring.ValidationResult.Severity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.NodeList;
+
+/** 
+ * RuleTemplates is an index of the missing node and missing attribute rule templates.
+ * 
+ * The templates define what information (rule id, severity, additional solution text) is included in tier 1 and HML error messages.
+ * They are read once from MissingNodeTemplate.xml and MissingAttributeTemplate.xml, and kept in immutable maps
+ * keyed by tier, node name, and attribute name.  Looking up the template for a parser error is a single hash lookup.
+ * 
+ * "rule" elements are MIRING tier templates, and "hml-rule" elements are HML tier templates.
+ * If a file has more than one template for the same key, the first one wins, like the linear scan it replaces.
+ * 
+ * The tier 2 templates in SchematronRuleTemplate.xml are matched against the text of a schematron assert or report.
+ * A template matches when the message contains it's error-text.  The messages in MiringAll.sch are fixed text,
+ * so each of them is matched to a template once, when the class is loaded, and finding the template for a finding is a single hash lookup.
+*/
+public class RuleTemplates
+{
+    static Logger logger = LoggerFactory.getLogger(RuleTemplates.class);
+    static String missingNodeTemplateFileName = "/org/nmdp/miring/ruletemplates/MissingNodeTemplate.xml";
+    static String missingAttributeTemplateFileName = "/org/nmdp/miring/ruletemplates/MissingAttributeTemplate.xml";
+    static String schematronRuleTemplateFileName = "/org/nmdp/miring/ruletemplates/SchematronRuleTemplate.xml";
+    static String schematronFileName = "/org/nmdp/miring/schematron/MiringAll.sch";
+    static String schematronNamespace = "http://purl.oclc.org/dsdl/schematron";
+
+    /**
+     * The tier a template applies to.  Each tier has it's own element name in the template files.
+     */
+    public enum Tier
+    {
+        MIRING("rule", "attribute-name"),
+        HML("hml-rule", "attribute");
+
+        final String elementName;
+        //The missing attribute templates name the attribute differently for each tier.
+        final String attributeName;
+
+        Tier(String elementName, String attributeName)
+        {
+            this.elementName = elementName;
+            this.attributeName = attributeName;
+        }
+    }
+
+    /**
+     * A single rule template.  The severity is the raw text from the template, each handler decides what it maps to.
+     * The MIRING mapping of the severity is worked out once, because tier 2 uses it for every finding.
+     */
+    public static class RuleTemplate
+    {
+        final String miringRuleId;
+        final String severity;
+        final String solutionText;
+        final Severity miringSeverity;
+
+        RuleTemplate(String miringRuleId, String severity, String solutionText)
+        {
+            this.miringRuleId = miringRuleId;
+            this.severity = severity;
+            this.solutionText = solutionText;
+            this.miringSeverity = 
+                "fatal".equals(severity)?Severity.FATAL:
+                "miring".equals(severity)?Severity.MIRING:
+                "warning".equals(severity)?Severity.WARNING:
+                "info".equals(severity)?Severity.INFO:
+                Severity.FATAL;
+        }
+
+        public String getMiringRuleId()
+        {
+            return miringRuleId;
+        }
+
+        public String getSeverity()
+        {
+            return severity;
+        }
+
+        public String getSolutionText()
+        {
+            return solutionText;
+        }
+
+        /**
+         * @return the severity mapped to a MIRING Severity.  Anything unknown is FATAL.
+         */
+        public Severity getMiringSeverity()
+        {
+            return miringSeverity;
+        }
+    }
+
+    private static final Map<String, RuleTemplate> missingNodeTemplates = loadTemplates(missingNodeTemplateFileName, false);
+    private static final Map<String, RuleTemplate> missingAttributeTemplates = loadTemplates(missingAttributeTemplateFileName, true);
+    //error-text to template, in document order.
+    private static final Map<String, RuleTemplate> schematronTemplates = loadSchematronTemplates(schematronRuleTemplateFileName);
+    //Every assert and report message in MiringAll.sch, to the template it matches.  The value is null if no template matches.
+    private static final Map<String, RuleTemplate> schematronMessageTemplates = indexSchematronMessages(schematronFileName);
+
+    /**
+     * Find the template for a missing node.
+     *
+     * @param tier the tier of the validation
+     * @param nodeName the name of the missing node
+     * @return the RuleTemplate, or null if the node is not handled
+     */
+    public static RuleTemplate getMissingNodeTemplate(Tier tier, String nodeName)
+    {
+        return missingNodeTemplates.get(key(tier, nodeName, null));
+    }
+
+    /**
+     * Find the template for a missing attribute.
+     *
+     * @param tier the tier of the validation
+     * @param nodeName the name of the element missing the attribute
+     * @param attributeName the name of the missing attribute
+     * @return the RuleTemplate, or null if the attribute is not handled
+     */
+    public static RuleTemplate getMissingAttributeTemplate(Tier tier, String nodeName, String attributeName)
+    {
+        return missingAttributeTemplates.get(key(tier, nodeName, attributeName));
+    }
+
+    /**
+     * Find the template for a tier 2 schematron message.
+     *
+     * @param errorMessage the text of the failed assert or successful report
+     * @return the first RuleTemplate whose error-text is contained in the message, or null if there is none
+     */
+    public static RuleTemplate getSchematronTemplate(String errorMessage)
+    {
+        if(schematronMessageTemplates.containsKey(errorMessage))
+        {
+            return schematronMessageTemplates.get(errorMessage);
+        }
+        //Not one of our messages, maybe from a different schema.  Fall back to checking each template.
+        return findSchematronTemplate(errorMessage);
+    }
+
+    private static RuleTemplate findSchematronTemplate(String errorMessage)
+    {
+        for(Map.Entry<String, RuleTemplate> entry : schematronTemplates.entrySet())
+        {
+            if(errorMessage.contains(entry.getKey()))
+            {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static String key(Tier tier, String nodeName, String attributeName)
+    {
+        return tier.name() + "|" + nodeName + "|" + attributeName;
+    }
+
+    /**
+     * Read a template file into a map.
+     *
+     * @param templateFileName the resource name of the template file
+     * @param byAttribute true if the templates are keyed by attribute name as well as node name
+     * @return an immutable map of the templates.  Empty if the file can not be read.
+     */
+    private static Map<String, RuleTemplate> loadTemplates(String templateFileName, boolean byAttribute)
+    {
+        Map<String, RuleTemplate> templates = new HashMap<String, RuleTemplate>();
+        try
+        {
+            Document templateDocument = parseResource(templateFileName, false);
+
+            for(Tier tier : Tier.values())
+            {
+                NodeList ruleNodes = templateDocument.getElementsByTagName(tier.elementName);
+                for(int i = 0; i < ruleNodes.getLength(); i++)
+                {
+                    NamedNodeMap ruleAttributes = ruleNodes.item(i).getAttributes();
+                    String nodeName = Utilities.getAttribute(ruleAttributes, "node-name");
+                    String attributeName = byAttribute ? Utilities.getAttribute(ruleAttributes, tier.attributeName) : null;
+                    if(nodeName == null || (byAttribute && attributeName == null))
+                    {
+                        //A template without a name can never match anything.
+                        continue;
+                    }
+
+                    RuleTemplate template = new RuleTemplate(
+                        Utilities.getAttribute(ruleAttributes, "miring-rule-id"),
+                        Utilities.getAttribute(ruleAttributes, "severity"),
+                        Utilities.getAttribute(ruleAttributes, "solution-text"));
+                    String templateKey = key(tier, nodeName, attributeName);
+                    if(!templates.containsKey(templateKey))
+                    {
+                        templates.put(templateKey, template);
+                    }
+                }
+            }
+            logger.debug("Loaded " + templates.size() + " rule templates from " + templateFileName);
+        }
+        catch(Exception e)
+        {
+            logger.error("Exception loading rule templates from " + templateFileName, e);
+        }
+        return Collections.unmodifiableMap(templates);
+    }
+
+    /**
+     * Read the schematron rule templates into a map.
+     *
+     * @param templateFileName the resource name of the template file
+     * @return an immutable map of error-text to template, in the order of the file.  Empty if the file can not be read.
+     */
+    private static Map<String, RuleTemplate> loadSchematronTemplates(String templateFileName)
+    {
+        Map<String, RuleTemplate> templates = new LinkedHashMap<String, RuleTemplate>();
+        try
+        {
+            Document templateDocument = parseResource(templateFileName, false);
+            NodeList ruleNodes = templateDocument.getElementsByTagName("rule");
+            for(int i = 0; i < ruleNodes.getLength(); i++)
+            {
+                NamedNodeMap ruleAttributes = ruleNodes.item(i).getAttributes();
+                String errorText = Utilities.getAttribute(ruleAttributes, "error-text");
+                if(errorText == null || templates.containsKey(errorText))
+                {
+                    //A later template with the same text would never be reached.
+                    continue;
+                }
+                templates.put(errorText, new RuleTemplate(
+                    Utilities.getAttribute(ruleAttributes, "miring-rule-id"),
+                    Utilities.getAttribute(ruleAttributes, "severity"),
+                    Utilities.getAttribute(ruleAttributes, "solution-text")));
+            }
+            logger.debug("Loaded " + templates.size() + " schematron rule templates from " + templateFileName);
+        }
+        catch(Exception e)
+        {
+            logger.error("Exception loading schematron rule templates from " + templateFileName, e);
+        }
+        return Collections.unmodifiableMap(templates);
+    }
+
+    /**
+     * Match every assert and report message in a schematron schema, and the files it includes, to it's template.
+     *
+     * @param schemaFileName the resource name of the schematron schema
+     * @return an immutable map of message text to template.  Empty if the schema can not be read.
+     */
+    private static Map<String, RuleTemplate> indexSchematronMessages(String schemaFileName)
+    {
+        Map<String, RuleTemplate> messages = new HashMap<String, RuleTemplate>();
+        try
+        {
+            String schemaDirectory = schemaFileName.substring(0, schemaFileName.lastIndexOf('/') + 1);
+            Document schemaDocument = parseResource(schemaFileName, true);
+            NodeList includeNodes = schemaDocument.getElementsByTagNameNS(schematronNamespace, "include");
+
+            indexSchematronMessages(schemaDocument, messages);
+            for(int i = 0; i < includeNodes.getLength(); i++)
+            {
+                String href = ((Element)includeNodes.item(i)).getAttribute("href");
+                indexSchematronMessages(parseResource(schemaDirectory + href, true), messages);
+            }
+            logger.debug("Indexed " + messages.size() + " schematron messages from " + schemaFileName);
+        }
+        catch(Exception e)
+        {
+            logger.error("Exception indexing schematron messages from " + schemaFileName, e);
+        }
+        return Collections.unmodifiableMap(messages);
+    }
+
+    private static void indexSchematronMessages(Document schemaDocument, Map<String, RuleTemplate> messages)
+    {
+        for(String elementName : new String[]{"assert", "report"})
+        {
+            NodeList messageNodes = schemaDocument.getElementsByTagNameNS(schematronNamespace, elementName);
+            for(int i = 0; i < messageNodes.getLength(); i++)
+            {
+                String message = messageNodes.item(i).getTextContent();
+                messages.put(message, findSchematronTemplate(message));
+            }
+        }
+    }
+
+    private static Document parseResource(String resourceName, boolean namespaceAware) throws Exception
+    {
+        InputStream resourceStream = RuleTemplates.class.getResourceAsStream(resourceName);
+        if(resourceStream == null)
+        {
+            throw new FileNotFoundException(resourceName);
+        }
+        try
+        {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(namespaceAware);
+            return factory.newDocumentBuilder().parse(resourceStream);
+        }
+        finally
+        {
+            resourceStream.close();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** 
+ * SampleResultCache keeps the results of validating one shard of samples, so a document that is sent again with a few samples changed
+ * only validates the changed samples.  ShardedValidator decides the keys.  A key covers the samples' text, the prefix and suffix
+ * that are in every fragment, the validation stage and the rule set, so a result is only used for a fragment that is exactly the same.
+ * 
+ * The results are kept as they were found in the fragment, before they are mapped back to the document.
+ * Results are copied in and out of the cache, because the report changes them.
+ * The least recently used results are evicted when the cache is full.
+ * The cache is off unless the system property org.nmdp.miring.sampleCacheEntries is set to the number of shards to keep.
+*/
+public class SampleResultCache
+{
+    static Logger logger = LoggerFactory.getLogger(SampleResultCache.class);
+    public static final String entriesProperty = "org.nmdp.miring.sampleCacheEntries";
+    private static SampleResultCache instance = null;
+
+    final int maxEntries;
+    private final LinkedHashMap<String, ValidationResult[][]> results;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Constructor for a SampleResultCache
+     *
+     * @param maxEntries the number of shards to keep results for.  0 to keep none.
+     */
+    SampleResultCache(int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+        //Access order, so the eldest entry is the least recently used.
+        this.results = new LinkedHashMap<String, ValidationResult[][]>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ValidationResult[][]> eldest)
+            {
+                if(size() > SampleResultCache.this.maxEntries)
+                {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the SampleResultCache that validations use, creating it the first time.
+     *
+     * @return the shared SampleResultCache
+     */
+    public static synchronized SampleResultCache getInstance()
+    {
+        if(instance == null)
+        {
+            int maxEntries = Math.max(0, Integer.getInteger(entriesProperty, 0));
+            logger.debug("Keeping the results of " + maxEntries + " sample shards");
+            instance = new SampleResultCache(maxEntries);
+        }
+        return instance;
+    }
+
+    /**
+     * Set the SampleResultCache that validations use.
+     *
+     * @param cache the SampleResultCache to use, or null to create it again from the system property
+     */
+    static synchronized void setInstance(SampleResultCache cache)
+    {
+        instance = cache;
+    }
+
+    /**
+     * @return true if the cache keeps any results
+     */
+    public boolean isEnabled()
+    {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Get a copy of the results of a shard.
+     *
+     * @param key the key of the shard and stage
+     * @return copies of the results, in the groups they were kept in, or null if they aren't in the cache
+     */
+    public synchronized ValidationResult[][] get(String key)
+    {
+        ValidationResult[][] cachedResults = results.get(key);
+        if(cachedResults == null)
+        {
+            misses++;
+            return null;
+        }
+        hits++;
+        return copy(cachedResults);
+    }
+
+    /**
+     * Keep a copy of the results of a shard.
+     *
+     * @param key the key of the shard and stage
+     * @param shardResults the results, in as many groups as the stage needs
+     */
+    public void put(String key, ValidationResult[]... shardResults)
+    {
+        ValidationResult[][] copies = copy(shardResults);
+        synchronized(this)
+        {
+            results.put(key, copies);
+        }
+    }
+
+    private static ValidationResult[][] copy(ValidationResult[][] shardResults)
+    {
+        ValidationResult[][] copies = new ValidationResult[shardResults.length][];
+        for(int i = 0; i < shardResults.length; i++)
+        {
+            copies[i] = new ValidationResult[shardResults[i].length];
+            for(int j = 0; j < shardResults[i].length; j++)
+            {
+                copies[i][j] = new ValidationResult(shardResults[i][j]);
+            }
+        }
+        return copies;
+    }
+
+    public synchronized int getEntryCount()
+    {
+        return results.size();
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+}
@@ -0,0 +1,845 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+
+/** 
+ * SampleShards splits a multi-sample HML document into fragments, so each fragment can be validated on it's own.
+ * 
+ * The document is split into a prefix (everything up to the end of the tag before the first sample, including the root start tag, properties,
+ * hmlid and reporting-center), the samples, and a suffix (everything after the last sample, including the root end tag).  A shard is a run of
+ * consecutive samples.  It's fragment is the prefix, the text of it's samples exactly as it is in the document, and the suffix.
+ * 
+ * The samples are found with a StAX parser.  It gives the line and column at the end of every tag, and those are counted forward to a position
+ * in the document.  A sample runs from the end of the tag before it to the end of it's own end tag, so the whitespace and comments before it go with it.
+ * 
+ * Results found in a fragment are mapped back to the document with remap().  The [line,column] at the start of a schema error is
+ * moved to the same spot in the document, and sample[n] in an xpath becomes the sample's position in the document.
+ * 
+ * Only documents that are simple to split are split.  split() and splitSamples() return null for anything else, like a DOCTYPE,
+ * an encoding that isn't a single byte or UTF-8, a line that ends with a \r on it's own, text in the root element, other root children between the samples,
+ * or a reference-sequence id that is used by samples in different shards.
+*/
+class SampleShards
+{
+    static Logger logger = LoggerFactory.getLogger(SampleShards.class);
+    //The sample step of an xpath, the second step, like /hml[1]/sample[2] or /hml[1]/{namespace}sample[2]
+    static final Pattern rootChildStep = Pattern.compile("^/[^/]+/(\\{[^}]*\\})?([^/\\[]+)\\[(\\d+)\\]");
+
+    public enum Region
+    {
+        //Where a result was found in a fragment.
+        //PREFIX = In the prefix, on the root element, or a result without an xpath.
+        //SAMPLE = In one of the shard's samples.
+        //SUFFIX = In the suffix.
+        PREFIX, SAMPLE, SUFFIX
+    }
+
+    final Document document;
+    int sampleCount = 0;
+    //Where the samples start and end.  Sample n runs from boundary n to boundary n + 1.  The first boundary is the end of the prefix,
+    //and the last one is the start of the suffix.
+    int[] boundary = new int[16];
+    int[] boundaryLine = new int[16];
+    int[] boundaryColumn = new int[16];
+    //Root children before the first sample, counted by name.  The rest of the root children are in the suffix.
+    Map<String,Integer> prefixChildCounts = new HashMap<String,Integer>();
+    //The first sample of each shard, and the sample count at the end.
+    int[] shardStart;
+    //The first and last sample that uses each reference-sequence id, on a reference-sequence or in a reference-sequence-id attribute.
+    //The schemas make them an xs:ID and xs:IDREFs, and the schematron rules look up reference sequences by id anywhere in the document.
+    Map<String,int[]> referenceSequenceIds = new HashMap<String,int[]>();
+
+    //The position, line and column the document has been counted to.
+    private int position;
+    private int line = 1;
+    private int column = 1;
+
+    private SampleShards(Document document)
+    {
+        this.document = document;
+        this.position = document.start();
+    }
+
+    /**
+     * Split a document into shards of consecutive samples.
+     *
+     * @param source the HmlSource for a well formed document
+     * @param maxShards the most shards to make.  Each shard gets about the same amount of the document.
+     * @return the SampleShards, or null if the document can't be split or has fewer than 2 samples
+     */
+    static SampleShards split(HmlSource source, int maxShards)
+    {
+        SampleShards shards = scan(source);
+        if(shards == null || maxShards < 2)
+        {
+            logger.debug("Not splitting this document into samples.");
+            return null;
+        }
+        shards.partition(maxShards);
+        if(shards.getShardCount() < 2)
+        {
+            logger.debug("Not splitting this document, it's samples fit in one shard.");
+            return null;
+        }
+        if(!shards.idsInOneShard())
+        {
+            logger.debug("Not splitting this document, a reference-sequence id is used by samples in different shards.");
+            return null;
+        }
+        return shards;
+    }
+
+    /**
+     * Split a document into as many shards as it can have.  Each sample is a shard of it's own,
+     * unless it shares a reference-sequence id with the samples after it.  Then the samples in between are in one shard.
+     *
+     * @param source the HmlSource for a well formed document
+     * @return the SampleShards, or null if the document can't be split or all of it's samples are in one shard
+     */
+    static SampleShards splitSamples(HmlSource source)
+    {
+        SampleShards shards = scan(source);
+        if(shards == null)
+        {
+            logger.debug("Not splitting this document into samples.");
+            return null;
+        }
+        shards.partitionSamples();
+        if(shards.getShardCount() < 2)
+        {
+            logger.debug("Not splitting this document, a reference-sequence id is used by the first and last sample.");
+            return null;
+        }
+        return shards;
+    }
+
+    /**
+     * Find the samples in a document.
+     *
+     * @param source the HmlSource for a well formed document
+     * @return the SampleShards before they are partitioned, or null if the document can't be split or has fewer than 2 samples
+     */
+    private static SampleShards scan(HmlSource source)
+    {
+        XMLStreamReader reader = null;
+        try
+        {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            InputSource inputSource = source.newInputSource();
+            reader = (inputSource.getCharacterStream() != null) ? factory.createXMLStreamReader(inputSource.getCharacterStream())
+                : factory.createXMLStreamReader(inputSource.getByteStream());
+
+            Document document = null;
+            if(source instanceof StringHmlSource)
+            {
+                document = new StringDocument(((StringHmlSource)source).getXml());
+            }
+            else if(source instanceof ByteArrayHmlSource)
+            {
+                ByteArrayHmlSource byteSource = (ByteArrayHmlSource)source;
+                document = ByteDocument.create(ByteBuffer.wrap(byteSource.bytes, 0, byteSource.length), reader.getEncoding());
+            }
+            else if(source instanceof MappedFileHmlSource)
+            {
+                document = ByteDocument.create(((MappedFileHmlSource)source).getBuffer(), reader.getEncoding());
+            }
+            if(document == null)
+            {
+                logger.debug("Not splitting this document, it's source or encoding isn't supported.");
+                return null;
+            }
+
+            SampleShards shards = new SampleShards(document);
+            return (shards.read(reader) && shards.sampleCount >= 2) ? shards : null;
+        }
+        catch(Exception e)
+        {
+            logger.debug("Not splitting this document, it could not be read: " + e.toString());
+            return null;
+        }
+        finally
+        {
+            close(reader);
+        }
+    }
+
+    /**
+     * Close the reader.  The document is in memory or memory mapped, so it's stream doesn't need to be closed.
+     */
+    private static void close(XMLStreamReader reader)
+    {
+        try
+        {
+            if(reader != null)
+            {
+                reader.close();
+            }
+        }
+        catch(Exception e)
+        {
+            logger.debug("Could not close the document after splitting it: " + e.toString());
+        }
+    }
+
+    /**
+     * Read the document, and find the samples that are children of the root element and the reference-sequence ids they use.
+     *
+     * @param reader an XMLStreamReader at the start of the document
+     * @return false if the document can't be split
+     * @throws Exception if the document can not be parsed
+     */
+    private boolean read(XMLStreamReader reader) throws Exception
+    {
+        int depth = 0;
+        boolean inSample = false;
+        //Something other than whitespace, comments or samples came after a sample.  No more samples are allowed.
+        boolean afterSamples = false;
+        //The line and column at the end of the last tag of the root and it's children.  The prefix ends there.
+        int tagEndLine = 0;
+        int tagEndColumn = 0;
+        while(reader.hasNext())
+        {
+            int event = reader.next();
+            if(event == XMLStreamConstants.DTD)
+            {
+                //It's declarations would have to be understood.
+                return false;
+            }
+            if(event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE)
+            {
+                if(depth == 1 && !reader.isWhiteSpace())
+                {
+                    return false;
+                }
+            }
+            else if(event == XMLStreamConstants.START_ELEMENT)
+            {
+                depth++;
+                String name = reader.getLocalName();
+                if(depth == 1)
+                {
+                    tagEndLine = reader.getLocation().getLineNumber();
+                    tagEndColumn = reader.getLocation().getColumnNumber();
+                }
+                else if(depth == 2)
+                {
+                    inSample = name.equals("sample");
+                    if(inSample && afterSamples)
+                    {
+                        //The samples have to be next to each other.
+                        return false;
+                    }
+                    if(inSample && sampleCount == 0 && !addBoundary(0, tagEndLine, tagEndColumn))
+                    {
+                        return false;
+                    }
+                    if(!inSample && sampleCount > 0)
+                    {
+                        afterSamples = true;
+                    }
+                    else if(!inSample)
+                    {
+                        Integer count = prefixChildCounts.get(name);
+                        prefixChildCounts.put(name, (count == null) ? 1 : count + 1);
+                    }
+                }
+                else if(inSample)
+                {
+                    addId(reader.getAttributeValue(null, name.equals("reference-sequence") ? "id" : "reference-sequence-id"));
+                }
+            }
+            else if(event == XMLStreamConstants.END_ELEMENT)
+            {
+                if(depth == 2)
+                {
+                    Location location = reader.getLocation();
+                    tagEndLine = location.getLineNumber();
+                    tagEndColumn = location.getColumnNumber();
+                    if(inSample)
+                    {
+                        if(!addBoundary(sampleCount + 1, tagEndLine, tagEndColumn))
+                        {
+                            return false;
+                        }
+                        sampleCount++;
+                        inSample = false;
+                    }
+                }
+                depth--;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remember which samples use a reference-sequence id.
+     *
+     * @param id the value of the id attribute, or null if the element doesn't have one
+     */
+    private void addId(String id)
+    {
+        if(id == null)
+        {
+            return;
+        }
+        //An xs:ID's whitespace is collapsed.
+        String value = id.trim().replaceAll("[ \\t\\r\\n]+", " ");
+        int[] samples = referenceSequenceIds.get(value);
+        if(samples == null)
+        {
+            referenceSequenceIds.put(value, new int[]{sampleCount, sampleCount});
+        }
+        else
+        {
+            samples[1] = sampleCount;
+        }
+    }
+
+    /**
+     * Add the end of a tag as the start or end of a sample.
+     *
+     * @param index the boundary's index, 0 for the end of the prefix
+     * @param tagEndLine the line the parser gave for the end of the tag
+     * @param tagEndColumn the column the parser gave for the end of the tag
+     * @return false if the tag's end wasn't found where the parser said it was
+     */
+    private boolean addBoundary(int index, int tagEndLine, int tagEndColumn)
+    {
+        int tagEnd = find(tagEndLine, tagEndColumn);
+        if(tagEnd < 0 || document.unit(tagEnd - 1) != '>')
+        {
+            logger.debug("Not splitting this document, the end of a tag at [" + tagEndLine + "," + tagEndColumn + "] wasn't found.");
+            return false;
+        }
+        if(index == boundary.length)
+        {
+            int size = index * 2;
+            boundary = Arrays.copyOf(boundary, size);
+            boundaryLine = Arrays.copyOf(boundaryLine, size);
+            boundaryColumn = Arrays.copyOf(boundaryColumn, size);
+        }
+        boundary[index] = tagEnd;
+        boundaryLine[index] = tagEndLine;
+        boundaryColumn[index] = tagEndColumn;
+        return true;
+    }
+
+    /**
+     * Count the document forward to a line and column.  Lines end at \n or \r\n, and columns are counted in chars, the way the parsers count them.
+     * The parser's columns after a \r on it's own aren't counted from 1, so those documents aren't split.
+     *
+     * @return the position of the line and column, or -1 if the document doesn't have it
+     */
+    private int find(int targetLine, int targetColumn)
+    {
+        while(line < targetLine || (line == targetLine && column < targetColumn))
+        {
+            if(position == document.length())
+            {
+                return -1;
+            }
+            int unit = document.unit(position);
+            if(unit == '\n')
+            {
+                line++;
+                column = 1;
+            }
+            else if(unit == '\r')
+            {
+                if(position + 1 == document.length() || document.unit(position + 1) != '\n')
+                {
+                    return -1;
+                }
+            }
+            else
+            {
+                column += document.columns(position);
+            }
+            position++;
+        }
+        return (line == targetLine && column == targetColumn) ? position : -1;
+    }
+
+    /**
+     * Divide the samples into shards of about the same length.  Every shard has at least one sample.
+     *
+     * @param maxShards the most shards to make
+     */
+    void partition(int maxShards)
+    {
+        int shards = Math.min(maxShards, sampleCount);
+        long total = boundary[sampleCount] - boundary[0];
+        int[] starts = new int[shards + 1];
+        int count = 0;
+        int lastShard = -1;
+        for(int i = 0; i < sampleCount; i++)
+        {
+            //A sample goes in the shard it's middle falls in.  A very large sample can leave the next shard empty, then there is one shard less.
+            long middle = ((long)boundary[i] + boundary[i + 1]) / 2 - boundary[0];
+            int shard = (int)Math.min(shards - 1, middle * shards / total);
+            if(shard > lastShard)
+            {
+                starts[count++] = i;
+                lastShard = shard;
+            }
+        }
+        starts[count] = sampleCount;
+        shardStart = Arrays.copyOf(starts, count + 1);
+    }
+
+    /**
+     * Put each sample in a shard of it's own, except for samples between two uses of a reference-sequence id.  They have to share a shard.
+     */
+    void partitionSamples()
+    {
+        //The last sample that has to be in the same shard as each sample.
+        int[] lastUse = new int[sampleCount];
+        for(int i = 0; i < sampleCount; i++)
+        {
+            lastUse[i] = i;
+        }
+        for(int[] samples : referenceSequenceIds.values())
+        {
+            lastUse[samples[0]] = Math.max(lastUse[samples[0]], samples[1]);
+        }
+        int[] starts = new int[sampleCount + 1];
+        int count = 0;
+        int reach = -1;
+        for(int i = 0; i < sampleCount; i++)
+        {
+            if(i > reach)
+            {
+                starts[count++] = i;
+            }
+            reach = Math.max(reach, lastUse[i]);
+        }
+        starts[count] = sampleCount;
+        shardStart = Arrays.copyOf(starts, count + 1);
+    }
+
+    /**
+     * A duplicate xs:ID is only found if both are in the same fragment, and a lookup by id only finds the reference sequences in it's fragment.
+     *
+     * @return true if every reference-sequence id is only used by samples in one shard
+     */
+    boolean idsInOneShard()
+    {
+        for(int[] samples : referenceSequenceIds.values())
+        {
+            if(getShard(samples[0]) != getShard(samples[1]))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int getShard(int sample)
+    {
+        int shard = Arrays.binarySearch(shardStart, sample);
+        return (shard >= 0) ? shard : -shard - 2;
+    }
+
+    int getShardCount()
+    {
+        return shardStart.length - 1;
+    }
+
+    int getSampleCount()
+    {
+        return sampleCount;
+    }
+
+    /**
+     * Build the fragment for a shard.  It is built when it's needed, so only the fragments being validated are in memory.
+     *
+     * @param shard the shard number, from 0
+     * @return an HmlSource of the same kind as the document
+     */
+    HmlSource fragment(int shard)
+    {
+        //The samples start on a new line, and so does the suffix, so their lines and columns are easy to map back to the document.
+        return document.fragment(boundary[0], boundary[shardStart[shard]], boundary[shardStart[shard + 1]], boundary[sampleCount]);
+    }
+
+    /**
+     * Digest the parts of the document that are in every fragment: the prefix and the suffix.
+     *
+     * @param digest the MessageDigest to update
+     */
+    void digestContext(MessageDigest digest)
+    {
+        document.digest(digest, 0, boundary[0]);
+        digest.update((byte)'\n');
+        document.digest(digest, boundary[sampleCount], document.length());
+    }
+
+    /**
+     * Digest the samples of a shard, exactly as they are in the document.
+     *
+     * @param digest the MessageDigest to update
+     * @param shard the shard number
+     */
+    void digestShard(MessageDigest digest, int shard)
+    {
+        document.digest(digest, boundary[shardStart[shard]], boundary[shardStart[shard + 1]]);
+    }
+
+    /**
+     * Map a result found in a shard's fragment back to the document.  The result is changed, so remap it before it goes in a ValidationResultCollector.
+     *
+     * @param result a ValidationResult from the shard's fragment
+     * @param shard the shard number
+     */
+    void remap(ValidationResult result, int shard)
+    {
+        int first = shardStart[shard];
+        int last = shardStart[shard + 1] - 1;
+        result.setErrorText(remapPosition(result.getErrorText(), first, last));
+        List<String> xPaths = result.getXPaths();
+        for(int i = 0; i < xPaths.size(); i++)
+        {
+            xPaths.set(i, remapXPath(xPaths.get(i), first));
+        }
+    }
+
+    /**
+     * Tell which part of a fragment a result was found in, from it's xpath.
+     *
+     * @param result a ValidationResult
+     * @return the Region of the fragment
+     */
+    Region getRegion(ValidationResult result)
+    {
+        if(result.getXPaths().isEmpty())
+        {
+            return Region.PREFIX;
+        }
+        Matcher matcher = rootChildStep.matcher(result.getXPaths().get(0));
+        if(!matcher.find())
+        {
+            return Region.PREFIX;
+        }
+        String childName = getLocalName(matcher.group(2));
+        if(childName.equals("sample"))
+        {
+            return Region.SAMPLE;
+        }
+        Integer prefixCount = prefixChildCounts.get(childName);
+        return (Integer.parseInt(matcher.group(3)) > (prefixCount == null ? 0 : prefixCount)) ? Region.SUFFIX : Region.PREFIX;
+    }
+
+    /**
+     * Move the [line,column] at the start of a schema error from the fragment to the document.
+     */
+    private String remapPosition(String errorText, int first, int last)
+    {
+        if(errorText == null || !errorText.startsWith("["))
+        {
+            return errorText;
+        }
+        int comma = errorText.indexOf(',');
+        int close = errorText.indexOf(']');
+        if(comma < 0 || close < comma)
+        {
+            return errorText;
+        }
+        int line;
+        int column;
+        try
+        {
+            line = Integer.parseInt(errorText.substring(1, comma));
+            column = Integer.parseInt(errorText.substring(comma + 1, close));
+        }
+        catch(NumberFormatException e)
+        {
+            return errorText;
+        }
+        if(line < 1)
+        {
+            return errorText;
+        }
+
+        //The samples start on this line of the fragment, in column 1.
+        int samplesLine = boundaryLine[0] + 1;
+        int samplesEndLine = samplesLine + boundaryLine[last + 1] - boundaryLine[first];
+        if(line < samplesLine)
+        {
+            //The prefix is the same as the document.
+            return errorText;
+        }
+        else if(line <= samplesEndLine)
+        {
+            if(line == samplesLine)
+            {
+                column += boundaryColumn[first] - 1;
+            }
+            line += boundaryLine[first] - samplesLine;
+        }
+        else
+        {
+            if(line == samplesEndLine + 1)
+            {
+                column += boundaryColumn[sampleCount] - 1;
+            }
+            line += boundaryLine[sampleCount] - samplesEndLine - 1;
+        }
+        return "[" + line + "," + column + errorText.substring(close);
+    }
+
+    /**
+     * Change sample[n] in a fragment's xpath to the sample's position in the document.
+     */
+    private String remapXPath(String xPath, int first)
+    {
+        Matcher matcher = rootChildStep.matcher(xPath);
+        if(first == 0 || !matcher.find() || !getLocalName(matcher.group(2)).equals("sample"))
+        {
+            return xPath;
+        }
+        int sampleIndex = Integer.parseInt(matcher.group(3)) + first;
+        return xPath.substring(0, matcher.start(3)) + sampleIndex + xPath.substring(matcher.end(3));
+    }
+
+    private static String getLocalName(String name)
+    {
+        return name.substring(name.lastIndexOf(':') + 1);
+    }
+
+
+    /** 
+     * The text of the document, as chars or bytes.
+    */
+    private static abstract class Document
+    {
+        /**
+         * @return where the document's text starts, after a byte order mark
+         */
+        int start()
+        {
+            return 0;
+        }
+
+        abstract int length();
+
+        /**
+         * @return the char or unsigned byte at a position
+         */
+        abstract int unit(int position);
+
+        /**
+         * @return how many columns the unit at a position moves the parser along it's line
+         */
+        abstract int columns(int position);
+
+        /**
+         * Build a fragment: the prefix, a line break, some samples, a line break and the suffix.
+         */
+        abstract HmlSource fragment(int prefixEnd, int samplesStart, int samplesEnd, int suffixStart);
+
+        /**
+         * Digest the text between two positions.  Chars are digested as UTF-8.
+         */
+        abstract void digest(MessageDigest digest, int start, int end);
+    }
+
+    private static class StringDocument extends Document
+    {
+        final String xml;
+
+        StringDocument(String xml)
+        {
+            this.xml = xml;
+        }
+
+        @Override
+        int length()
+        {
+            return xml.length();
+        }
+
+        @Override
+        int unit(int position)
+        {
+            return xml.charAt(position);
+        }
+
+        @Override
+        int columns(int position)
+        {
+            return 1;
+        }
+
+        @Override
+        HmlSource fragment(int prefixEnd, int samplesStart, int samplesEnd, int suffixStart)
+        {
+            StringBuilder fragment = new StringBuilder(prefixEnd + samplesEnd - samplesStart + xml.length() - suffixStart + 2);
+            fragment.append(xml, 0, prefixEnd).append('\n');
+            fragment.append(xml, samplesStart, samplesEnd).append('\n').append(xml, suffixStart, xml.length());
+            return new StringHmlSource(fragment.toString());
+        }
+
+        @Override
+        void digest(MessageDigest digest, int start, int end)
+        {
+            digest.update(xml.substring(start, end).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static class ByteDocument extends Document
+    {
+        //The bytes of a ByteArrayHmlSource, or a memory mapped file.  Only absolute gets are used, so the position never changes.
+        final ByteBuffer bytes;
+        final int length;
+        final int start;
+        final boolean utf8;
+
+        private ByteDocument(ByteBuffer bytes, int length, int start, boolean utf8)
+        {
+            this.bytes = bytes;
+            this.length = length;
+            this.start = start;
+            this.utf8 = utf8;
+        }
+
+        /**
+         * @param bytes the document, from index 0 to it's limit
+         * @param encoding the encoding the parser found for the document
+         * @return a ByteDocument, or null if the encoding is not UTF-8, US-ASCII or ISO-8859-1
+         */
+        static ByteDocument create(ByteBuffer bytes, String encoding)
+        {
+            Charset charset;
+            try
+            {
+                charset = Charset.forName(encoding);
+            }
+            catch(Exception e)
+            {
+                return null;
+            }
+            int length = bytes.limit();
+            if(charset.equals(StandardCharsets.UTF_8))
+            {
+                //The parser skips a UTF-8 byte order mark, it isn't counted as a column.
+                boolean byteOrderMark = length >= 3 && (bytes.get(0) & 0xFF) == 0xEF && (bytes.get(1) & 0xFF) == 0xBB && (bytes.get(2) & 0xFF) == 0xBF;
+                return new ByteDocument(bytes, length, byteOrderMark ? 3 : 0, true);
+            }
+            if(charset.equals(StandardCharsets.US_ASCII) || charset.equals(StandardCharsets.ISO_8859_1))
+            {
+                return new ByteDocument(bytes, length, 0, false);
+            }
+            return null;
+        }
+
+        /**
+         * @return a view of the bytes between two positions, that can be read without changing the document's buffer
+         */
+        private static ByteBuffer slice(ByteBuffer bytes, int start, int end)
+        {
+            //Buffer's methods, so the class runs on Java 8, where ByteBuffer doesn't override them.
+            Buffer view = bytes.duplicate();
+            view.limit(end);
+            view.position(start);
+            return (ByteBuffer)view;
+        }
+
+        @Override
+        int start()
+        {
+            return start;
+        }
+
+        @Override
+        int length()
+        {
+            return length;
+        }
+
+        @Override
+        int unit(int position)
+        {
+            return bytes.get(position) & 0xFF;
+        }
+
+        @Override
+        int columns(int position)
+        {
+            if(!utf8)
+            {
+                return 1;
+            }
+            int unit = bytes.get(position) & 0xFF;
+            if((unit & 0xC0) == 0x80)
+            {
+                //The rest of a character.
+                return 0;
+            }
+            //A character outside the Basic Multilingual Plane is two chars, a surrogate pair.
+            return ((unit & 0xF8) == 0xF0) ? 2 : 1;
+        }
+
+        @Override
+        HmlSource fragment(int prefixEnd, int samplesStart, int samplesEnd, int suffixStart)
+        {
+            byte[] fragment = new byte[prefixEnd + 1 + samplesEnd - samplesStart + 1 + length - suffixStart];
+            slice(bytes, 0, prefixEnd).get(fragment, 0, prefixEnd);
+            int position = prefixEnd;
+            fragment[position++] = '\n';
+            slice(bytes, samplesStart, samplesEnd).get(fragment, position, samplesEnd - samplesStart);
+            position += samplesEnd - samplesStart;
+            fragment[position++] = '\n';
+            slice(bytes, suffixStart, length).get(fragment, position, length - suffixStart);
+            return new ByteArrayHmlSource(fragment);
+        }
+
+        @Override
+        void digest(MessageDigest digest, int start, int end)
+        {
+            digest.update(slice(bytes, start, end));
+        }
+    }
+}
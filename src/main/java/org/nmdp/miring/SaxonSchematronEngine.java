@@ -0,0 +1,180 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Result;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** 
+ * SaxonSchematronEngine runs schematron rules natively on Saxon-HE, without going through the Probatron jar.
+ * 
+ * A schematron schema is compiled with the ISO schematron XSLT pipeline the first time it is used:
+ * iso_dsdl_include.xsl resolves the includes, iso_abstract_expand.xsl expands abstract patterns, and iso_svrl_for_xslt2.xsl
+ * generates the validating stylesheet.  The generated stylesheet is compiled into a Templates object, which is reused for every document.
+ * 
+ * The ISO stylesheets are the ones Probatron ships, including its modified skeleton that supports full-path-notation 4.
+ * That keeps the SVRL locations in the same form that SchematronValidator expects.
+*/
+public class SaxonSchematronEngine implements SchematronEngine
+{
+    static Logger logger = LoggerFactory.getLogger(SaxonSchematronEngine.class);
+    static String isoStylesheetDirectory = "/org/nmdp/miring/schematron/iso/";
+    private static SaxonSchematronEngine instance = null;
+
+    //Use Saxon directly, instead of whatever the javax.xml.transform.TransformerFactory property happens to point to.
+    TransformerFactory transformerFactory = new net.sf.saxon.TransformerFactoryImpl();
+    ConcurrentMap<String, Templates> compiledSchemas = new ConcurrentHashMap<String, Templates>();
+    Templates includeStylesheet;
+    Templates abstractExpandStylesheet;
+    Templates svrlStylesheet;
+
+    private SaxonSchematronEngine() throws Exception
+    {
+        includeStylesheet = compileStylesheet("iso_dsdl_include.xsl");
+        abstractExpandStylesheet = compileStylesheet("iso_abstract_expand.xsl");
+        svrlStylesheet = compileStylesheet("iso_svrl_for_xslt2.xsl");
+    }
+
+    /**
+     * Get the shared SaxonSchematronEngine, compiling the ISO schematron stylesheets the first time it is called.
+     *
+     * @return the SaxonSchematronEngine
+     * @throws Exception if the ISO schematron stylesheets can not be compiled
+     */
+    public static synchronized SaxonSchematronEngine getInstance() throws Exception
+    {
+        if(instance == null)
+        {
+            instance = new SaxonSchematronEngine();
+        }
+        return instance;
+    }
+
+    @Override
+    public void validate(Source document, String schemaLocation, Result result) throws Exception
+    {
+        getCompiledSchema(schemaLocation).newTransformer().transform(document, result);
+    }
+
+    /**
+     * Get the compiled XSLT for a schematron schema, compiling it if this is the first request for it.
+     *
+     * @param schemaLocation the name of the schematron schema resource
+     * @return the compiled Templates
+     * @throws Exception if the schema can not be compiled
+     */
+    Templates getCompiledSchema(String schemaLocation) throws Exception
+    {
+        Templates templates = compiledSchemas.get(schemaLocation);
+        if(templates == null)
+        {
+            //Two threads may both compile a schema the first time it is used.  Only one copy is kept.
+            Templates compiledTemplates = compileSchema(schemaLocation);
+            templates = compiledSchemas.putIfAbsent(schemaLocation, compiledTemplates);
+            if(templates == null)
+            {
+                templates = compiledTemplates;
+            }
+        }
+        return templates;
+    }
+
+    /**
+     * Compile a schematron schema into XSLT with the ISO schematron pipeline.
+     *
+     * @param schemaLocation the name of the schematron schema resource
+     * @return the compiled Templates
+     * @throws Exception if the schema can not be compiled
+     */
+    private Templates compileSchema(String schemaLocation) throws Exception
+    {
+        long startTime = System.currentTimeMillis();
+        URL schemaFileURL = SaxonSchematronEngine.class.getResource(schemaLocation);
+        if(schemaFileURL == null)
+        {
+            throw new Exception("Schematron resource not found: " + schemaLocation);
+        }
+
+        //The system ID lets the include stage find the .incl files next to the schema.
+        Source schemaSource = new StreamSource(schemaFileURL.toExternalForm());
+        Source includedSchema = transform(includeStylesheet, schemaSource, schemaFileURL.toExternalForm());
+        Source expandedSchema = transform(abstractExpandStylesheet, includedSchema, schemaFileURL.toExternalForm());
+
+        //full-path-notation 4 is what Probatron uses, it gives the locations we strip namespaces from.
+        Transformer transformer = svrlStylesheet.newTransformer();
+        transformer.setParameter("full-path-notation", "4");
+        DOMResult validatingStylesheet = new DOMResult();
+        transformer.transform(expandedSchema, validatingStylesheet);
+
+        Templates templates = transformerFactory.newTemplates(new DOMSource(validatingStylesheet.getNode(), schemaFileURL.toExternalForm()));
+        logger.debug("Compiled " + schemaLocation + " in " + (System.currentTimeMillis() - startTime) + " ms");
+        return templates;
+    }
+
+    /**
+     * Run one stage of the schematron pipeline.
+     *
+     * @param stylesheet the compiled stylesheet for this stage
+     * @param source the output of the previous stage
+     * @param systemId the system ID of the schema, kept on the result so later stages can resolve relative references
+     * @return the output of this stage
+     * @throws Exception if the transform fails
+     */
+    private Source transform(Templates stylesheet, Source source, String systemId) throws Exception
+    {
+        DOMResult result = new DOMResult();
+        stylesheet.newTransformer().transform(source, result);
+        return new DOMSource(result.getNode(), systemId);
+    }
+
+    /**
+     * Compile one of the ISO schematron stylesheets from the classpath.
+     *
+     * @param stylesheetName the file name of the stylesheet
+     * @return the compiled Templates
+     * @throws Exception if the stylesheet can not be found or compiled
+     */
+    private Templates compileStylesheet(String stylesheetName) throws Exception
+    {
+        URL stylesheetURL = SaxonSchematronEngine.class.getResource(isoStylesheetDirectory + stylesheetName);
+        if(stylesheetURL == null)
+        {
+            throw new Exception("ISO schematron stylesheet not found: " + stylesheetName);
+        }
+        //The system ID lets iso_svrl_for_xslt2.xsl import the skeleton from the same directory, also inside a jar.
+        return transformerFactory.newTemplates(new StreamSource(stylesheetURL.toExternalForm()));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** 
+ * SchemaRegistry compiles each XML Schema resource once, and hands out the compiled Schema to every validation afterwards.
+ * 
+ * A javax.xml.validation.Schema is immutable and thread safe, so one copy can be shared by all requests.
+ * The schemas are keyed by their resource name, which encodes both the HML version and the tier,
+ * ie "/org/nmdp/miring/schema/hml-1.0.2.xsd" or "/org/nmdp/miring/schema/MiringTier1.xsd".
+ * They are read as classpath streams, so the schemas can be loaded from inside a jar or war.
+*/
+public class SchemaRegistry
+{
+    static Logger logger = LoggerFactory.getLogger(SchemaRegistry.class);
+    private static final ConcurrentMap<String, Schema> schemas = new ConcurrentHashMap<String, Schema>();
+
+    /**
+     * Get the compiled Schema for a schema resource, compiling it if this is the first request for it.
+     *
+     * @param schemaFileName the resource name of the schema
+     * @return the compiled Schema
+     * @throws Exception if the resource does not exist or is not a valid schema
+     */
+    public static Schema getSchema(String schemaFileName) throws Exception
+    {
+        Schema schema = schemas.get(schemaFileName);
+        if(schema == null)
+        {
+            //Two threads may both compile a schema the first time it is used.  Only one copy is kept, which is harmless.
+            Schema compiledSchema = compileSchema(schemaFileName);
+            schema = schemas.putIfAbsent(schemaFileName, compiledSchema);
+            if(schema == null)
+            {
+                schema = compiledSchema;
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Compile a schema from a classpath resource.
+     *
+     * @param schemaFileName the resource name of the schema
+     * @return the compiled Schema
+     * @throws Exception if the resource does not exist or is not a valid schema
+     */
+    private static Schema compileSchema(String schemaFileName) throws Exception
+    {
+        URL schemaURL = SchemaRegistry.class.getResource(schemaFileName);
+        if(schemaURL == null)
+        {
+            throw new FileNotFoundException("Schema resource not found: " + schemaFileName);
+        }
+        logger.debug("Compiling schema " + schemaURL);
+
+        InputStream schemaStream = schemaURL.openStream();
+        try
+        {
+            //The system ID lets relative references in the schema resolve against the resource's location.
+            StreamSource schemaSource = new StreamSource(schemaStream, schemaURL.toExternalForm());
+            return SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(schemaSource);
+        }
+        finally
+        {
+            schemaStream.close();
+        }
+    }
+}
@@ -22,23 +22,18 @@
 package org.nmdp.miring;
 
 import java.io.*;
-import java.net.URL;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Arrays;
 
-import javax.xml.XMLConstants;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.validation.*;
 
+import org.nmdp.miring.RuleTemplates.RuleTemplate;
+import org.nmdp.miring.RuleTemplates.Tier;
 import org.nmdp.miring.ValidationResult.Severity;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.NodeList;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -55,15 +50,6 @@ import org.xml.sax.helpers.DefaultHandler;
 public class SchemaValidator
 {
     static Logger logger = LoggerFactory.getLogger(SchemaValidator.class);
-    public static List<ValidationResult> validationErrors;
-    public static String hmlNamespace = null;
-    public static List<Sample> samples;
-    public static String schema;
-    //missingNodeTemplates and missingAttributeTemplates are loaded from xml template files.
-    //They define what information (rule id, and additional info, etc.) is included in error messages
-    //Included info can be specified on a per-rule basis
-    public static Document missingNodeTemplates = null;
-    public static Document missingAttributeTemplates = null;
     
     /**
      * Validate xml against a schema
@@ -73,88 +59,26 @@ public class SchemaValidator
      * @return an array of ValidationError objects found during validation
      */
     public static ValidationResult[] validate(String xml, String schemaFileName) 
+    {
+        return validate(new ValidationContext(xml), schemaFileName);
+    }
+
+    /**
+     * Validate the xml in a ValidationContext against a schema.
+     * Everything this validation needs is kept in the context and the content handler, so separate contexts can be validated at the same time.
+     *
+     * @param context the ValidationContext for the document being validated
+     * @param schemaFileName the file name of the schema to compare against
+     * @return an array of ValidationError objects found during validation
+     */
+    public static ValidationResult[] validate(ValidationContext context, String schemaFileName) 
     {
         logger.debug("Starting a schema validation");
-        validationErrors = new ArrayList<ValidationResult>();
-        samples = new ArrayList<Sample>();
-        schema=schemaFileName;
+        ValidationResultCollector validationErrors = new ValidationResultCollector();
 
         try 
         {
-            MiringValidationContentHandler.clearModel();
-            //Switch the two
-            if(schemaFileName.equals("/org/nmdp/miring/schema/MiringTier1.xsd"))
-            {
-                missingNodeTemplates = Utilities.xmlToDocumentObject(Utilities.readXmlResource("/org/nmdp/miring/ruletemplates/MissingNodeTemplate.xml"));
-                missingAttributeTemplates = Utilities.xmlToDocumentObject(Utilities.readXmlResource("/org/nmdp/miring/ruletemplates/MissingAttributeTemplate.xml"));
-                hmlNamespace = Utilities.getNamespaceName(xml);
-                URL schemaURL = SchemaValidator.class.getResource(schemaFileName);
-                logger.debug("Schema URL Resource Location = " + schemaURL);
-                File schemaFile = new File(schemaURL.toURI());
-                Schema schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(schemaFile);
-                
-                final SAXParserFactory factory = SAXParserFactory.newInstance();
-                factory.setNamespaceAware(true);
-                factory.setSchema(schema);
-                
-                final SAXParser parser = factory.newSAXParser();
-                final MiringValidationContentHandler handler = new MiringValidationContentHandler();
-                //parser.parse is what does the actual "validation."  It parses the sample xml referring to the schema.
-                //Errors are thrown by the handler, and we'll turn those into validation errors that are human readable.
-                parser.parse(new InputSource(new StringReader(xml)), handler);//??????
-                MiringValidationContentHandler.clearModel();//except here
-            }
-            else if(schemaFileName.equals("/org/nmdp/miring/schema/MiringTier1-1.0.xsd"))
-            {
-                missingNodeTemplates = Utilities.xmlToDocumentObject(Utilities.readXmlResource("/org/nmdp/miring/ruletemplates/MissingNodeTemplate.xml"));
-                missingAttributeTemplates = Utilities.xmlToDocumentObject(Utilities.readXmlResource("/org/nmdp/miring/ruletemplates/MissingAttributeTemplate.xml"));
-                hmlNamespace = Utilities.getNamespaceName(xml);
-                URL schemaURL = SchemaValidator.class.getResource(schemaFileName);
-                logger.debug("Schema URL Resource Location = " + schemaURL);
-                File schemaFile = new File(schemaURL.toURI());
-                Schema schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(schemaFile);
-                
-                final SAXParserFactory factory = SAXParserFactory.newInstance();
-                factory.setNamespaceAware(true);
-                factory.setSchema(schema);
-                
-                final SAXParser parser = factory.newSAXParser();
-                final MiringValidationContentHandler handler = new MiringValidationContentHandler();
-                //parser.parse is what does the actual "validation."  It parses the sample xml referring to the schema.
-                //Errors are thrown by the handler, and we'll turn those into validation errors that are human readable.
-                parser.parse(new InputSource(new StringReader(xml)), handler);//??????
-                MiringValidationContentHandler.clearModel();//except here
-
-            }
-            else if(schemaFileName.equals("/schema/miringreport.xsd"))
-            {
-                
-            }
-
-            else
-            {
-            	missingNodeTemplates = Utilities.xmlToDocumentObject(Utilities.readXmlResource("/org/nmdp/miring/ruletemplates/MissingNodeTemplate.xml"));
-                missingAttributeTemplates = Utilities.xmlToDocumentObject(Utilities.readXmlResource("/org/nmdp/miring/ruletemplates/MissingAttributeTemplate.xml"));
-            	hmlNamespace = Utilities.getNamespaceName(xml);
-                URL schemaURL = SchemaValidator.class.getResource(schemaFileName);
-                logger.debug("Schema URL Resource Location = " + schemaURL);
-                File schemaFile = new File(schemaURL.toURI());
-                Schema schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(schemaFile);
-
-                final SAXParserFactory factory = SAXParserFactory.newInstance();
-                factory.setNamespaceAware(true);
-                factory.setSchema(schema);
-                
-                final SAXParser parser = factory.newSAXParser();
-                final HMLValidationContentHandler handler = new HMLValidationContentHandler();
-                //parser.parse is what does the actual "validation."  It parses the sample xml referring to the schema.
-                //Errors are thrown by the handler, and we'll turn those into validation errors that are human readable.
-                parser.parse(new InputSource(new StringReader(xml)), handler);//??????
-                
-            }
-            
-            
-          
+            parse(context, schemaFileName, validationErrors);
         }
         catch (Exception e)
         {
@@ -165,7 +89,7 @@ public class SchemaValidator
         if(validationErrors.size() > 0)
         {
             //List -> Array
-            ValidationResult[] array = validationErrors.toArray(new ValidationResult[validationErrors.size()]);
+            ValidationResult[] array = validationErrors.toArray();
             logger.debug(validationErrors.size() + " schema validation errors found");
             return array;
         }
@@ -177,24 +101,105 @@ public class SchemaValidator
         }
     }
 
+    /**
+     * Parse the xml in a ValidationContext against a schema, adding the validation errors to a collector.
+     * A fatal error, like xml that isn't well formed, stops the parse.  The errors found before it stay in the collector.
+     *
+     * @param context the ValidationContext for the document being validated
+     * @param schemaFileName the file name of the schema to compare against
+     * @param validationErrors the ValidationResultCollector for the errors
+     * @throws Exception if the parse stops early
+     */
+    static void parse(ValidationContext context, String schemaFileName, ValidationResultCollector validationErrors) throws Exception
+    {
+        HmlSource source = context.getSource();
+        //Switch the two
+        if(schemaFileName.equals("/org/nmdp/miring/schema/MiringTier1.xsd"))
+        {
+            Schema schema = SchemaRegistry.getSchema(schemaFileName);
+            
+            final SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setSchema(schema);
+            
+            final SAXParser parser = factory.newSAXParser();
+            final MiringValidationContentHandler handler = new MiringValidationContentHandler(context, schemaFileName, validationErrors);
+            //parser.parse is what does the actual "validation."  It parses the sample xml referring to the schema.
+            //Errors are thrown by the handler, and we'll turn those into validation errors that are human readable.
+            parser.parse(source.newInputSource(), handler);//??????
+            handler.clearModel();
+        }
+        else if(schemaFileName.equals("/org/nmdp/miring/schema/MiringTier1-1.0.xsd"))
+        {
+            Schema schema = SchemaRegistry.getSchema(schemaFileName);
+            
+            final SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setSchema(schema);
+            
+            final SAXParser parser = factory.newSAXParser();
+            final MiringValidationContentHandler handler = new MiringValidationContentHandler(context, schemaFileName, validationErrors);
+            //parser.parse is what does the actual "validation."  It parses the sample xml referring to the schema.
+            //Errors are thrown by the handler, and we'll turn those into validation errors that are human readable.
+            parser.parse(source.newInputSource(), handler);//??????
+            handler.clearModel();
+
+        }
+        else if(schemaFileName.equals("/schema/miringreport.xsd"))
+        {
+            
+        }
+
+        else
+        {
+            Schema schema = SchemaRegistry.getSchema(schemaFileName);
+
+            final SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setSchema(schema);
+            
+            final SAXParser parser = factory.newSAXParser();
+            final HMLValidationContentHandler handler = new HMLValidationContentHandler(context, validationErrors);
+            //parser.parse is what does the actual "validation."  It parses the sample xml referring to the schema.
+            //Errors are thrown by the handler, and we'll turn those into validation errors that are human readable.
+            parser.parse(source.newInputSource(), handler);//??????
+            handler.clearModel();
+        }
+    }
+
     /** 
      * MiringValidationContentHandler is a subclass of SchemaValidator, which is responsible for handling 
      * parse exceptions, and performing Miring Specific logic for determining Miring Results.
      * 
      * The methods in this class are overrides of DefaultHandler, which I extend to provide validation logic.
      * 
-     * The startElement and endElement methods are used to construct the SimpleXmlModel for the document.
+     * The startElement and endElement methods are used to track the current element, for xpaths on the report.
      * 
      * Parser exceptions are interpreted and translated into MIRING ValidationResults.
     */
     private static class MiringValidationContentHandler extends DefaultHandler 
     {    
-        //xmlRootNode represents the root node of the xml document, which is a
-        //skeleton representation of the document, built recursively during the sax parse
-        //This SimpleXmlModel is used to generate an xpath on the report
-        public static SimpleXmlModel xmlRootNode;
-        public static SimpleXmlModel xmlCurrentNode;
-        public static int nodeCount = 0;
+        ValidationContext context;
+        String schema;
+        ValidationResultCollector validationErrors;
+        //xPathTracker follows the parser through the document.
+        //It is used to generate an xpath on the report
+        XPathTracker xPathTracker = new XPathTracker();
+        int nodeCount = 0;
+
+        /**
+         * Constructor for a MiringValidationContentHandler
+         *
+         * @param context the ValidationContext for the document being parsed
+         * @param schema the file name of the schema the document is validated against
+         * @param validationErrors the ValidationResultCollector that ValidationResults are added to
+         */
+        MiringValidationContentHandler(ValidationContext context, String schema, ValidationResultCollector validationErrors)
+        {
+            this.context = context;
+            this.schema = schema;
+            this.validationErrors = validationErrors;
+        }
 
         @Override
         public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException 
@@ -204,28 +209,8 @@ public class SchemaValidator
             
             try
             {
-                if(localName.equals("sample"))
-                {
-                    //Every time we start analyzing a sample, store it's ID, for reporting purposes
-                    String sampleID = attributes.getValue("id");
-                    String centerCode = attributes.getValue("center-code");
-                    samples.add(new Sample(sampleID,centerCode));
-                }
-                
-                if(xmlRootNode==null)
-                {
-                    //This is the new root node.
-                    xmlRootNode = new SimpleXmlModel(localName,1);
-                    xmlCurrentNode = xmlRootNode;
-                }
-                else
-                {
-                    //There is a root node already.  This must be a child node.
-                    int highestChildIndex = xmlCurrentNode.getHighestChildIndex(localName);
-                    SimpleXmlModel newCurrentNode = new SimpleXmlModel(localName , highestChildIndex + 1);
-                    xmlCurrentNode.addChildNode(newCurrentNode);
-                    xmlCurrentNode = newCurrentNode;
-                }
+                //The first element is the root, everything after it is a child of the current element.
+                xPathTracker.startElement(localName);
             }
             catch(Exception e)
             {
@@ -238,12 +223,8 @@ public class SchemaValidator
         {
             try
             {
-                if(xmlCurrentNode.parentNode != null)
-                {
-                    //If the parent node *IS* null, that means we're closing out the root HML element.  All done.  
-                    //Otherwise zoom out the parser to the parent
-                    xmlCurrentNode = xmlCurrentNode.parentNode;
-                }
+                //Closing out the root HML element leaves it as the current element.  Otherwise zoom out the parser to the parent
+                xPathTracker.endElement();
             }
             catch(Exception e)
             {
@@ -286,7 +267,7 @@ public class SchemaValidator
          *
          * @param exception a SaxException containing schema validation information
          */
-        private static void handleParserException(SAXParseException exception)
+        private void handleParserException(SAXParseException exception)
         {
             ValidationResult ve = null;
             
@@ -363,7 +344,7 @@ public class SchemaValidator
                 String untrimmedNodeName = exceptionTokens[7];
                 String nodeName = untrimmedNodeName.substring(1, untrimmedNodeName.indexOf("'."));//What does this do?
                 
-                ve = handleMissingAttribute(error,missingAttributeName, Utilities.stripNamespace(nodeName, hmlNamespace));
+                ve = handleMissingAttribute(error,missingAttributeName, Utilities.stripNamespace(nodeName, context.getHmlNamespace()));
             }
             else{
                 for(int i =cvcOrNumberCheck(exceptionTokens[0]); i<exceptionTokens.length;i++)
@@ -380,7 +361,7 @@ public class SchemaValidator
             }
           
 
-            Utilities.addValidationError(validationErrors, ve);
+            validationErrors.add(ve);
         }
 
         /**
@@ -391,7 +372,7 @@ public class SchemaValidator
          * 
          * @return a ValidationResult object for this missing attribute
          */
-        private static ValidationResult handleMissingAttribute(String error, String missingAttributeName, String nodeName)
+        private ValidationResult handleMissingAttribute(String error, String missingAttributeName, String nodeName)
         {
             
             String errorMessage = error+" The node " + nodeName + " is missing a " + missingAttributeName + " attribute.";
@@ -401,38 +382,24 @@ public class SchemaValidator
             //Specific logic for various MIRING errors
             try
             {
-                boolean matchFound = false;
-                NodeList ruleNodes = missingAttributeTemplates.getElementsByTagName("rule");
-                for(int i = 0; i < ruleNodes.getLength(); i++)
+                RuleTemplate template = RuleTemplates.getMissingAttributeTemplate(Tier.MIRING, nodeName, missingAttributeName);
+                if(template != null)
                 {
-                    NamedNodeMap ruleAttributes = ruleNodes.item(i).getAttributes();
-
-                    String templateNodeName = Utilities.getAttribute(ruleAttributes, "node-name");
-                    String templateAttributeName = Utilities.getAttribute(ruleAttributes, "attribute-name");
+                    String templateSeverity = template.getSeverity();
+                    String templateSolution = template.getSolutionText();
                     
-                    if(missingAttributeName.equals(templateAttributeName)
-                        && nodeName.equals(templateNodeName))
-                    {
-                        matchFound = true;
-                        String miringRule = Utilities.getAttribute(ruleAttributes, "miring-rule-id");
-                        String templateSeverity = Utilities.getAttribute(ruleAttributes, "severity");
-                        String templateSolution = Utilities.getAttribute(ruleAttributes, "solution-text");
-                        
-                        Severity severity = 
-                            templateSeverity.equals("fatal")?Severity.FATAL:
-                            templateSeverity.equals("miring")?Severity.MIRING:
-                            templateSeverity.equals("warning")?Severity.WARNING:
-                            templateSeverity.equals("info")?Severity.INFO:
-                            Severity.FATAL;
-                        
-                        ve =  new ValidationResult(errorMessage,severity);
-                        ve.setSolutionText(templateSolution==null ? solutionText : solutionText + " " + templateSolution);
-                        ve.setMiringRule(miringRule);
-                        
-                        break;
-                    }
+                    Severity severity = 
+                        templateSeverity.equals("fatal")?Severity.FATAL:
+                        templateSeverity.equals("miring")?Severity.MIRING:
+                        templateSeverity.equals("warning")?Severity.WARNING:
+                        templateSeverity.equals("info")?Severity.INFO:
+                        Severity.FATAL;
+                    
+                    ve =  new ValidationResult(errorMessage,severity);
+                    ve.setSolutionText(templateSolution==null ? solutionText : solutionText + " " + templateSolution);
+                    ve.setMiringRule(template.getMiringRuleId());
                 }
-                if(!matchFound)
+                else
                 {
                     throw new Exception("Missing attribute name not handled!: " + nodeName + ":" + missingAttributeName);
                 }
@@ -442,22 +409,10 @@ public class SchemaValidator
                 logger.error("Exception during handleMissingAttribute" , e);
             }
             
-            String xPath = xmlCurrentNode.generateXpath();
             //For some reason missing attribute exceptions are thrown BEFORE the parser hits the startElement method for the parent node.  
             //startElement is hit AFTER the attributes for the node are checked
-            //So right now, the parent node isn't contained in the xmlCurrentNode structure.  We need to add the most recent parent to this xpath.
-            int nodeIndex = 1;
-            for(int i = 0; i < xmlCurrentNode.childrenNodes.size(); i++)
-            {
-                SimpleXmlModel currentNode = xmlCurrentNode.childrenNodes.get(i);
-                if(currentNode.nodeName.equals(nodeName))
-                {
-                    //If the parent has other children, then this one's not the first.
-                    nodeIndex++;
-                }
-            }
-            
-            xPath = xPath + "/" + nodeName + "[" + nodeIndex + "]";
+            //So right now, the node isn't in the xPathTracker.  It will be the next child of the current element with this name.
+            String xPath = xPathTracker.generateNextChildXpath(nodeName);
             ve.addXPath(xPath);
             
             return ve;
@@ -470,10 +425,10 @@ public class SchemaValidator
          * 
          * @return a ValidationResult object for this missing node
          */
-        private static ValidationResult handleMissingNode(String error,String missingNodeName)
+        private ValidationResult handleMissingNode(String error,String missingNodeName)
         {
             String parentNodeName = "Unhandled ParentNodeName";
-            parentNodeName = xmlCurrentNode.nodeName;
+            parentNodeName = xPathTracker.getCurrentNodeName();
             if(parentNodeName.isEmpty())
             {
                 logger.error("No parent node found for missingNodeName=" + missingNodeName);
@@ -486,36 +441,24 @@ public class SchemaValidator
             //Specific logic for various MIRING errors
             try
             {
-                boolean matchFound = false;
-                NodeList ruleNodes = missingNodeTemplates.getElementsByTagName("rule");
-                for(int i = 0; i < ruleNodes.getLength(); i++)
+                RuleTemplate template = RuleTemplates.getMissingNodeTemplate(Tier.MIRING, missingNodeName);
+                if(template != null)
                 {
-                    NamedNodeMap ruleAttributes = ruleNodes.item(i).getAttributes();
+                    String templateSolution = template.getSolutionText();
                     
-                    String templateNodeName = Utilities.getAttribute(ruleAttributes, "node-name");
-                    if(missingNodeName.equals(templateNodeName))
-                    {
-                        matchFound = true;
-                        
-                        String miringRule = Utilities.getAttribute(ruleAttributes, "miring-rule-id");
-                        String templateSolution = Utilities.getAttribute(ruleAttributes, "solution-text");
-                        
-                        String templateSeverity = Utilities.getAttribute(ruleAttributes, "severity");
-                        Severity severity = 
-                            templateSeverity.equals("fatal")?Severity.FATAL:
-                            templateSeverity.equals("miring")?Severity.MIRING:
-                            templateSeverity.equals("warning")?Severity.WARNING:
-                            templateSeverity.equals("info")?Severity.INFO:
-                            Severity.FATAL;
-                        
-                        ve =  new ValidationResult(errorMessage,severity);
-                        ve.setSolutionText(templateSolution==null ? solutionText : solutionText + " " + templateSolution);
-                        ve.setMiringRule(miringRule);
-                        
-                        break;
-                    }
+                    String templateSeverity = template.getSeverity();
+                    Severity severity = 
+                        templateSeverity.equals("fatal")?Severity.FATAL:
+                        templateSeverity.equals("miring")?Severity.MIRING:
+                        templateSeverity.equals("warning")?Severity.WARNING:
+                        templateSeverity.equals("info")?Severity.INFO:
+                        Severity.FATAL;
+                    
+                    ve =  new ValidationResult(errorMessage,severity);
+                    ve.setSolutionText(templateSolution==null ? solutionText : solutionText + " " + templateSolution);
+                    ve.setMiringRule(template.getMiringRuleId());
                 }
-                if(!matchFound)
+                else
                 {
                     throw new Exception("Missing node name not handled!: " + missingNodeName);
                 }
@@ -525,32 +468,18 @@ public class SchemaValidator
                 logger.error("Exception during handleMissingNode.",e);
             }
             
-            String xPath = xmlCurrentNode.generateXpath();
+            String xPath = xPathTracker.generateXpath();
             ve.addXPath(xPath);
 
             return ve;
         }
 
         /**
-         * Clean up the SimpleXmlModels 
-         * 
-         * I'm not sure if this is necessary.  Since SimpleXmlModel objects refer to both a parent and children,
-         * garbage collector might not flag them for destruction when the SchemaValidator object is de-referenced.
-         * Just want to make sure we don't have extra objects hanging around.
+         * Forget the document, so the handler doesn't hold on to anything after the parse.
          */
-        private static void clearModel()
+        private void clearModel()
         {
-            if(xmlRootNode != null)
-            {
-                xmlRootNode.deAllocate(1);
-                xmlRootNode = null;
-            }
-            
-            if(xmlCurrentNode != null)
-            {
-                xmlCurrentNode.deAllocate(1);
-                xmlCurrentNode = null;
-            }
+            xPathTracker.clear();
             nodeCount = 0;
         }
         private static int cvcOrNumberCheck(String exceptionName)
@@ -569,12 +498,25 @@ public class SchemaValidator
     //Is there any methods I need to make it HML specfic or is this okay with pretty much just a vairable name change and deletions here and there
     private static class HMLValidationContentHandler extends DefaultHandler
       {
-      	//xmlRootNode represents the root node of the xml document, which is a
-        //skeleton representation of the document, built recursively during the sax parse
-        //This SimpleXmlModel is used to generate an xpath on the report
-        public static SimpleXmlModel xmlRootNode;
-        public static SimpleXmlModel xmlCurrentNode;
-        public static int nodeCount = 0;
+        ValidationContext context;
+        ValidationResultCollector validationErrors;
+        //xPathTracker follows the parser through the document.
+        //It is used to generate an xpath on the report
+        XPathTracker xPathTracker = new XPathTracker();
+        int nodeCount = 0;
+
+        /**
+         * Constructor for an HMLValidationContentHandler
+         *
+         * @param context the ValidationContext for the document being parsed
+         * @param validationErrors the ValidationResultCollector that ValidationResults are added to
+         */
+        HMLValidationContentHandler(ValidationContext context, ValidationResultCollector validationErrors)
+        {
+            this.context = context;
+            this.validationErrors = validationErrors;
+        }
+
         @Override
         public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException 
         {
@@ -583,28 +525,8 @@ public class SchemaValidator
             
             try
             {
-                if(localName.equals("sample"))//??
-                {
-                    //Every time we start analyzing a sample, store it's ID, for reporting purposes
-                    String sampleID = attributes.getValue("id");
-                    String centerCode = attributes.getValue("center-code");
-                    samples.add(new Sample(sampleID,centerCode));
-                }
-                
-                if(xmlRootNode==null)
-                {//Can stay the same-Anu
-                    //This is the new root node.
-                    xmlRootNode = new SimpleXmlModel(localName,1);
-                    xmlCurrentNode = xmlRootNode;
-                }
-                else//Stay same?-Anu Needs explaining, why do we care about the child and parent nodes
-                {
-                    //There is a root node already.  This must be a child node.
-                    int highestChildIndex = xmlCurrentNode.getHighestChildIndex(localName);
-                    SimpleXmlModel newCurrentNode = new SimpleXmlModel(localName , highestChildIndex + 1);
-                    xmlCurrentNode.addChildNode(newCurrentNode);
-                    xmlCurrentNode = newCurrentNode;
-                }
+                //The first element is the root, everything after it is a child of the current element.
+                xPathTracker.startElement(localName);
             }
             catch(Exception e)
             {
@@ -617,12 +539,8 @@ public class SchemaValidator
         {
             try
             {
-                if(xmlCurrentNode.parentNode != null)
-                {
-                    //If the parent node *IS* null, that means we're closing out the root HML element.  All done.  
-                    //Otherwise zoom out the parser to the parent
-                    xmlCurrentNode = xmlCurrentNode.parentNode;
-                }
+                //Closing out the root HML element leaves it as the current element.  Otherwise zoom out the parser to the parent
+                xPathTracker.endElement();
             }
             catch(Exception e)
             {
@@ -665,7 +583,7 @@ public class SchemaValidator
          *
          * @param exception a SaxException containing schema validation information
          */
-        private static void handleParserException(SAXParseException exception, Severity severity)
+        private void handleParserException(SAXParseException exception, Severity severity)
         {
  
             ValidationResult ve = new ValidationResult(exception.getMessage(),severity);
@@ -735,7 +653,7 @@ public class SchemaValidator
                 String untrimmedNodeName = exceptionTokens[7];
                 String nodeName = untrimmedNodeName.substring(1, untrimmedNodeName.indexOf("'."));
                 
-                ve = handleMissingAttribute(error,missingAttributeName, Utilities.stripNamespace(nodeName, hmlNamespace));
+                ve = handleMissingAttribute(error,missingAttributeName, Utilities.stripNamespace(nodeName, context.getHmlNamespace()));
             }
             //If there HML is not well formed reject the file and return the error and how to fix it
             else
@@ -750,7 +668,7 @@ public class SchemaValidator
                 ve.setMiringRule("reject");
             }
            
-            Utilities.addValidationError(validationErrors, ve);
+            validationErrors.add(ve);
             
             
         }
@@ -763,7 +681,7 @@ public class SchemaValidator
          * 
          * @return a ValidationResult object for this missing attribute
          */
-        private static ValidationResult handleMissingAttribute(String error,String missingAttributeName, String nodeName)
+        private ValidationResult handleMissingAttribute(String error,String missingAttributeName, String nodeName)
         {
             String errorMessage = error+" The node " + nodeName + " is missing a " + missingAttributeName + " attribute.";
             String solutionText = "Please add a " + missingAttributeName + " attribute to the " + nodeName + " node.";
@@ -772,37 +690,24 @@ public class SchemaValidator
             //Specific logic for various HML errors
             try
             {
-                boolean matchFound = false;
-                NodeList ruleNodes = missingAttributeTemplates.getElementsByTagName("hml-rule");
-                for(int i = 0; i < ruleNodes.getLength(); i++)
+                RuleTemplate template = RuleTemplates.getMissingAttributeTemplate(Tier.HML, nodeName, missingAttributeName);
+                if(template != null)
                 {
-                    NamedNodeMap ruleAttributes = ruleNodes.item(i).getAttributes();
-
-                    String templateNodeName = Utilities.getAttribute(ruleAttributes, "node-name");
-                    String templateAttributeName = Utilities.getAttribute(ruleAttributes, "attribute");
+                    String templateSeverity = template.getSeverity();
+                    String templateSolution = template.getSolutionText();
                     
-                    if(missingAttributeName.equals(templateAttributeName)
-                        && nodeName.equals(templateNodeName))
-                    {
-                        matchFound = true;
-                        String templateSeverity = Utilities.getAttribute(ruleAttributes, "severity");
-                        String templateSolution = Utilities.getAttribute(ruleAttributes, "solution-text");
-                        
-                        Severity severity = 
-                            templateSeverity.equals("fatal")?Severity.HMLFATAL:
-                            templateSeverity.equals("hml")?Severity.HML:
-                            templateSeverity.equals("warning")?Severity.HMLWARNING:
-                            templateSeverity.equals("info")?Severity.INFO:
-                            Severity.FATAL;
-                        
-                        ve =  new ValidationResult(errorMessage,severity);
-                        ve.setSolutionText(templateSolution==null ? solutionText : solutionText + " " + templateSolution);
-                        ve.setMiringRule("HML");
-                        
-                        break;
-                    }
+                    Severity severity = 
+                        templateSeverity.equals("fatal")?Severity.HMLFATAL:
+                        templateSeverity.equals("hml")?Severity.HML:
+                        templateSeverity.equals("warning")?Severity.HMLWARNING:
+                        templateSeverity.equals("info")?Severity.INFO:
+                        Severity.FATAL;
+                    
+                    ve =  new ValidationResult(errorMessage,severity);
+                    ve.setSolutionText(templateSolution==null ? solutionText : solutionText + " " + templateSolution);
+                    ve.setMiringRule("HML");
                 }
-                if(!matchFound)
+                else
                 {
                     throw new Exception("Missing attribute name not handled!: " + nodeName + ":" + missingAttributeName+" Check Miring Validation Node");
                 }
@@ -812,22 +717,10 @@ public class SchemaValidator
                 logger.error("Exception during handleMissingAttribute" , e);
             }
             
-            String xPath = xmlCurrentNode.generateXpath();
             //For some reason missing attribute exceptions are thrown BEFORE the parser hits the startElement method for the parent node.  
             //startElement is hit AFTER the attributes for the node are checked
-            //So right now, the parent node isn't contained in the xmlCurrentNode structure.  We need to add the most recent parent to this xpath.
-            int nodeIndex = 1;
-            for(int i = 0; i < xmlCurrentNode.childrenNodes.size(); i++)
-            {
-                SimpleXmlModel currentNode = xmlCurrentNode.childrenNodes.get(i);
-                if(currentNode.nodeName.equals(nodeName))
-                {
-                    //If the parent has other children, then this one's not the first.
-                    nodeIndex++;
-                }
-            }
-            
-            xPath = xPath + "/" + nodeName + "[" + nodeIndex + "]";
+            //So right now, the node isn't in the xPathTracker.  It will be the next child of the current element with this name.
+            String xPath = xPathTracker.generateNextChildXpath(nodeName);
             ve.addXPath(xPath);
             
             return ve;
@@ -840,12 +733,12 @@ public class SchemaValidator
          * 
          * @return a ValidationResult object for this missing node
          */
-        private static ValidationResult handleMissingNode(String error,String missingNodeName)
+        private ValidationResult handleMissingNode(String error,String missingNodeName)
         {
 
             String parentNodeName = "Unhandled ParentNodeName";
             
-            parentNodeName = xmlCurrentNode.nodeName;
+            parentNodeName = xPathTracker.getCurrentNodeName();
             if(parentNodeName.isEmpty())
             {
                 logger.error("No parent node found for missingNodeName=" + missingNodeName);
@@ -854,41 +747,29 @@ public class SchemaValidator
             String errorMessage = error+" There is a missing " + missingNodeName + " node underneath the " + parentNodeName + " node.";
             String solutionText = "Please add one " + missingNodeName + " node underneath the " + parentNodeName + " node. If it exists, please make sure the placement is in accordance with your chosen HML version";
             ValidationResult ve = new ValidationResult(errorMessage,Severity.HMLFATAL);
-            boolean matchFound = false;
+            RuleTemplate template = RuleTemplates.getMissingNodeTemplate(Tier.HML, missingNodeName);
+            boolean matchFound = (template != null);
             //Specific logic for various HML errors
             try
             {
-                
-                NodeList ruleNodes = missingNodeTemplates.getElementsByTagName("hml-rule");
-                
-                for(int i = 0; i < ruleNodes.getLength(); i++)
+                if(matchFound)
                 {
-                    NamedNodeMap ruleAttributes = ruleNodes.item(i).getAttributes();
+                    String templateSolution = template.getSolutionText();
                     
-                    String templateNodeName = Utilities.getAttribute(ruleAttributes, "node-name");
-                    if(missingNodeName.equals(templateNodeName))
-                    {
-                        matchFound = true;
-
-                        String templateSolution = Utilities.getAttribute(ruleAttributes, "solution-text");
-                        
-                        String templateSeverity = Utilities.getAttribute(ruleAttributes, "severity");
-    
-                        Severity severity = 
-                            templateSeverity.equals("fatal")?Severity.HMLFATAL:
-                            templateSeverity.equals("hml")?Severity.HML:
-                            templateSeverity.equals("warning")?Severity.HMLWARNING:
-                            templateSeverity.equals("info")?Severity.INFO:
-                            Severity.HMLFATAL;
-                        
-                        ve =  new ValidationResult(errorMessage,severity);
-                        ve.setSolutionText(templateSolution==null ? solutionText : solutionText + " " + templateSolution);
-                        ve.setMiringRule("HML");
-                        
-                        break;
-                    }
+                    String templateSeverity = template.getSeverity();
+
+                    Severity severity = 
+                        templateSeverity.equals("fatal")?Severity.HMLFATAL:
+                        templateSeverity.equals("hml")?Severity.HML:
+                        templateSeverity.equals("warning")?Severity.HMLWARNING:
+                        templateSeverity.equals("info")?Severity.INFO:
+                        Severity.HMLFATAL;
+                    
+                    ve =  new ValidationResult(errorMessage,severity);
+                    ve.setSolutionText(templateSolution==null ? solutionText : solutionText + " " + templateSolution);
+                    ve.setMiringRule("HML");
                 }
-                if(!matchFound)
+                else
                 {
                     throw new Exception("Missing node name not handled!: " + missingNodeName+"May be node Miring Tier 1 Validation");
                 }
@@ -901,32 +782,18 @@ public class SchemaValidator
             {
                 ve.setMiringRule("Node");
             }
-            String xPath = xmlCurrentNode.generateXpath();
+            String xPath = xPathTracker.generateXpath();
             ve.addXPath(xPath);
 
             return ve;
         }
 
         /**
-         * Clean up the SimpleXmlModels 
-         * 
-         * I'm not sure if this is necessary.  Since SimpleXmlModel objects refer to both a parent and children,
-         * garbage collector might not flag them for destruction when the SchemaValidator object is de-referenced.
-         * Just want to make sure we don't have extra objects hanging around.
+         * Forget the document, so the handler doesn't hold on to anything after the parse.
          */
-        private static void clearModel()
+        private void clearModel()
         {
-            if(xmlRootNode != null)
-            {
-                xmlRootNode.deAllocate(1);
-                xmlRootNode = null;
-            }
-            
-            if(xmlCurrentNode != null)
-            {
-                xmlCurrentNode.deAllocate(1);
-                xmlCurrentNode = null;
-            }
+            xPathTracker.clear();
             nodeCount = 0;
         }
           /*
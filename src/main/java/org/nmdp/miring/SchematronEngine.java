@@ -0,0 +1,101 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.io.InputStream;
+
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.xml.sax.InputSource;
+
+/** 
+ * A SchematronEngine runs compiled schematron rules against an xml document, and writes the SVRL report to a Result.
+ * 
+ * Implementations compile each schema once and are shared by every request, so they must be thread safe.
+ * SchematronValidator passes a SAXResult, and translates the SVRL events into ValidationResults as they arrive,
+ * no matter which engine produced them.
+ * 
+ * The document can be any Source, so a SAX filter can sit in front of the engine's tree builder.  An HmlSource is read through a SequenceLengthFilter,
+ * unless the system property org.nmdp.miring.countSequences is false.  That works the same way for every engine and every schema.
+*/
+public interface SchematronEngine
+{
+    //System property to turn off the SequenceLengthFilter.  The consensus sequences then go in the engine's tree, and rule 4.2.3.e counts them there.
+    static final String countSequencesProperty = "org.nmdp.miring.countSequences";
+
+    /**
+     * Run a schematron schema against an xml document.
+     *
+     * @param document the Source for the xml to validate.  A SAXSource is read through it's XMLReader.
+     * @param schemaLocation the name of the schematron schema resource to validate against
+     * @param result the Result that receives the SVRL report
+     * @throws Exception if the schema can not be compiled, or the validation fails
+     */
+    void validate(Source document, String schemaLocation, Result result) throws Exception;
+
+    /**
+     * Run a schematron schema against an xml document.  The document is read through a SequenceLengthFilter, unless it is turned off.
+     *
+     * @param source the HmlSource for the xml to validate
+     * @param schemaLocation the name of the schematron schema resource to validate against
+     * @param result the Result that receives the SVRL report
+     * @throws Exception if the schema can not be compiled, or the validation fails
+     */
+    default void validate(HmlSource source, String schemaLocation, Result result) throws Exception
+    {
+        InputStream xmlInputStream = source.newInputStream();
+        try
+        {
+            if(!Boolean.parseBoolean(System.getProperty(countSequencesProperty, "true")))
+            {
+                validate(new StreamSource(xmlInputStream), schemaLocation, result);
+                return;
+            }
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            SequenceLengthFilter sequenceLengthFilter = new SequenceLengthFilter(factory.newSAXParser().getXMLReader());
+            validate(new SAXSource(sequenceLengthFilter, new InputSource(xmlInputStream)), schemaLocation, result);
+        }
+        finally
+        {
+            xmlInputStream.close();
+        }
+    }
+
+    /**
+     * Run a schematron schema against an xml String.  The String is validated as UTF-8 bytes.
+     *
+     * @param xml a String containing the xml to validate
+     * @param schemaLocation the name of the schematron schema resource to validate against
+     * @param result the Result that receives the SVRL report
+     * @throws Exception if the schema can not be compiled, or the validation fails
+     */
+    default void validate(String xml, String schemaLocation, Result result) throws Exception
+    {
+        validate(new StringHmlSource(xml), schemaLocation, result);
+    }
+}
@@ -22,32 +22,33 @@
 */
 package org.nmdp.miring;
 
-import java.io.ByteArrayOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.File;
-import java.io.InputStream;
-import java.lang.reflect.Constructor;
-import java.net.URI;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import javax.xml.transform.sax.SAXResult;
+
+import org.nmdp.miring.RuleTemplates.RuleTemplate;
 import org.nmdp.miring.ValidationResult.Severity;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
 /** 
  * SchematronValidator is a class used to validate an XML document against a set of schematron rules.  The schematron logic is handled, in this case, by Probatron.
  * 
  * Probatron is distributed as an executable jar, but it is rather inconvenient to write XML files to hard drive in order to use them.
  * I'm using reflection to call Probatron's methods in a few spots, rather than using their main method as a starting point.
+ * The Probatron classes and the compiled schematron rules are kept by ProbatronEngine, so they are only loaded once.
+ * 
+ * The schematron rules can also run natively on Saxon, with SaxonSchematronEngine.  Set the system property
+ * org.nmdp.miring.schematronEngine to "saxon" to use it, or call setEngine.  Probatron is the default.
+ * 
+ * The engines read the document through a SequenceLengthFilter, so the consensus sequences are counted as they are parsed
+ * and never go in the engine's tree.  Rule 4.2.3.e compares the counts, see SchematronEngine.
  * 
  * For reference, see Probatron's documentation:
  * http://www.probatron.org/probatron4j.html
@@ -60,10 +61,37 @@ public class SchematronValidator
 {
     static Logger logger = LoggerFactory.getLogger(SchematronValidator.class);
     
-    static ClassLoader loadedProbatronClasses;
-    static String jarFileName = "/org/nmdp/miring/jar/probatron.jar";
     static String namespaceText = "{http://schemas.nmdp.org/spec/hml/1.0.1}";
-    public static Document schematronRuleTemplate = null;
+    static String svrlNamespace = "http://purl.oclc.org/dsdl/svrl";
+    static String engineProperty = "org.nmdp.miring.schematronEngine";
+    private static volatile SchematronEngine engine = null;
+
+    /**
+     * Get the SchematronEngine used for tier 2 validation.  The first call chooses an engine based on the org.nmdp.miring.schematronEngine system property.
+     *
+     * @return the SchematronEngine
+     * @throws Exception if the engine can not be loaded
+     */
+    public static SchematronEngine getEngine() throws Exception
+    {
+        if(engine == null)
+        {
+            String engineName = System.getProperty(engineProperty, "probatron");
+            logger.debug("Using schematron engine " + engineName);
+            engine = engineName.equalsIgnoreCase("saxon") ? SaxonSchematronEngine.getInstance() : ProbatronEngine.getInstance();
+        }
+        return engine;
+    }
+
+    /**
+     * Set the SchematronEngine used for tier 2 validation.
+     *
+     * @param schematronEngine the SchematronEngine to use, or null to choose again from the system property
+     */
+    public static void setEngine(SchematronEngine schematronEngine)
+    {
+        engine = schematronEngine;
+    }
 
     /**
      * Perform a schematron validation for an xml string against an array of schemaFileName strings.
@@ -74,186 +102,192 @@ public class SchematronValidator
      */
     public static ValidationResult[] validate(String xml, String[] schemaFileNames)
     {
-        ValidationResult[] results = new ValidationResult[0];
+        return validate(new ValidationContext(xml), schemaFileNames);
+    }
+
+    /**
+     * Perform a schematron validation for the xml in a ValidationContext against an array of schemaFileName strings.
+     *
+     * @param context the ValidationContext for the document being validated
+     * @param schemaFileNames an array of Strings containing the names of the schema file resources to validate against
+     * @return an array of ValidationError objects found during validation
+     */
+    public static ValidationResult[] validate(ValidationContext context, String[] schemaFileNames)
+    {
+        try
+        {
+            return validate(context, schemaFileNames, getEngine());
+        }
+        catch(Exception e)
+        {
+            logger.error("Exception loading the schematron engine", e);
+            return new ValidationResult[]{new ValidationResult("Failed Schematron Validation: " + e.toString(),Severity.FATAL)};
+        }
+    }
+
+    /**
+     * Perform a schematron validation for the xml in a ValidationContext against an array of schemaFileName strings, with a specific engine.
+     *
+     * @param context the ValidationContext for the document being validated
+     * @param schemaFileNames an array of Strings containing the names of the schema file resources to validate against
+     * @param engine the SchematronEngine that runs the rules
+     * @return an array of ValidationError objects found during validation
+     */
+    public static ValidationResult[] validate(ValidationContext context, String[] schemaFileNames, SchematronEngine engine)
+    {
+        List<ValidationResult> results = new ArrayList<ValidationResult>();
+        HmlSource source = context.getSource();
         
         try
         {
-            logger.debug("Opening jar file: " + jarFileName);
-            URL jarURL = SchematronValidator.class.getResource(jarFileName);
-            URI jarURI = jarURL.toURI();
-            loadedProbatronClasses = Utilities.loadJarElements(new File(jarURI));            
-            schematronRuleTemplate = Utilities.xmlToDocumentObject(Utilities.readXmlResource("/org/nmdp/miring/ruletemplates/SchematronRuleTemplate.xml"));
-            
             for(int i = 0; i < schemaFileNames.length; i++)
             {
                 String schemaFileName = schemaFileNames[i];
                 
-                logger.debug("Starting a schematron validation with schema " + schemaFileName + " and xml length " + xml.length());
-
-                //Create an org.probatron.ValidationReport object
-                Object validationReportObject = doValidation(xml, schemaFileName);
-
-                //Stream out the schematron report to a String
-                ByteArrayOutputStream myBaos = new ByteArrayOutputStream();
-                Utilities.callReflectedMethod(validationReportObject, "streamOut", myBaos, Class.forName("java.io.OutputStream"));
-                String resultString = myBaos.toString();
+                logger.debug("Starting a schematron validation with schema " + schemaFileName + " and xml length " + source.length());
 
-                //Create MIRING specific validation errors
-                ValidationResult[] currentResultErrors = translateSchematronReportToValidationResults(resultString);
+                ValidationResult[] currentResultErrors = runRules(source, schemaFileName, engine).getValidationResults();
                 logger.debug(currentResultErrors.length + " schema validation errors found");
 
-                //Add any errors to the tier2 results.
-                results = Utilities.combineArrays(results, currentResultErrors,null);
+                //Add any errors to the tier2 results.  They are sorted with the other tiers' results, when the report is made.
+                results.addAll(Arrays.asList(currentResultErrors));
             }
         }
         catch(Exception e )
         {
             logger.error("Exception in SchematronValidation", e);
-            return Utilities.combineArrays(results, new ValidationResult[]{new ValidationResult("Failed Schematron Validation: " + e.toString(),Severity.FATAL)},null);
+            results.add(new ValidationResult("Failed Schematron Validation: " + e.toString(),Severity.FATAL));
         }
-        logger.debug(results.length + " validation errors detected in schematron validator.");
-        return results;
+        logger.debug(results.size() + " validation errors detected in schematron validator.");
+        return results.toArray(new ValidationResult[results.size()]);
     }
 
     /**
-     * Perform a schematron validation for an xml string against an single schematron schema.
-     * This method mimics Probatron's Session.doValidation.
-     * 
-     * @param xml a String containing the xml to validate
-     * @param schemaLocation an String containing the name of the schema file resource to validate against
-     * @return an object which is an org.probatron.ValidationReport objects.
+     * Run one compiled schematron file.  The SVRL events go straight to the handler, which creates MIRING specific validation errors.
+     *
+     * @param source the HmlSource to validate
+     * @param schemaFileName the name of the schematron file resource
+     * @param engine the SchematronEngine that runs the rules
+     * @return the SvrlContentHandler holding the results
+     * @throws Exception if the rules can not be run
      */
-    private static Object doValidation(String xml, String schemaLocation) 
+    static SvrlContentHandler runRules(HmlSource source, String schemaFileName, SchematronEngine engine) throws Exception
     {
-        //We're using some reflection here, so object types are vague
-        //vr = org.probatron.ValidationReport
-        Object vr = null;
-        //theSchema = org.probatron.SchematronSchema
-        Object theSchema = null;
-        
-        try 
-        {
-            URL schemaFileURL = SchematronValidator.class.getResource(schemaLocation);
-            InputStream xmlInputStream = new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));            
-           
-            //A org.probatron.SchematronSchema object needs to have a Session object when it calls validateCandidate(), or else Null Pointers.
-            //So I create a session object here to please it.
-            Class sessionClass= loadedProbatronClasses.loadClass("org.probatron.Session");
-            Object currentSession = sessionClass.newInstance();
-            
-            //Create a SchematronSchema object, using constructor that takes a Session and a schema URL
-            Class schematronSchemaClass= loadedProbatronClasses.loadClass("org.probatron.SchematronSchema");
-            Constructor ctor = schematronSchemaClass.getDeclaredConstructor(sessionClass, URL.class);
-            theSchema = ctor.newInstance(currentSession, schemaFileURL);
-            
-            //Validate against a schematron schema, using probatron's validateCandidate method
-            vr = Utilities.callReflectedMethod(theSchema,"validateCandidate", xmlInputStream, Class.forName("java.io.InputStream"));
-        } 
-        catch(Exception e)
-        {
-            logger.error("Exception in doValidation: " + e);
-        }
-        logger.debug ("Validation Report = " + vr);
-        return vr;
+        SvrlContentHandler handler = new SvrlContentHandler();
+        engine.validate(source, schemaFileName, new SAXResult(handler));
+        return handler;
     }
 
-    /**
-     * Translate a org.probatron.ValidationReport into an array of ValidationResult objects
-     *
-     * @param xml a String containing a probatron ValidationReport 
-     * @return an array of ValidationResult objects generated from the probatron ValidationReport report.
-     */
-    private static ValidationResult[] translateSchematronReportToValidationResults(String xml)
+    /** 
+     * SvrlContentHandler translates an SVRL report into ValidationResult objects, as the schematron engine produces it.
+     * There is no intermediate String or DOM, so large reports don't need to be serialized and parsed again.
+     * 
+     * The nodes we care about look like this:
+     * <svrl:successful-report 
+     *     test="matches( @root, $regExpOID )"
+     *     location="/{http://schemas.nmdp.org/spec/hml/1.0.1}hml[1]/{http://schemas.nmdp.org/spec/hml/1.0.1}hmlid[1]">
+     *     <svrl:text>
+     *         The hmlid root is formatted like an OID. 
+     *     </svrl:text>
+     * </svrl:successful-report>
+     * 
+     * OR
+     * 
+     * <svrl:failed-assert 
+     *     test="number(@start) = '0'"
+     *     location="/{http://schemas.nmdp.org/spec/hml/1.0.1}hml[1]/{http://schemas.nmdp.org/spec/hml/1.0.1}sample[1]/...">
+     *     <svrl:text>
+     *         start attribute on reference-sequence nodes should be 0.
+     *     </svrl:text>
+     * </svrl:failed-assert>
+    */
+    static class SvrlContentHandler extends DefaultHandler
     {
-        List<ValidationResult> validationErrors = new ArrayList<ValidationResult>();
+        //I'm handling successful-reports and failed-asserts in the same way, but the reports are listed first.
+        List<ValidationResult> successfulReports = new ArrayList<ValidationResult>();
+        List<ValidationResult> failedAsserts = new ArrayList<ValidationResult>();
 
-        try
-        {
-            Element rootElement = Utilities.xmlToRootElement(xml);  
+        //State for the successful-report or failed-assert we are inside of.
+        String currentNodeName = null;
+        String locationText = null;
+        String errorText = null;
+        int depth = 0;
+        int textDepth = 0;
+        StringBuilder textBuilder = null;
 
-            //I guess I'm handling successful-reports and failed-asserts in the same way.
-            NodeList successfulReportList = rootElement.getElementsByTagName("svrl:successful-report");
-            NodeList failedAssertList = rootElement.getElementsByTagName("svrl:failed-assert");
-            Node[] combinedList = Utilities.combineNodeLists(successfulReportList, failedAssertList);
-            
-            if (combinedList != null) 
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException 
+        {
+            depth++;
+            if(currentNodeName == null)
             {
-                /*
-                These nodes look like this:
-                <svrl:successful-report 
-                    test="matches( @root, $regExpOID )"
-                    location="/{http://schemas.nmdp.org/spec/hml/1.0.1}hml[1]/{http://schemas.nmdp.org/spec/hml/1.0.1}hmlid[1]">
-                    <svrl:text>
-                        The hmlid root is formatted like an OID. 
-                    </svrl:text>
-                </svrl:successful-report>
-                
-                OR
-                
-                <svrl:failed-assert 
-                    test="number(@start) = '0'"
-                    location="/{http://schemas.nmdp.org/spec/hml/1.0.1}hml[1]/{http://schemas.nmdp.org/spec/hml/1.0.1}sample[1]/{http://schemas.nmdp.org/spec/hml/1.0.1}typing[1]/{http://schemas.nmdp.org/spec/hml/1.0.1}consensus-sequence[1]/{http://schemas.nmdp.org/spec/hml/1.0.1}reference-database[1]/{http://schemas.nmdp.org/spec/hml/1.0.1}reference-sequence[1]">
-                    <svrl:text>
-                        start attribute on reference-sequence nodes should be 0.
-                    </svrl:text>
-                </svrl:failed-assert>
-                
-                 */
-                for(int i = 0; i < combinedList.length; i++)
+                if(svrlNamespace.equals(uri) && (localName.equals("successful-report") || localName.equals("failed-assert")))
                 {
-                    //String testText = null;
-                    String locationText = null;
-                    String errorText = null;
-                    
-                    Node currentSchematronNode = combinedList[i];
-                    NamedNodeMap currAttributes = currentSchematronNode.getAttributes();
-                    
-                    //testText contains the actual test that schematron ran to get this report. 
-                    //I don't think we need this information.
-                    //testText = currAttributes.getNamedItem("test").getNodeValue();
-                    
+                    currentNodeName = localName;
                     //locationText is an xpath.  We need this info.
-                    //Probably need to skim out the namespaces, because they clutter things badly, and because who cares?
-                    locationText = currAttributes.getNamedItem("location").getNodeValue();
-                    
-                    //Dig into the "svrl:successful-report" node to get the error text.
-                    NodeList childrenNodes = currentSchematronNode.getChildNodes();
-                    if(childrenNodes != null)
-                    {
-                        for(int j = 0; j < childrenNodes.getLength(); j++)
-                        {
-                            //one of the children of the svrl:successful-report node should be a "svrl:text" node
-                            //in my experience it's at j=1, but I don't understand why.
-                            Node currentChildNode= childrenNodes.item(j);
-                            if(currentChildNode.getNodeName().equals("svrl:text"))
-                            {
-                                errorText = currentChildNode.getTextContent();
-                                break;
-                            }
-                        }
-                    }
-
-                    ValidationResult validationError = generateValidationError(errorText, locationText);
-                    Utilities.addValidationError(validationErrors, validationError);
+                    locationText = attributes.getValue("location");
+                    errorText = null;
+                    textDepth = depth + 1;
                 }
             }
+            else if(textBuilder == null && errorText == null && depth == textDepth && svrlNamespace.equals(uri) && localName.equals("text"))
+            {
+                //Only the first svrl:text child holds the error text.
+                textBuilder = new StringBuilder();
+            }
         }
-        catch(Exception e)
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException 
         {
-            logger.error("Error forming DOM from schematron results.", e);
-            validationErrors.add(new ValidationResult("Unhandled Schematron validation exception: " + e, Severity.FATAL));
+            if(textBuilder != null)
+            {
+                textBuilder.append(ch, start, length);
+            }
         }
 
-        if(validationErrors.size() > 0)
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException 
         {
-            //List -> Array
-            ValidationResult[] array = validationErrors.toArray(new ValidationResult[validationErrors.size()]);
-            return array;
+            if(textBuilder != null && depth == textDepth)
+            {
+                errorText = textBuilder.toString();
+                textBuilder = null;
+            }
+            else if(currentNodeName != null && depth == textDepth - 1)
+            {
+                ValidationResult validationError = generateValidationError(errorText, locationText);
+                (currentNodeName.equals("successful-report") ? successfulReports : failedAsserts).add(validationError);
+                currentNodeName = null;
+            }
+            depth--;
+        }
+
+        /**
+         * @return an array of the ValidationResults found in the report.  Empty, not null, if there are none.
+         */
+        ValidationResult[] getValidationResults()
+        {
+            ValidationResultCollector validationErrors = new ValidationResultCollector();
+            for(ValidationResult validationError : successfulReports)
+            {
+                validationErrors.add(validationError);
+            }
+            for(ValidationResult validationError : failedAsserts)
+            {
+                validationErrors.add(validationError);
+            }
+            return validationErrors.toArray();
         }
-        else
+
+        List<ValidationResult> getSuccessfulReports()
         {
-            //Empty.  Not null.  No problems found.
-            return new ValidationResult[0];
+            return successfulReports;
+        }
+
+        List<ValidationResult> getFailedAsserts()
+        {
+            return failedAsserts;
         }
     }
 
@@ -272,44 +306,20 @@ public class SchematronValidator
         //Specific logic for various MIRING errors
         try
         {
-            boolean matchFound = false;
-            NodeList ruleNodes = schematronRuleTemplate.getElementsByTagName("rule");
-            for(int i = 0; i < ruleNodes.getLength(); i++)
+            //The templates are matched to the schematron messages ahead of time, see RuleTemplates.
+            RuleTemplate template = RuleTemplates.getSchematronTemplate(errorMessage);
+            if(template == null)
             {
-                NamedNodeMap ruleAttributes = ruleNodes.item(i).getAttributes();
-
-                String templateErrorMessage = Utilities.getAttribute(ruleAttributes, "error-text");
-                
-                if(errorMessage.contains(templateErrorMessage))
-                {
-                    matchFound = true;
-                    
-                    String miringRule = Utilities.getAttribute(ruleAttributes, "miring-rule-id");
-                    String templateSeverity = Utilities.getAttribute(ruleAttributes, "severity");
-                    String templateSolution = Utilities.getAttribute(ruleAttributes, "solution-text");
-                    
-                    Severity severity = 
-                        templateSeverity.equals("fatal")?Severity.FATAL:
-                        templateSeverity.equals("miring")?Severity.MIRING:
-                        templateSeverity.equals("warning")?Severity.WARNING:
-                        templateSeverity.equals("info")?Severity.INFO:
-                        Severity.FATAL;
-                    
-                    ve =  new ValidationResult(errorMessage,severity);
-                    ve.setSolutionText(templateSolution);
-                    ve.setMiringRule(miringRule);
-                    
-                    if(locationText != null)
-                    {
-                        ve.addXPath(stripNamespace(locationText));
-                    }
-                    
-                    break;
-                }
+                throw new Exception("No Rule template found !: " + errorMessage);
             }
-            if(!matchFound)
+
+            ve =  new ValidationResult(errorMessage,template.getMiringSeverity());
+            ve.setSolutionText(template.getSolutionText());
+            ve.setMiringRule(template.getMiringRuleId());
+            
+            if(locationText != null)
             {
-                throw new Exception("No Rule template found !: " + errorMessage);
+                ve.addXPath(stripNamespace(locationText));
             }
         }
         catch(Exception e)
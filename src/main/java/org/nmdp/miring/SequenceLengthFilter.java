@@ -0,0 +1,146 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/** 
+ * SequenceLengthFilter counts the bases of each consensus-sequence-block's sequence while the document is parsed for the schematron rules.
+ * 
+ * The consensus sequences are most of the bytes in a typical HML document, and rule 4.2.3.e was the only rule that read them.
+ * This filter counts the bases as the characters go by, and doesn't pass the sequence text on.  In it's place the sequence gets one child,
+ * <sequence-length:length>, with the count.  The rule in MiringElement4.incl compares that count to end - start when it is there,
+ * and counts the text itself when it isn't, so the rule and it's message stay in the schematron either way.
+ * The schematron engine's tree never holds the sequences, and no String of a sequence is ever built.
+ * 
+ * Every SchematronEngine reads an HmlSource through this filter, unless the system property org.nmdp.miring.countSequences is false.
+*/
+public class SequenceLengthFilter extends XMLFilterImpl
+{
+    static String hmlNamespaceURI = "http://schemas.nmdp.org/spec/hml/1.0.1";
+    //The namespace of the length element, declared with the prefix sequence-length in MiringAll.sch.
+    static String lengthNamespaceURI = "http://schemas.nmdp.org/miring/sequence-length";
+    static String lengthPrefix = "sequence-length";
+    static String lengthName = "length";
+
+    //Whether each open element is a consensus-sequence-block.
+    List<Boolean> blocks = new ArrayList<Boolean>();
+    //Depth of the open elements, and the depth of the sequence we are counting.  0 when we are not in one.
+    int depth = 0;
+    int sequenceDepth = 0;
+    long sequenceLength = 0;
+
+    /**
+     * Constructor for a SequenceLengthFilter
+     *
+     * @param parent the XMLReader that parses the document.  It must be namespace aware.
+     */
+    public SequenceLengthFilter(XMLReader parent)
+    {
+        super(parent);
+    }
+
+    @Override
+    public void startDocument() throws SAXException
+    {
+        blocks.clear();
+        depth = 0;
+        sequenceDepth = 0;
+        super.startDocument();
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
+    {
+        depth++;
+        boolean hmlElement = hmlNamespaceURI.equals(uri);
+        if(sequenceDepth == 0 && hmlElement && localName.equals("sequence") && isInBlock())
+        {
+            sequenceDepth = depth;
+            sequenceLength = 0;
+        }
+        blocks.add(hmlElement && localName.equals("consensus-sequence-block"));
+        super.startElement(uri, localName, qName, attributes);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException
+    {
+        if(sequenceDepth == 0)
+        {
+            super.characters(ch, start, length);
+            return;
+        }
+        for(int i = start; i < start + length; i++)
+        {
+            char c = ch[i];
+            //XML whitespace is dropped, and a surrogate pair is one character to XPath.
+            if(c != ' ' && c != '\t' && c != '\n' && c != '\r' && !Character.isLowSurrogate(c))
+            {
+                sequenceLength++;
+            }
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException
+    {
+        if(depth == sequenceDepth)
+        {
+            writeLength();
+            sequenceDepth = 0;
+        }
+        blocks.remove(blocks.size() - 1);
+        depth--;
+        super.endElement(uri, localName, qName);
+    }
+
+    /**
+     * Pass on the <sequence-length:length> element, with the count of the sequence's bases.
+     */
+    private void writeLength() throws SAXException
+    {
+        String qName = lengthPrefix + ":" + lengthName;
+        char[] length = Long.toString(sequenceLength).toCharArray();
+        super.startPrefixMapping(lengthPrefix, lengthNamespaceURI);
+        super.startElement(lengthNamespaceURI, lengthName, qName, new AttributesImpl());
+        super.characters(length, 0, length.length);
+        super.endElement(lengthNamespaceURI, lengthName, qName);
+        super.endPrefixMapping(lengthPrefix);
+    }
+
+    /**
+     * @return true if the current element's parent is a consensus-sequence-block
+     */
+    private boolean isInBlock()
+    {
+        return blocks.size() > 0 && blocks.get(blocks.size() - 1);
+    }
+}
@@ -0,0 +1,537 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.nmdp.miring.SampleShards.Region;
+import org.nmdp.miring.SchematronValidator.SvrlContentHandler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+/** 
+ * ShardedValidator validates a multi-sample document in pieces, on a shared fork/join pool.
+ * 
+ * Almost every check is scoped to one sample, so the document is split into fragments of consecutive samples by SampleShards.
+ * Each fragment keeps the root element, hmlid, reporting-center and properties.  The fragments of a stage are validated in parallel,
+ * and their results are mapped back to the document and merged.  Results with the same rule and text are merged in the order the whole document
+ * finds them in, which is the order they keep when the results are sorted for the report.  The report is the same as the report for the whole document.
+ * 
+ * A stage is validated again as a whole document when the fragments can't be trusted to give the same results:
+ * - Results outside the samples must be the same in every fragment.  They are only reported once.
+ * - A fragment that isn't well formed stops early, the whole document might not stop in the same place.
+ * - A schematron schema that isn't marked shard safe, with shard-safe="true" on it's root element in the sharding namespace.
+ *   The mark says that every rule only looks inside of the context node's sample, so the stage is validated as a whole document without it.
+ * 
+ * The reference-sequence lookups are the exception.  SampleShards keeps every use of a reference-sequence id in one shard,
+ * so looking up a reference sequence or a consensus-sequence-block by id finds the same nodes in the fragment as in the whole document.
+ * That is true whether the lookup is a // search or one of the keys declared in MiringAll.sch.
+ * 
+ * Sharding is experimental.  It has only been compared with whole document validation for the report it gives, it has not been benchmarked on a multi-core server.
+ * Sharding is off unless the system property org.nmdp.miring.shardMinSamples is set.  Documents with at least that many samples are split.
+ * A document large enough to be spooled to disk by MappedFileHmlSource follows the same property.  When it is split,
+ * it is split into fragments of a few megabytes, so the schematron rules don't build a tree of the whole document unless the stage has to be validated as a whole.
+ * The pool has one thread per processor, unless the system property org.nmdp.miring.shardThreads says otherwise.
+ * 
+ * When the SampleResultCache is on, every document with more than one sample is split as finely as it can be, usually one sample per shard.
+ * A shard whose fragment was validated before gets it's results from the cache, so a document that is sent again with a few samples
+ * fixed only validates those samples.  The cached results go through the same remapping and merging, so the report is the same as a full run.
+*/
+public class ShardedValidator
+{
+    static Logger logger = LoggerFactory.getLogger(ShardedValidator.class);
+    //System property for the fewest samples a document needs to be split.  0 or unset turns sharding off.
+    public static final String minSamplesProperty = "org.nmdp.miring.shardMinSamples";
+    //System property for the number of fork/join threads.
+    public static final String threadsProperty = "org.nmdp.miring.shardThreads";
+    //Shards per thread, so a thread that finishes early can take another shard.
+    static final int shardsPerThread = 4;
+    //A document that was spooled to disk, and is sharded, is split into fragments of about this size, so no stage has to hold a tree of the whole document.
+    static final long spooledShardBytes = 8L * 1024 * 1024;
+    //The namespace of the shard-safe attribute on a schematron schema's root element.
+    static final String shardingNamespace = "http://schemas.nmdp.org/miring/sharding";
+    //Whether each schematron schema can be validated in fragments.  Each schema is read once.
+    private static ConcurrentMap<String, Boolean> shardSafeSchemas = new ConcurrentHashMap<String, Boolean>();
+    private static ForkJoinPool pool = null;
+
+    final ValidationContext context;
+    final SampleShards shards;
+    //The SampleResultCache and the key of each shard, or null if the results aren't cached.
+    final SampleResultCache cache;
+    final String[] shardKeys;
+
+    ShardedValidator(ValidationContext context, SampleShards shards)
+    {
+        this(context, shards, null, null);
+    }
+
+    ShardedValidator(ValidationContext context, SampleShards shards, SampleResultCache cache, String[] shardKeys)
+    {
+        this.context = context;
+        this.shards = shards;
+        this.cache = cache;
+        this.shardKeys = shardKeys;
+    }
+
+    /**
+     * Get the fork/join pool, creating it the first time it is used.
+     *
+     * @return the ForkJoinPool that validates fragments
+     */
+    static synchronized ForkJoinPool getPool()
+    {
+        if(pool == null)
+        {
+            int threads = Math.max(1, Integer.getInteger(threadsProperty, Runtime.getRuntime().availableProcessors()));
+            logger.debug("Starting a fork/join pool with " + threads + " threads for sharded validation");
+            pool = new ForkJoinPool(threads);
+        }
+        return pool;
+    }
+
+    /**
+     * Get a ShardedValidator for a document, if sharding is turned on and the document has enough samples.
+     *
+     * @param context the ValidationContext for a well formed document
+     * @return a ShardedValidator, or null if the document should be validated as a whole
+     */
+    static ShardedValidator forDocument(ValidationContext context)
+    {
+        HmlMetadata metadata = context.getMetadata();
+        if(!metadata.isWellFormed() || metadata.getSamples().length < 2)
+        {
+            return null;
+        }
+        SampleResultCache cache = SampleResultCache.getInstance();
+        if(cache.isEnabled())
+        {
+            ShardedValidator validator = forDocument(context, cache);
+            if(validator != null)
+            {
+                return validator;
+            }
+        }
+        int minSamples = Integer.getInteger(minSamplesProperty, 0);
+        if(minSamples <= 0 || metadata.getSamples().length < Math.max(2, minSamples))
+        {
+            return null;
+        }
+        int maxShards = getPool().getParallelism() * shardsPerThread;
+        if(context.getSource() instanceof MappedFileHmlSource)
+        {
+            maxShards = (int)Math.max(maxShards, context.getSource().length() / spooledShardBytes + 1);
+        }
+        return forDocument(context, maxShards);
+    }
+
+    /**
+     * Get a ShardedValidator that splits a document into single samples, and keeps their results in a SampleResultCache.
+     *
+     * @param context the ValidationContext for a well formed document
+     * @param cache the SampleResultCache
+     * @return a ShardedValidator, or null if the document can't be split
+     */
+    static ShardedValidator forDocument(ValidationContext context, SampleResultCache cache)
+    {
+        SampleShards shards = SampleShards.splitSamples(context.getSource());
+        if(shards == null)
+        {
+            return null;
+        }
+        try
+        {
+            //Every fragment has the prefix and suffix, so they are digested once.  The source's kind decides how the fragment is parsed.
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((ReportCache.getRuleSetVersion() + "\n" + context.getSource().getClass().getName() + "\n").getBytes(StandardCharsets.UTF_8));
+            shards.digestContext(digest);
+            byte[] contextDigest = digest.digest();
+            String[] shardKeys = new String[shards.getShardCount()];
+            for(int shard = 0; shard < shardKeys.length; shard++)
+            {
+                digest.update(contextDigest);
+                shards.digestShard(digest, shard);
+                shardKeys[shard] = ReportCache.toHex(digest.digest());
+            }
+            logger.debug("Validating " + shards.getSampleCount() + " samples in " + shards.getShardCount() + " cached shards");
+            return new ShardedValidator(context, shards, cache, shardKeys);
+        }
+        catch(Exception e)
+        {
+            logger.error("Can not make the sample cache keys, the samples will not be cached.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Get a ShardedValidator for a document, with a given number of shards.
+     *
+     * @param context the ValidationContext for a well formed document
+     * @param maxShards the most shards to split the document into
+     * @return a ShardedValidator, or null if the document can't be split
+     */
+    static ShardedValidator forDocument(ValidationContext context, int maxShards)
+    {
+        SampleShards shards = SampleShards.split(context.getSource(), maxShards);
+        if(shards == null)
+        {
+            return null;
+        }
+        logger.debug("Validating " + shards.getSampleCount() + " samples in " + shards.getShardCount() + " shards");
+        return new ShardedValidator(context, shards);
+    }
+
+    int getShardCount()
+    {
+        return shards.getShardCount();
+    }
+
+    /**
+     * Validate the fragments against a schema, like SchemaValidator.validate.
+     *
+     * @param schemaFileName the file name of the schema to compare against
+     * @return an array of ValidationError objects found during validation
+     */
+    public ValidationResult[] validateSchema(final String schemaFileName)
+    {
+        final ValidationResult[][] shardResults = new ValidationResult[getShardCount()][];
+        ShardWork work = new ShardWork()
+        {
+            @Override
+            void validate(int shard) throws Exception
+            {
+                String stage = "schema " + schemaFileName;
+                ValidationResult[][] cachedResults = getCachedResults(stage, shard);
+                if(cachedResults != null)
+                {
+                    shardResults[shard] = remap(cachedResults[0], shard);
+                    return;
+                }
+                //A fragment that isn't well formed would stop early, but the whole document might not stop in the same place.
+                ValidationResultCollector results = new ValidationResultCollector();
+                SchemaValidator.parse(getFragmentContext(shard), schemaFileName, results);
+                ValidationResult[] fragmentResults = results.toArray();
+                putCachedResults(stage, shard, fragmentResults);
+                shardResults[shard] = remap(fragmentResults, shard);
+            }
+        };
+
+        ValidationResult[] results = run(work) ? merge(shardResults) : null;
+        if(results == null)
+        {
+            logger.debug("The shards don't agree, validating the whole document against " + schemaFileName);
+            return SchemaValidator.validate(context, schemaFileName);
+        }
+        return results;
+    }
+
+    /**
+     * Validate the fragments against schematron rules, like SchematronValidator.validate.
+     *
+     * @param schemaFileNames an array of Strings containing the names of the schematron file resources to validate against
+     * @return an array of ValidationError objects found during validation
+     */
+    public ValidationResult[] validateSchematron(final String[] schemaFileNames)
+    {
+        for(String schemaFileName : schemaFileNames)
+        {
+            if(!isShardSafe(schemaFileName))
+            {
+                logger.debug("Validating the whole document against the schematron rules, " + schemaFileName + " isn't marked shard safe");
+                return SchematronValidator.validate(context, schemaFileNames);
+            }
+        }
+
+        final ValidationResult[][] shardReports = new ValidationResult[getShardCount()][];
+        final ValidationResult[][] shardAsserts = new ValidationResult[getShardCount()][];
+        ShardWork work = new ShardWork()
+        {
+            @Override
+            void validate(int shard) throws Exception
+            {
+                String stage = "schematron " + SchematronValidator.getEngine().getClass().getName() + " " + Arrays.toString(schemaFileNames);
+                ValidationResult[][] cachedResults = getCachedResults(stage, shard);
+                if(cachedResults != null)
+                {
+                    shardReports[shard] = remap(cachedResults[0], shard);
+                    shardAsserts[shard] = remap(cachedResults[1], shard);
+                    return;
+                }
+                HmlSource fragment = getFragmentContext(shard).getSource();
+                List<ValidationResult> reports = new ArrayList<ValidationResult>();
+                List<ValidationResult> asserts = new ArrayList<ValidationResult>();
+                for(String schemaFileName : schemaFileNames)
+                {
+                    SvrlContentHandler handler = SchematronValidator.runRules(fragment, schemaFileName, SchematronValidator.getEngine());
+                    reports.addAll(handler.getSuccessfulReports());
+                    asserts.addAll(handler.getFailedAsserts());
+                }
+                ValidationResult[] fragmentReports = reports.toArray(new ValidationResult[reports.size()]);
+                ValidationResult[] fragmentAsserts = asserts.toArray(new ValidationResult[asserts.size()]);
+                putCachedResults(stage, shard, fragmentReports, fragmentAsserts);
+                shardReports[shard] = remap(fragmentReports, shard);
+                shardAsserts[shard] = remap(fragmentAsserts, shard);
+            }
+        };
+
+        ValidationResult[] reports = null;
+        ValidationResult[] asserts = null;
+        if(run(work))
+        {
+            reports = merge(shardReports);
+            asserts = merge(shardAsserts);
+        }
+        if(reports == null || asserts == null)
+        {
+            logger.debug("Validating the whole document against the schematron rules");
+            return SchematronValidator.validate(context, schemaFileNames);
+        }
+
+        //The reports are listed first, like they are for the whole document.
+        ValidationResultCollector results = new ValidationResultCollector();
+        for(ValidationResult result : reports)
+        {
+            results.add(result);
+        }
+        for(ValidationResult result : asserts)
+        {
+            results.add(result);
+        }
+        return results.toArray();
+    }
+
+    /**
+     * Check if a schematron schema can be validated in fragments.  The schema says so itself, with shard-safe="true" on it's root element,
+     * in the sharding namespace.  The schema is read the first time this is called for it.
+     *
+     * @param schemaFileName the name of the schematron file resource
+     * @return true if the schema is marked shard safe
+     */
+    static boolean isShardSafe(String schemaFileName)
+    {
+        Boolean shardSafe = shardSafeSchemas.get(schemaFileName);
+        if(shardSafe == null)
+        {
+            shardSafe = false;
+            try
+            {
+                URL schemaFileURL = ShardedValidator.class.getResource(schemaFileName);
+                if(schemaFileURL == null)
+                {
+                    throw new Exception("Schematron resource not found: " + schemaFileName);
+                }
+                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                factory.setNamespaceAware(true);
+                Element root = factory.newDocumentBuilder().parse(schemaFileURL.toExternalForm()).getDocumentElement();
+                shardSafe = root.getAttributeNS(shardingNamespace, "shard-safe").equals("true");
+            }
+            catch(Exception e)
+            {
+                logger.error("Can not read the schematron schema " + schemaFileName + ", it will not be sharded.", e);
+            }
+            if(!shardSafe)
+            {
+                logger.debug(schemaFileName + " will not be sharded, it isn't marked shard safe.");
+            }
+            shardSafeSchemas.putIfAbsent(schemaFileName, shardSafe);
+        }
+        return shardSafe;
+    }
+
+    /**
+     * Validate every shard on the pool, and wait for them.
+     *
+     * @param work the validation for one shard
+     * @return true if every shard was validated, false if one failed
+     */
+    private boolean run(ShardWork work)
+    {
+        getPool().invoke(new ShardAction(work, 0, getShardCount()));
+        if(work.failure != null)
+        {
+            logger.debug("A shard could not be validated: " + work.failure.toString());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Build a shard's fragment.  The fragment has the same root element, namespaces and hmlid as the document, so the document's metadata is reused.
+     *
+     * @param shard the shard number
+     * @return the ValidationContext for the fragment
+     */
+    private ValidationContext getFragmentContext(int shard)
+    {
+        return new ValidationContext(shards.fragment(shard), context.getMetadata());
+    }
+
+    /**
+     * @param stage the validation stage, with everything besides the fragment that decides it's results
+     * @param shard the shard number
+     * @return the results of the shard's fragment for the stage, before they were remapped, or null if they aren't cached
+     */
+    private ValidationResult[][] getCachedResults(String stage, int shard)
+    {
+        return (cache == null) ? null : cache.get(stage + " " + shardKeys[shard]);
+    }
+
+    private void putCachedResults(String stage, int shard, ValidationResult[]... results)
+    {
+        if(cache != null)
+        {
+            cache.put(stage + " " + shardKeys[shard], results);
+        }
+    }
+
+    private ValidationResult[] remap(ValidationResult[] results, int shard)
+    {
+        for(ValidationResult result : results)
+        {
+            shards.remap(result, shard);
+        }
+        return results;
+    }
+
+    /**
+     * Merge the remapped results of every shard: the prefix, each shard's samples, then the suffix.
+     * The prefix and suffix are in every fragment, so their results are only taken once.
+     *
+     * @param shardResults the remapped results of each shard
+     * @return the merged results, or null if the shards found different results outside of the samples
+     */
+    private ValidationResult[] merge(ValidationResult[][] shardResults)
+    {
+        List<ValidationResult> prefix = new ArrayList<ValidationResult>();
+        List<ValidationResult> suffix = new ArrayList<ValidationResult>();
+        List<ValidationResult> outsideSamples = new ArrayList<ValidationResult>();
+        List<ValidationResult> merged = new ArrayList<ValidationResult>();
+        for(int shard = 0; shard < shardResults.length; shard++)
+        {
+            List<ValidationResult> shardOutsideSamples = new ArrayList<ValidationResult>();
+            for(ValidationResult result : shardResults[shard])
+            {
+                Region region = shards.getRegion(result);
+                if(region == Region.SAMPLE)
+                {
+                    merged.add(result);
+                }
+                else
+                {
+                    shardOutsideSamples.add(result);
+                    if(shard == 0)
+                    {
+                        (region == Region.PREFIX ? prefix : suffix).add(result);
+                    }
+                }
+            }
+            if(shard == 0)
+            {
+                outsideSamples = shardOutsideSamples;
+            }
+            else if(!outsideSamples.equals(shardOutsideSamples))
+            {
+                return null;
+            }
+        }
+        merged.addAll(0, prefix);
+        merged.addAll(suffix);
+
+        ValidationResultCollector results = new ValidationResultCollector();
+        for(ValidationResult result : merged)
+        {
+            results.add(result);
+        }
+        return results.toArray();
+    }
+
+    /** 
+     * The validation of one shard, for one stage.  The first exception stops the stage from using the shards.
+    */
+    private abstract class ShardWork
+    {
+        volatile Exception failure = null;
+
+        abstract void validate(int shard) throws Exception;
+
+        void validateShard(int shard)
+        {
+            if(failure != null)
+            {
+                return;
+            }
+            try
+            {
+                validate(shard);
+            }
+            catch(Exception e)
+            {
+                failure = e;
+            }
+        }
+    }
+
+    /** 
+     * Splits a range of shards in half until there is one shard left to validate.
+    */
+    private static class ShardAction extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        final ShardWork work;
+        final int from;
+        final int to;
+
+        ShardAction(ShardWork work, int from, int to)
+        {
+            this.work = work;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(to - from == 1)
+            {
+                work.validateShard(from);
+            }
+            else
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ShardAction(work, from, middle), new ShardAction(work, middle, to));
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import org.xml.sax.InputSource;
+
+/** 
+ * An HmlSource for a document that is already a String.
+ * Parsers read the characters directly.  The bytes are the document encoded as UTF-8, which is what Probatron has always validated.
+*/
+public class StringHmlSource implements HmlSource
+{
+    final String xml;
+
+    /**
+     * Constructor for a StringHmlSource
+     *
+     * @param xml a String containing the xml text.  Not null.
+     */
+    public StringHmlSource(String xml)
+    {
+        this.xml = xml;
+    }
+
+    @Override
+    public InputSource newInputSource()
+    {
+        return new InputSource(new StringReader(xml));
+    }
+
+    @Override
+    public InputStream newInputStream()
+    {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public long length()
+    {
+        return xml.length();
+    }
+
+    public String getXml()
+    {
+        return xml;
+    }
+}
@@ -64,6 +64,7 @@ import org.xml.sax.InputSource;
 public class Utilities
 {
     static Logger logger = LoggerFactory.getLogger(Utilities.class);
+    static String saxonTransformerFactory = "net.sf.saxon.TransformerFactoryImpl";
     
     /**
      * Does XML contain an error node with errNodeDescription in the text?
@@ -224,7 +225,9 @@ public class Utilities
         String xmlString = null;
         try
         {
-            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            //Probatron sets the JVM wide javax.xml.transform.TransformerFactory property to Saxon during tier 2 validation.
+            //Ask for Saxon explicitly, so the report looks the same no matter which requests ran before it.
+            Transformer transformer = TransformerFactory.newInstance(saxonTransformerFactory, Utilities.class.getClassLoader()).newTransformer();
             transformer.setOutputProperty(OutputKeys.INDENT, "yes");
             transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
 
@@ -308,6 +311,7 @@ public class Utilities
     
     /**
      * Add a ValidationError to a list of ValidationError objects.  This method disallows duplicates.
+     * It checks the whole list for a duplicate, use a ValidationResultCollector to collect many results.
      *
      * @param validationErrors A list of ValidationError objects that you would like to add to.
      * @param ve a ValidationError to add to the list.
@@ -0,0 +1,101 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+/** 
+ * ValidationContext holds everything that belongs to a single validation request: the xml document and the metadata read from it.
+ * 
+ * The validation stages keep no state of their own between calls, they read what they need from the context.
+ * Create one context per document.  A context is not meant to be shared between threads,
+ * but any number of contexts can be validated at the same time.
+*/
+public class ValidationContext
+{
+    HmlSource source;
+    HmlMetadata metadata;
+    //The rule templates are shared by every request, see RuleTemplates.
+
+    /**
+     * Constructor for a ValidationContext.  The metadata is read from the xml.
+     *
+     * @param xml a String containing the xml text
+     */
+    public ValidationContext(String xml)
+    {
+        this(xml, HmlMetadata.parse(xml));
+    }
+
+    /**
+     * Constructor for a ValidationContext, reusing metadata that has already been read.
+     *
+     * @param xml a String containing the xml text
+     * @param metadata the HmlMetadata for this xml
+     */
+    public ValidationContext(String xml, HmlMetadata metadata)
+    {
+        this(new StringHmlSource(xml), metadata);
+    }
+
+    /**
+     * Constructor for a ValidationContext, for a document that is not held as a String.  The metadata is read from the source.
+     *
+     * @param source the HmlSource for the document
+     */
+    public ValidationContext(HmlSource source)
+    {
+        this(source, HmlMetadata.parse(source));
+    }
+
+    /**
+     * Constructor for a ValidationContext, reusing metadata that has already been read.
+     *
+     * @param source the HmlSource for the document
+     * @param metadata the HmlMetadata for this document
+     */
+    public ValidationContext(HmlSource source, HmlMetadata metadata)
+    {
+        this.source = source;
+        this.metadata = metadata;
+    }
+
+    /**
+     * @return the HmlSource for the document.  Each stage reads it again from the start.
+     */
+    public HmlSource getSource()
+    {
+        return source;
+    }
+
+    public HmlMetadata getMetadata()
+    {
+        return metadata;
+    }
+
+    /**
+     * @return the prefix bound to the HML namespace in this document, or null if HML is the default namespace.
+     */
+    public String getHmlNamespace()
+    {
+        return metadata.getNamespacePrefix();
+    }
+}
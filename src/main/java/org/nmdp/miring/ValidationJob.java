@@ -0,0 +1,212 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.io.ByteArrayOutputStream;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** 
+ * A ValidationJob is one validation that runs in the background, see ValidationJobManager.
+ * 
+ * The job holds the finished report, in XML or JSON format, until it is fetched or the job expires.
+ * The document is released as soon as the validation is finished.  The job is always finished, even if the validation throws an Error
+ * like an OutOfMemoryError, so it can expire and doesn't keep the document forever.
+*/
+public class ValidationJob implements Runnable
+{
+    static Logger logger = LoggerFactory.getLogger(ValidationJob.class);
+
+    public enum State
+    {
+        //QUEUED = Waiting for a worker thread.
+        //RUNNING = Being validated, see getStage() for how far it is.
+        //DONE = The report is ready.
+        QUEUED, RUNNING, DONE
+    }
+
+    final String id;
+    final boolean json;
+    final long submittedMillis;
+    //The fields below are written by the worker thread and read by the threads polling the job.
+    volatile MiringValidator validator;
+    volatile State state;
+    volatile MiringValidator.Stage finalStage;
+    volatile long startedMillis;
+    volatile long finishedMillis;
+    volatile byte[] report;
+
+    /**
+     * Constructor for a ValidationJob
+     *
+     * @param validator the MiringValidator for the document
+     * @param json true to write the report in JSON format, false for XML
+     */
+    public ValidationJob(MiringValidator validator, boolean json)
+    {
+        this.id = UUID.randomUUID().toString();
+        this.validator = validator;
+        this.json = json;
+        this.state = State.QUEUED;
+        this.submittedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Validate the document and keep the report.
+     */
+    @Override
+    public void run()
+    {
+        startedMillis = System.currentTimeMillis();
+        state = State.RUNNING;
+        MiringValidator currentValidator = validator;
+        ByteArrayOutputStream reportStream = new ByteArrayOutputStream();
+        try
+        {
+            writeReport(currentValidator, reportStream);
+        }
+        catch(Throwable e)
+        {
+            logger.error("Exception in validation job " + id, e);
+            //Let go of the partial report first, the failure might have been running out of memory.
+            reportStream = new ByteArrayOutputStream();
+            try
+            {
+                currentValidator.releaseDocument();
+                currentValidator = MiringValidator.failedValidator(e);
+                //The failed validator's results are written as they are, validating it would replace them.
+                if(json)
+                {
+                    JsonReportGenerator.writeReport(currentValidator.reportResults, null, null, null, null, 0, reportStream);
+                }
+                else
+                {
+                    ReportGenerator.writeReport(currentValidator.reportResults, null, null, null, null, 0, reportStream);
+                }
+            }
+            catch(Throwable reportException)
+            {
+                logger.error("Could not write the report for validation job " + id, reportException);
+            }
+        }
+        finally
+        {
+            report = reportStream.toByteArray();
+            finishedMillis = System.currentTimeMillis();
+            //The report is ready, whether the validation finished or failed.
+            finalStage = MiringValidator.Stage.DONE;
+            //Only the report is kept.  A thread that is still asking the validator for it's stage doesn't keep the document either.
+            currentValidator.releaseDocument();
+            validator = null;
+            state = State.DONE;
+        }
+    }
+
+    private void writeReport(MiringValidator currentValidator, ByteArrayOutputStream reportStream) throws Exception
+    {
+        if(json)
+        {
+            currentValidator.validateJson(reportStream);
+        }
+        else
+        {
+            currentValidator.validate(reportStream);
+        }
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public State getState()
+    {
+        return state;
+    }
+
+    /**
+     * @return the stage the validation is in.  NOT_STARTED while the job is queued, and DONE when the report is ready.
+     */
+    public MiringValidator.Stage getStage()
+    {
+        MiringValidator currentValidator = validator;
+        if(currentValidator != null)
+        {
+            return currentValidator.getStage();
+        }
+        return (finalStage == null) ? MiringValidator.Stage.DONE : finalStage;
+    }
+
+    /**
+     * @return true if the report is in JSON format, false if it is XML
+     */
+    public boolean isJson()
+    {
+        return json;
+    }
+
+    /**
+     * @return the report, or null if the job isn't done yet
+     */
+    public byte[] getReport()
+    {
+        return (state == State.DONE) ? report : null;
+    }
+
+    public long getSubmittedMillis()
+    {
+        return submittedMillis;
+    }
+
+    /**
+     * @return how long the job has been running, or how long it ran if it is done.  0 if it is queued.
+     */
+    public long getElapsedMillis()
+    {
+        if(state == State.QUEUED)
+        {
+            return 0;
+        }
+        return ((state == State.DONE) ? finishedMillis : System.currentTimeMillis()) - startedMillis;
+    }
+
+    /**
+     * @return the time the job finished, or 0 if it isn't done yet
+     */
+    long getFinishedMillis()
+    {
+        return (state == State.DONE) ? finishedMillis : 0;
+    }
+
+    /**
+     * @param nowMillis the current time
+     * @param retentionMillis how long a finished job is kept
+     * @return true if the job finished more than retentionMillis ago
+     */
+    boolean isExpired(long nowMillis, long retentionMillis)
+    {
+        return state == State.DONE && nowMillis - finishedMillis > retentionMillis;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** 
+ * This class runs ValidationJobs in the background, so large documents don't tie up a request thread while they are validated.
+ * 
+ * The jobs run on a fixed number of worker threads, and only a limited number of jobs can wait for a worker.
+ * When the queue is full, new jobs are rejected, instead of piling up large documents in memory.
+ * Finished jobs are kept until their report has been around for the retention time, or until the reports of the finished jobs
+ * add up to more than org.nmdp.miring.jobReportMegabytes.  Then the jobs that finished first are forgotten first.
+ * The sizes come from the system properties org.nmdp.miring.jobThreads, org.nmdp.miring.jobQueueDepth and org.nmdp.miring.jobRetentionMinutes.
+*/
+public class ValidationJobManager
+{
+    static Logger logger = LoggerFactory.getLogger(ValidationJobManager.class);
+    public static final String threadsProperty = "org.nmdp.miring.jobThreads";
+    public static final String queueDepthProperty = "org.nmdp.miring.jobQueueDepth";
+    public static final String retentionProperty = "org.nmdp.miring.jobRetentionMinutes";
+    public static final String reportMegabytesProperty = "org.nmdp.miring.jobReportMegabytes";
+    private static ValidationJobManager instance = null;
+
+    final ThreadPoolExecutor executor;
+    final ConcurrentMap<String, ValidationJob> jobs = new ConcurrentHashMap<String, ValidationJob>();
+    final long retentionMillis;
+    final long maxReportBytes;
+
+    /**
+     * Constructor for a ValidationJobManager
+     *
+     * @param threads the number of jobs that run at the same time
+     * @param queueDepth the number of jobs that can wait for a thread
+     * @param retentionMillis how long a finished job is kept, in milliseconds
+     */
+    ValidationJobManager(int threads, int queueDepth, long retentionMillis)
+    {
+        this(threads, queueDepth, retentionMillis, 256L * 1024 * 1024);
+    }
+
+    /**
+     * Constructor for a ValidationJobManager
+     *
+     * @param threads the number of jobs that run at the same time
+     * @param queueDepth the number of jobs that can wait for a thread
+     * @param retentionMillis how long a finished job is kept, in milliseconds
+     * @param maxReportBytes the most bytes the reports of the finished jobs can add up to
+     */
+    ValidationJobManager(int threads, int queueDepth, long retentionMillis, long maxReportBytes)
+    {
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(queueDepth), new DaemonThreadFactory("miring-job-"));
+        this.retentionMillis = retentionMillis;
+        this.maxReportBytes = maxReportBytes;
+    }
+
+    /**
+     * Get the ValidationJobManager that the web service uses, creating it the first time.
+     *
+     * @return the shared ValidationJobManager
+     */
+    public static synchronized ValidationJobManager getInstance()
+    {
+        if(instance == null)
+        {
+            int threads = Math.max(1, Integer.getInteger(threadsProperty, 2));
+            int queueDepth = Math.max(1, Integer.getInteger(queueDepthProperty, 20));
+            long retentionMinutes = Math.max(1, Integer.getInteger(retentionProperty, 60));
+            long reportMegabytes = Math.max(1, Integer.getInteger(reportMegabytesProperty, 256));
+            logger.debug("Starting " + threads + " validation job threads, with a queue of " + queueDepth);
+            instance = new ValidationJobManager(threads, queueDepth, TimeUnit.MINUTES.toMillis(retentionMinutes), reportMegabytes * 1024 * 1024);
+        }
+        return instance;
+    }
+
+    /**
+     * Start a validation job.
+     *
+     * @param validator the MiringValidator for the document
+     * @param json true to write the report in JSON format, false for XML
+     * @return the ValidationJob, which is queued or already running
+     * @throws RejectedExecutionException if too many jobs are waiting already
+     */
+    public ValidationJob submit(MiringValidator validator, boolean json)
+    {
+        removeExpiredJobs();
+        ValidationJob job = new ValidationJob(validator, json);
+        jobs.put(job.getId(), job);
+        try
+        {
+            executor.execute(job);
+        }
+        catch(RejectedExecutionException e)
+        {
+            jobs.remove(job.getId());
+            logger.error("Validation job rejected, " + executor.getQueue().size() + " jobs are queued.");
+            throw e;
+        }
+        return job;
+    }
+
+    /**
+     * @param id the id of a job
+     * @return the ValidationJob, or null if there is no job with that id, or it has expired
+     */
+    public ValidationJob getJob(String id)
+    {
+        removeExpiredJobs();
+        return (id == null) ? null : jobs.get(id);
+    }
+
+    /**
+     * Forget the jobs whose reports have been kept longer than the retention time,
+     * and then the jobs that finished first, until the reports fit in maxReportBytes.
+     */
+    void removeExpiredJobs()
+    {
+        long now = System.currentTimeMillis();
+        long reportBytes = 0;
+        List<ValidationJob> finishedJobs = new ArrayList<ValidationJob>();
+        Iterator<ValidationJob> it = jobs.values().iterator();
+        while(it.hasNext())
+        {
+            ValidationJob job = it.next();
+            if(job.isExpired(now, retentionMillis))
+            {
+                it.remove();
+            }
+            else if(job.getReport() != null)
+            {
+                finishedJobs.add(job);
+                reportBytes += job.getReport().length;
+            }
+        }
+        if(reportBytes <= maxReportBytes)
+        {
+            return;
+        }
+        Collections.sort(finishedJobs, new Comparator<ValidationJob>()
+        {
+            @Override
+            public int compare(ValidationJob job1, ValidationJob job2)
+            {
+                return Long.compare(job1.getFinishedMillis(), job2.getFinishedMillis());
+            }
+        });
+        //The last job to finish is kept, so a report bigger than the limit can still be fetched once.
+        for(int i = 0; i < finishedJobs.size() - 1 && reportBytes > maxReportBytes; i++)
+        {
+            ValidationJob job = finishedJobs.get(i);
+            logger.debug("Forgetting validation job " + job.getId() + ", the finished jobs' reports are over " + maxReportBytes + " bytes");
+            jobs.remove(job.getId());
+            reportBytes -= job.getReport().length;
+        }
+    }
+}
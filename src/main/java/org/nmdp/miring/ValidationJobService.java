@@ -0,0 +1,197 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import org.nmdp.miring.MappedFileHmlSource.DocumentTooLargeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.FormParam;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+
+/** 
+ * This class provides a REST service to validate large documents in the background.
+ * 
+ * POST a document the same way as to MiringValidatorService, as a form parameter called xml or as an xml body.
+ * The response is 202 Accepted, with the job's status and a Location header for the job.
+ * GET the job for it's status, which says which stage the validation is in.  GET the job's report once it is done.
+ * The report is XML, unless the Accept header prefers application/json when the job is submitted.
+ * If too many jobs are waiting, the POST gets 503 Service Unavailable.
+*/
+
+@Path("/ValidateMiringJobs")
+public class ValidationJobService
+{
+    Logger logger = LoggerFactory.getLogger(ValidationJobService.class);
+    //Seconds a client should wait before trying a rejected job again.
+    static final int retryAfterSeconds = 60;
+
+    /**
+     * Submit a validation job for a document sent as a form parameter.
+     *
+     * @param xml this method accepts a Form Parameter "xml" containing the xml text
+     * @param headers the request headers, used to choose between an XML and a JSON report
+     * @param uriInfo the request URI, used to build the job's location
+     * @return a 202 Response with the job status, or 503 if the job queue is full
+     */
+    @POST
+    @Produces({"application/xml", "application/json"})
+    public Response submitJob(@FormParam("xml") String xml, @Context HttpHeaders headers, @Context UriInfo uriInfo)
+    {
+        logger.debug( "Received Miring Validation job.");
+        return submit(new MiringValidator(xml), MiringValidatorService.prefersJson(headers), uriInfo);
+    }
+
+    /**
+     * Submit a validation job for a document sent as the request body.
+     *
+     * @param body the request body, containing the xml document
+     * @param headers the request headers, used to choose between an XML and a JSON report
+     * @param uriInfo the request URI, used to build the job's location
+     * @return a 202 Response with the job status, 413 if the document is too large, or 503 if the job queue is full
+     * @throws IOException if the request body can not be read
+     */
+    @POST
+    @Consumes({"application/xml", "text/xml"})
+    @Produces({"application/xml", "application/json"})
+    public Response submitJobXml(InputStream body, @Context HttpHeaders headers, @Context UriInfo uriInfo) throws IOException
+    {
+        logger.debug( "Received Miring Validation job with an xml body.");
+        HmlSource source;
+        try
+        {
+            source = MappedFileHmlSource.read(body);
+        }
+        catch(DocumentTooLargeException e)
+        {
+            logger.debug("Rejected a validation job: " + e.getMessage());
+            return MiringValidatorService.tooLarge(e.getMessage());
+        }
+        return submit(new MiringValidator(source), MiringValidatorService.prefersJson(headers), uriInfo);
+    }
+
+    /**
+     * Get the status of a validation job.
+     *
+     * @param id the job id
+     * @param headers the request headers, used to choose between an XML and a JSON status
+     * @return the job status, or 404 if there is no such job
+     */
+    @GET
+    @Path("{id}")
+    @Produces({"application/xml", "application/json"})
+    public Response getJobStatus(@PathParam("id") String id, @Context HttpHeaders headers)
+    {
+        ValidationJob job = ValidationJobManager.getInstance().getJob(id);
+        if(job == null)
+        {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return statusResponse(job, MiringValidatorService.prefersJson(headers), Response.Status.OK);
+    }
+
+    /**
+     * Get the MIRING Results Report of a validation job.
+     *
+     * @param id the job id
+     * @return the report in the format chosen when the job was submitted, 202 with the job status if it isn't done yet, or 404 if there is no such job
+     */
+    @GET
+    @Path("{id}/report")
+    @Produces({"application/xml", "application/json"})
+    public Response getJobReport(@PathParam("id") String id)
+    {
+        ValidationJob job = ValidationJobManager.getInstance().getJob(id);
+        if(job == null)
+        {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        byte[] report = job.getReport();
+        if(report == null)
+        {
+            return statusResponse(job, job.isJson(), Response.Status.ACCEPTED);
+        }
+        return Response.ok(report, mediaType(job.isJson())).build();
+    }
+
+    private Response submit(MiringValidator validator, boolean json, UriInfo uriInfo)
+    {
+        try
+        {
+            ValidationJob job = ValidationJobManager.getInstance().submit(validator, json);
+            logger.debug("Submitted validation job " + job.getId());
+            return Response.fromResponse(statusResponse(job, json, Response.Status.ACCEPTED))
+                .location(uriInfo.getAbsolutePathBuilder().path(job.getId()).build())
+                .build();
+        }
+        catch(RejectedExecutionException e)
+        {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", "" + retryAfterSeconds)
+                .type(MediaType.TEXT_PLAIN_TYPE)
+                .entity("Too many validation jobs are waiting.  Try again later.")
+                .build();
+        }
+    }
+
+    private static Response statusResponse(final ValidationJob job, final boolean json, Response.Status status)
+    {
+        StreamingOutput output = new StreamingOutput()
+        {
+            @Override
+            public void write(OutputStream outputStream) throws IOException
+            {
+                if(json)
+                {
+                    JsonReportGenerator.writeJobStatus(job, outputStream);
+                }
+                else
+                {
+                    ReportGenerator.writeJobStatus(job, outputStream);
+                }
+            }
+        };
+        return Response.status(status).entity(output).type(mediaType(json)).build();
+    }
+
+    private static MediaType mediaType(boolean json)
+    {
+        return json ? MediaType.APPLICATION_JSON_TYPE : MediaType.APPLICATION_XML_TYPE;
+    }
+}
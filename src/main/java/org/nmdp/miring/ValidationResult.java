@@ -24,6 +24,7 @@ package org.nmdp.miring;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 /** 
  * A simple class for storing a Validation Result.  They are sorted by MIRING Rule ID.
@@ -61,24 +62,50 @@ public class ValidationResult implements Comparable<ValidationResult>
         this.miringRule = "";
     }
     
+    /**
+     * Copy constructor for a ValidationResult.  The copy has it's own list of xpaths, so either one can be changed.
+     *
+     * @param other the ValidationResult to copy
+     */
+    public ValidationResult(ValidationResult other)
+    {
+        this.errorText = other.errorText;
+        this.solutionText = other.solutionText;
+        this.miringRule = other.miringRule;
+        this.sampleID = other.sampleID;
+        this.xPaths = new ArrayList<String>(other.xPaths);
+        this.severity = other.severity;
+    }
+    
+    /**
+     * Two results are equal if they have the same text, severity, solution, xpaths and rule.  The sample id isn't compared.
+     */
     @Override
     public boolean equals(Object otherObject) 
     {
-        ValidationResult otherError = (ValidationResult) otherObject;
-        if(
-            this.errorText.equals(otherError.errorText)
-            && this.severity == otherError.severity
-            && this.solutionText.equals(otherError.solutionText)
-            && this.xPaths.equals(otherError.xPaths)
-            && this.miringRule.equals(otherError.miringRule)
-        )
+        if(this == otherObject)
         {
             return true;
         }
-        else
+        if(!(otherObject instanceof ValidationResult))
         {
             return false;
         }
+        ValidationResult otherError = (ValidationResult) otherObject;
+        return Objects.equals(this.errorText, otherError.errorText)
+            && this.severity == otherError.severity
+            && Objects.equals(this.solutionText, otherError.solutionText)
+            && Objects.equals(this.xPaths, otherError.xPaths)
+            && Objects.equals(this.miringRule, otherError.miringRule);
+    }
+
+    /**
+     * The hash code uses the same fields as equals, so it changes if the result is changed.
+     */
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(errorText, severity, solutionText, xPaths, miringRule);
     }
     
     @Override
@@ -0,0 +1,102 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** 
+ * ValidationResultCollector collects the ValidationResults of a validation stage, without duplicates.
+ * 
+ * The results are kept in a LinkedHashSet, so checking for a duplicate is a hash lookup and the results keep the order they were found in.
+ * A result's hashCode depends on it's text, severity, solution, xpaths and rule, so don't change a result after it is added.
+*/
+public class ValidationResultCollector
+{
+    static Logger logger = LoggerFactory.getLogger(ValidationResultCollector.class);
+    Set<ValidationResult> results = new LinkedHashSet<ValidationResult>();
+
+    /**
+     * Add a ValidationResult, unless an equal one has already been added.
+     *
+     * @param validationResult the ValidationResult to add
+     * @return true if the result was added, false if it is a duplicate
+     */
+    public boolean add(ValidationResult validationResult)
+    {
+        //Don't add duplicate errors, they don't help.
+        if(results.add(validationResult))
+        {
+            return true;
+        }
+        logger.debug("This validation error is a duplicate, not adding it to the list.");
+        return false;
+    }
+
+    public int size()
+    {
+        return results.size();
+    }
+
+    /**
+     * @return an array of the results, in the order they were added.  Empty, not null, if there are none.
+     */
+    public ValidationResult[] toArray()
+    {
+        return results.toArray(new ValidationResult[results.size()]);
+    }
+
+    /**
+     * Merge the results of several validation stages into one array, sorted by Miring Rule ID.
+     * The arrays are copied once and sorted once.  The sort is stable, so results with the same rule and text keep their order.
+     *
+     * @param resultArrays arrays of ValidationResult objects.  A null array is skipped.
+     * @return a new sorted array containing all of the results
+     */
+    public static ValidationResult[] merge(ValidationResult[]... resultArrays)
+    {
+        int length = 0;
+        for(ValidationResult[] resultArray : resultArrays)
+        {
+            length += (resultArray == null) ? 0 : resultArray.length;
+        }
+
+        ValidationResult[] mergedResults = new ValidationResult[length];
+        int position = 0;
+        for(ValidationResult[] resultArray : resultArrays)
+        {
+            if(resultArray != null)
+            {
+                System.arraycopy(resultArray, 0, mergedResults, position, resultArray.length);
+                position += resultArray.length;
+            }
+        }
+        //ValidationError objects are sorted by their Miring Rule IDs
+        Arrays.sort(mergedResults);
+        return mergedResults;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** 
+ * XPathTracker follows the position of a SAX parser in an XML document, so an Xpath can be generated for the current element.
+ * 
+ * Only the open elements are kept, on a stack.  Each open element counts it's children by name, so the index of a new child is a single lookup.
+ * When an element is closed it's frame and counters are dropped.  The root element is never closed,
+ * so errors reported after the end of the document still point at the root.
+ * 
+ * The Xpath is only built when something asks for it.
+*/
+public class XPathTracker
+{
+    List<Frame> openElements = new ArrayList<Frame>();
+
+    /**
+     * Track the start of an element.  The first element is the root.
+     *
+     * @param nodeName the local name of the element
+     */
+    public void startElement(String nodeName)
+    {
+        int nodeIndex = openElements.isEmpty() ? 1 : getCurrentFrame().addChild(nodeName);
+        openElements.add(new Frame(nodeName, nodeIndex));
+    }
+
+    /**
+     * Track the end of an element.  The root element stays open.
+     */
+    public void endElement()
+    {
+        if(openElements.size() > 1)
+        {
+            openElements.remove(openElements.size() - 1);
+        }
+    }
+
+    /**
+     * @return the name of the current element
+     */
+    public String getCurrentNodeName()
+    {
+        return getCurrentFrame().nodeName;
+    }
+
+    /**
+     * Generate an Xpath for the current element, like /hml[1]/sample[2]/typing[1]
+     *
+     * @return an xPath specifying the location of the current element
+     */
+    public String generateXpath()
+    {
+        if(openElements.isEmpty())
+        {
+            throw new IllegalStateException("No element has been started.");
+        }
+        StringBuilder xPath = new StringBuilder();
+        for(Frame frame : openElements)
+        {
+            xPath.append('/').append(frame.nodeName).append('[').append(frame.nodeIndex).append(']');
+        }
+        return xPath.toString();
+    }
+
+    /**
+     * Generate an Xpath for the next child of the current element with the name childName.
+     * 
+     * Missing attribute errors are reported before startElement is called for the element, so this is where that element will be.
+     *
+     * @param childName a child element's name
+     * @return an xPath specifying the location of the next child
+     */
+    public String generateNextChildXpath(String childName)
+    {
+        return generateXpath() + "/" + childName + "[" + (getCurrentFrame().getChildCount(childName) + 1) + "]";
+    }
+
+    /**
+     * Forget the document, so the tracker can be used again.
+     */
+    public void clear()
+    {
+        openElements.clear();
+    }
+
+    private Frame getCurrentFrame()
+    {
+        if(openElements.isEmpty())
+        {
+            throw new IllegalStateException("No element has been started.");
+        }
+        return openElements.get(openElements.size() - 1);
+    }
+
+    /** 
+     * An open element, and how many children it has seen with each name.
+    */
+    private static class Frame
+    {
+        final String nodeName;
+        final int nodeIndex;
+        Map<String, Integer> childCounts = null;
+
+        Frame(String nodeName, int nodeIndex)
+        {
+            this.nodeName = nodeName;
+            this.nodeIndex = nodeIndex;
+        }
+
+        /**
+         * Count a new child.
+         *
+         * @param childName the child element's name
+         * @return the 1-based index of the new child among the children with the same name
+         */
+        int addChild(String childName)
+        {
+            if(childCounts == null)
+            {
+                childCounts = new HashMap<String, Integer>();
+            }
+            int childIndex = getChildCount(childName) + 1;
+            childCounts.put(childName, childIndex);
+            return childIndex;
+        }
+
+        int getChildCount(String childName)
+        {
+            Integer childCount = (childCounts == null) ? null : childCounts.get(childName);
+            return (childCount == null) ? 0 : childCount;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class BatchValidatorTest
+{
+    Logger logger = LoggerFactory.getLogger(BatchValidatorTest.class);
+
+    String[] documentNames = new String[]
+    {
+        "/org/nmdp/miring/hml/demogood.xml",
+        "/org/nmdp/miring/hml/demobad.xml",
+        "/org/nmdp/miring/hml/Element1.no.hmlid.xml",
+        "/org/nmdp/miring/hml/invalid.prolog.xml.txt"
+    };
+
+    @Test
+    public void testBatchValidator() throws Exception
+    {
+        logger.debug("starting testBatchValidator");
+
+        HmlSource[] documents = new HmlSource[documentNames.length];
+        String[] serialMiringCompliance = new String[documentNames.length];
+        for(int i = 0; i < documentNames.length; i++)
+        {
+            String xml = Utilities.readXmlResource(documentNames[i]);
+            documents[i] = new StringHmlSource(xml);
+            serialMiringCompliance[i] = getMiringCompliant(new MiringValidator(xml).validate());
+        }
+
+        BatchResult[] batchResults = BatchValidator.validate(documentNames, documents);
+        assertEquals(documentNames.length, batchResults.length);
+        for(int i = 0; i < batchResults.length; i++)
+        {
+            //The results come back in the order the documents were submitted.
+            assertEquals(documentNames[i], batchResults[i].getName());
+            assertEquals(serialMiringCompliance[i], batchResults[i].getMiringCompliance());
+            assertTrue(batchResults[i].getElapsedMillis() >= 0);
+            //The documents are released as soon as they are validated, the reports below don't need them.
+            assertNull(batchResults[i].getValidator().source);
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReportGenerator.writeBatchReport(batchResults, outputStream);
+        Element rootElement = Utilities.xmlToRootElement(outputStream.toString("UTF-8"));
+        assertEquals("miring-batch-report", rootElement.getNodeName());
+        assertEquals("" + documentNames.length, rootElement.getAttribute("document-count"));
+        NodeList summaries = rootElement.getElementsByTagName("document");
+        NodeList reports = rootElement.getElementsByTagName("miring-report");
+        assertEquals(documentNames.length, summaries.getLength());
+        assertEquals(documentNames.length, reports.getLength());
+        for(int i = 0; i < documentNames.length; i++)
+        {
+            Element summary = (Element)summaries.item(i);
+            assertEquals(documentNames[i], summary.getAttribute("name"));
+            assertEquals(serialMiringCompliance[i], summary.getAttribute("miring-compliant"));
+            assertEquals(serialMiringCompliance[i], ((Element)reports.item(i)).getElementsByTagName("miring-compliant").item(0).getTextContent());
+        }
+
+        outputStream = new ByteArrayOutputStream();
+        JsonReportGenerator.writeBatchReport(batchResults, outputStream);
+        JSONObject jsonReport = new JSONObject(outputStream.toString("UTF-8"));
+        assertEquals(documentNames.length, jsonReport.getInt("document-count"));
+        assertEquals(documentNames.length, jsonReport.getJSONArray("miring-report").length());
+        assertEquals(documentNames[1], jsonReport.getJSONObject("batch-summary").getJSONArray("document").getJSONObject(1).getString("name"));
+    }
+
+    @Test
+    public void testBatchLimit() throws Exception
+    {
+        logger.debug("starting testBatchLimit");
+
+        byte[] xml = Utilities.readXmlResource(documentNames[0]).getBytes("UTF-8");
+        MiringBatchValidatorService.LimitedInputStream partStream = new MiringBatchValidatorService.LimitedInputStream(new ByteArrayInputStream(xml), xml.length);
+        assertEquals(xml.length, MappedFileHmlSource.read(partStream).length());
+        assertEquals(xml.length, partStream.bytesRead);
+
+        //One byte short, the part is rejected while it is read.
+        try
+        {
+            MappedFileHmlSource.read(new MiringBatchValidatorService.LimitedInputStream(new ByteArrayInputStream(xml), xml.length - 1));
+            fail("The part is larger than the limit");
+        }
+        catch(MiringBatchValidatorService.BatchTooLargeException e)
+        {
+            logger.debug("The part was rejected");
+        }
+    }
+
+    private String getMiringCompliant(String report)
+    {
+        return Utilities.xmlToRootElement(report).getElementsByTagName("miring-compliant").item(0).getTextContent();
+    }
+}
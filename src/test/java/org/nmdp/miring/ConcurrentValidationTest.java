@@ -0,0 +1,109 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+
+public class ConcurrentValidationTest
+{
+    Logger logger = LoggerFactory.getLogger(ConcurrentValidationTest.class);
+
+    //A mix of documents that stop at HML validation, tier 1, and tier 2, in both namespace styles.
+    String[] documentNames = new String[]
+    {
+        "/org/nmdp/miring/hml/demogood.xml",
+        "/org/nmdp/miring/hml/demobad.xml",
+        "/org/nmdp/miring/hml/HMLWithCustomNamespace.xml",
+        "/org/nmdp/miring/hml/Element1.no.hmlid.xml",
+        "/org/nmdp/miring/hml/Element2.refsequence.nomatch.csb.xml",
+        "/org/nmdp/miring/hml/Element4.CSB.bad.startend.xml",
+        "/org/nmdp/miring/hml/invalid.prolog.xml.txt"
+    };
+    int copies = 3;
+
+    @Test
+    public void testConcurrentReportsMatchSerialReports() throws Exception
+    {
+        logger.debug("starting testConcurrentReportsMatchSerialReports");
+
+        String[] documents = new String[documentNames.length];
+        String[] serialReports = new String[documentNames.length];
+        for(int i = 0; i < documentNames.length; i++)
+        {
+            documents[i] = Utilities.readXmlResource(documentNames[i]);
+            serialReports[i] = validate(documents[i]);
+            assertNotNull(serialReports[i]);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<String>> futures = new ArrayList<Future<String>>();
+            for(int copy = 0; copy < copies; copy++)
+            {
+                for(int i = 0; i < documents.length; i++)
+                {
+                    final String xml = documents[i];
+                    futures.add(executor.submit(new Callable<String>()
+                    {
+                        @Override
+                        public String call()
+                        {
+                            return validate(xml);
+                        }
+                    }));
+                }
+            }
+
+            for(int i = 0; i < futures.size(); i++)
+            {
+                int documentIndex = i % documents.length;
+                assertEquals("Report differs for " + documentNames[documentIndex], serialReports[documentIndex], futures.get(i).get());
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Validate a document, and blank out the timestamp so reports can be compared.
+     */
+    private String validate(String xml)
+    {
+        String report = new MiringValidator(xml).validate();
+        return (report == null) ? null : report.replaceAll("timestamp=\"[^\"]*\"", "timestamp=\"\"");
+    }
+}
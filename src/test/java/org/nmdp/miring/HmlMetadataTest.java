@@ -0,0 +1,87 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class HmlMetadataTest
+{
+    Logger logger = LoggerFactory.getLogger(HmlMetadataTest.class);
+
+    @Test
+    public void testDefaultNamespace()
+    {
+        logger.debug("starting testDefaultNamespace");
+
+        HmlMetadata metadata = HmlMetadata.parse(Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml"));
+
+        assertTrue(metadata.isWellFormed());
+        assertEquals("1.0.1", metadata.getVersion());
+        assertNull(metadata.getNamespacePrefix());
+        assertEquals("1234", metadata.getHmlIdRoot());
+        assertEquals("abcd", metadata.getHmlIdExtension());
+
+        Sample[] samples = metadata.getSamples();
+        assertEquals(1, samples.length);
+        assertEquals("123456789", samples[0].id);
+        assertEquals("321", samples[0].centerCode);
+    }
+
+    @Test
+    public void testCustomNamespace()
+    {
+        logger.debug("starting testCustomNamespace");
+
+        HmlMetadata metadata = HmlMetadata.parse(Utilities.readXmlResource("/org/nmdp/miring/hml/HMLWithCustomNamespace.xml"));
+
+        assertEquals("ns2", metadata.getNamespacePrefix());
+        assertEquals("2.16.840", metadata.getHmlIdRoot());
+        assertEquals("20150220", metadata.getHmlIdExtension());
+
+        HashMap<String, String> properties = metadata.getProperties();
+        assertEquals(2, properties.size());
+        assertEquals("Property1Value", properties.get("Property1"));
+        assertEquals("Property2Value", properties.get("Property2"));
+
+        assertEquals("1244-444-7", metadata.getSamples()[0].id);
+    }
+
+    @Test
+    public void testMalformedDocument()
+    {
+        logger.debug("starting testMalformedDocument");
+
+        HmlMetadata metadata = HmlMetadata.parse(Utilities.readXmlResource("/org/nmdp/miring/hml/invalid.prolog.xml.txt"));
+
+        assertFalse(metadata.isWellFormed());
+        assertEquals("1.0.1", metadata.getVersion());
+        assertNull(metadata.getHmlIdRoot());
+        assertEquals(0, metadata.getSamples().length);
+    }
+}
@@ -25,6 +25,7 @@ package org.nmdp.miring;
 import static org.junit.Assert.*;
 import org.nmdp.miring.MiringValidator;
 import org.nmdp.miring.Utilities;
+import org.nmdp.miring.ValidationResult.Severity;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -240,4 +241,40 @@ public class MiringTier2Test
         results = new MiringValidator(xml).validate();
         assertTrue(Utilities.containsErrorNode(results, "The variant nodes under a single consensus-sequence-block must have id attributes that are integers ranging from 0:n-1, where n is the number of variants"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSequenceLengthTemplate()
+    {
+        logger.debug("starting testSequenceLengthTemplate");
+
+        //4.2.3.e is a schematron rule like the others, whether the SequenceLengthFilter counts the sequences or the rule does.
+        String xml = Utilities.readXmlResource("/org/nmdp/miring/hml/Element4.CSB.bad.sequencelength.xml");
+        String[] schematronFiles = new String[] {"/org/nmdp/miring/schematron/MiringAll.sch"};
+        ValidationResult countedResult = findResult(SchematronValidator.validate(xml, schematronFiles), "4.2.3.e");
+        System.setProperty(SchematronEngine.countSequencesProperty, "false");
+        try
+        {
+            assertEquals(countedResult, findResult(SchematronValidator.validate(xml, schematronFiles), "4.2.3.e"));
+        }
+        finally
+        {
+            System.clearProperty(SchematronEngine.countSequencesProperty);
+        }
+        assertEquals(Severity.MIRING, countedResult.getSeverity());
+        assertEquals("Please check the sequence length against the start and end attributes.", countedResult.getSolutionText());
+        assertTrue(countedResult.getXPaths().get(0).endsWith("/consensus-sequence-block[1]/sequence[1]"));
+    }
+
+    private ValidationResult findResult(ValidationResult[] results, String miringRule)
+    {
+        for(ValidationResult result : results)
+        {
+            if(miringRule.equals(result.getMiringRule()))
+            {
+                return result;
+            }
+        }
+        fail("No result for rule " + miringRule);
+        return null;
+    }
+}
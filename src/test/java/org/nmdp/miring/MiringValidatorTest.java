@@ -23,6 +23,13 @@
 package org.nmdp.miring;
 
 import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
 import org.nmdp.miring.MiringValidator;
 import org.nmdp.miring.Utilities;
 
@@ -55,4 +62,96 @@ public class MiringValidatorTest
         assertFalse(Utilities.containsErrorNode(goodValidatorResults, "The node variant is missing a quality-score attribute."));
         assertTrue(Utilities.containsErrorNode(badValidatorResults, "The node variant is missing a quality-score attribute."));
     }
+
+    @Test
+    public void testByteArrayHmlSource() throws Exception
+    {
+        logger.debug("starting testByteArrayHmlSource");
+
+        String demoBadXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demobad.xml");
+        String stringResults = new MiringValidator(demoBadXML).validate();
+
+        //The raw bytes of a request body give the same report as the decoded String.
+        ByteArrayHmlSource source = new ByteArrayHmlSource(demoBadXML.getBytes(StandardCharsets.UTF_8));
+        String byteResults = new MiringValidator(source).validate();
+        assertEquals(stringResults.replaceAll("timestamp=\"[^\"]*\"", ""), byteResults.replaceAll("timestamp=\"[^\"]*\"", ""));
+
+        ByteArrayHmlSource empty = new ByteArrayHmlSource(new byte[0]);
+        assertEquals(0, empty.length());
+        assertTrue(Utilities.containsErrorNode(new MiringValidator(empty).validate(), "XML is null or length 0."));
+    }
+
+    @Test
+    public void testMappedFileHmlSource() throws Exception
+    {
+        logger.debug("starting testMappedFileHmlSource");
+
+        String demoBadXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demobad.xml");
+        byte[] bytes = demoBadXML.getBytes(StandardCharsets.UTF_8);
+        String stringResults = new MiringValidator(demoBadXML).validate();
+
+        //A body over the threshold is spooled to a temp file, and every stage reads the mapping.
+        HmlSource source = MappedFileHmlSource.read(new ByteArrayInputStream(bytes), 1024);
+        assertTrue(source instanceof MappedFileHmlSource);
+        assertEquals(bytes.length, source.length());
+        assertArrayEquals(bytes, readAll(source.newInputStream()));
+        String mappedResults = new MiringValidator(source).validate();
+        assertEquals(stringResults.replaceAll("timestamp=\"[^\"]*\"", ""), mappedResults.replaceAll("timestamp=\"[^\"]*\"", ""));
+
+        //A small body stays in memory.
+        source = MappedFileHmlSource.read(new ByteArrayInputStream(bytes), bytes.length);
+        assertTrue(source instanceof ByteArrayHmlSource);
+        assertArrayEquals(bytes, readAll(source.newInputStream()));
+        assertEquals(0, MappedFileHmlSource.read(new ByteArrayInputStream(new byte[0]), 0).length());
+
+        //A body over the limit stops as soon as the limit is passed, in memory or spooled.
+        assertEquals(bytes.length, MappedFileHmlSource.read(new ByteArrayInputStream(bytes), 1024, bytes.length).length());
+        for(long threshold : new long[]{bytes.length, 1024})
+        {
+            EndlessInputStream endless = new EndlessInputStream();
+            try
+            {
+                MappedFileHmlSource.read(endless, threshold, bytes.length - 1);
+                fail("A document over the limit was read");
+            }
+            catch(MappedFileHmlSource.DocumentTooLargeException e)
+            {
+                assertTrue(endless.bytesRead < bytes.length + 64 * 1024);
+            }
+        }
+    }
+
+    /** 
+     * An InputStream that never ends, like a body that decompresses to more than any limit.
+    */
+    private static class EndlessInputStream extends InputStream
+    {
+        long bytesRead = 0;
+
+        @Override
+        public int read()
+        {
+            bytesRead++;
+            return ' ';
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            bytesRead += len;
+            return len;
+        }
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int bytesRead;
+        while((bytesRead = inputStream.read(buffer)) != -1)
+        {
+            bytes.write(buffer, 0, bytesRead);
+        }
+        return bytes.toByteArray();
+    }
 }
@@ -0,0 +1,63 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+
+import javax.xml.transform.stream.StreamResult;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+
+public class ProbatronEngineTest
+{
+    Logger logger = LoggerFactory.getLogger(ProbatronEngineTest.class);
+    String schematronFileName = "/org/nmdp/miring/schematron/MiringAll.sch";
+
+    @Test
+    public void testSchemaIsCompiledOnce() throws Exception
+    {
+        logger.debug("starting testSchemaIsCompiledOnce");
+
+        ProbatronEngine engine = ProbatronEngine.getInstance();
+        assertSame(engine, ProbatronEngine.getInstance());
+        assertSame(engine.getCompiledSchema(schematronFileName), engine.getCompiledSchema(schematronFileName));
+    }
+
+    @Test
+    public void testValidate() throws Exception
+    {
+        logger.debug("starting testValidate");
+
+        String xml = Utilities.readXmlResource("/org/nmdp/miring/hml/Element1.hmlid.OID.xml");
+        ByteArrayOutputStream reportStream = new ByteArrayOutputStream();
+        ProbatronEngine.getInstance().validate(xml, schematronFileName, new StreamResult(reportStream));
+        String report = reportStream.toString();
+
+        assertTrue(report.contains("svrl:schematron-output"));
+        assertTrue(report.contains("The hmlid root is formatted like an OID."));
+    }
+}
@@ -0,0 +1,352 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+
+public class ReportCacheTest
+{
+    Logger logger = LoggerFactory.getLogger(ReportCacheTest.class);
+
+    @Test
+    public void testCachedReports() throws Exception
+    {
+        logger.debug("starting testCachedReports");
+
+        String demoBadXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demobad.xml");
+        ReportCache cache = new ReportCache(1024 * 1024, 60000);
+        for(boolean json : new boolean[]{false, true})
+        {
+            String key = cache.getKey(new StringHmlSource(demoBadXML), json);
+            CountingValidation validation = new CountingValidation(demoBadXML, json, null);
+            ByteArrayOutputStream reportStream = new ByteArrayOutputStream();
+            cache.writeReport(key, json, reportStream, validation);
+
+            //Only the timestamp can be different, and the document isn't validated again.
+            ByteArrayOutputStream cachedStream = new ByteArrayOutputStream();
+            cache.writeReport(key, json, cachedStream, validation);
+            assertEquals(1, validation.count.get());
+            String timestamp = json ? "\"timestamp\":\"[^\"]*\"" : "timestamp=\"[^\"]*\"";
+            String report = new String(reportStream.toByteArray(), StandardCharsets.UTF_8);
+            String cachedReport = new String(cachedStream.toByteArray(), StandardCharsets.UTF_8);
+            assertTrue(cachedReport.matches("(?s).*" + timestamp + ".*"));
+            assertEquals(report.replaceFirst(timestamp, ""), cachedReport.replaceFirst(timestamp, ""));
+        }
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getInFlightCount());
+    }
+
+    @Test(timeout=60000)
+    public void testCoalescedValidations() throws Exception
+    {
+        logger.debug("starting testCoalescedValidations");
+
+        String demoBadXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demobad.xml");
+        final ReportCache cache = new ReportCache(1024 * 1024, 60000);
+        final String key = cache.getKey(new StringHmlSource(demoBadXML), false);
+        final CountingValidation validation = new CountingValidation(demoBadXML, false, new CountDownLatch(1));
+
+        //Three copies of the same document arrive while the first one is being validated.
+        final ByteArrayOutputStream[] reportStreams = new ByteArrayOutputStream[3];
+        Thread[] threads = new Thread[reportStreams.length];
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        for(int i = 0; i < threads.length; i++)
+        {
+            final ByteArrayOutputStream reportStream = new ByteArrayOutputStream();
+            reportStreams[i] = reportStream;
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        cache.writeReport(key, false, reportStream, validation);
+                    }
+                    catch(Exception e)
+                    {
+                        failure.set(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        while(cache.getCoalesced() < 2)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(1, cache.getInFlightCount());
+        validation.release.countDown();
+        for(Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        assertEquals(1, validation.count.get());
+        assertEquals(2, cache.getCoalesced());
+        assertEquals(0, cache.getInFlightCount());
+        String report = new String(reportStreams[0].toByteArray(), StandardCharsets.UTF_8).replaceAll("timestamp=\"[^\"]*\"", "");
+        for(ByteArrayOutputStream reportStream : reportStreams)
+        {
+            assertEquals(report, new String(reportStream.toByteArray(), StandardCharsets.UTF_8).replaceAll("timestamp=\"[^\"]*\"", ""));
+        }
+    }
+
+    @Test
+    public void testCoalescedValidationsOutliveTheirRequest() throws Exception
+    {
+        logger.debug("starting testCoalescedValidationsOutliveTheirRequest");
+
+        String demoBadXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demobad.xml");
+
+        //The first request's client goes away.  The others still get the report, from the same validation.
+        ReportCache cache = new ReportCache(1024 * 1024, 60000);
+        CountingValidation validation = new CountingValidation(demoBadXML, false, new CountDownLatch(1));
+        Exception[] failures = coalesce(cache, cache.getKey(new StringHmlSource(demoBadXML), false), validation, true, 1);
+        assertTrue(failures[0] instanceof IOException);
+        assertNull(failures[1]);
+        assertNull(failures[2]);
+        assertEquals(1, validation.count.get());
+        assertEquals(1, cache.getEntryCount());
+
+        //A report too big to cache is not copied.  The waiting requests validate the document themselves.
+        cache = new ReportCache(1024, 60000);
+        validation = new CountingValidation(demoBadXML, false, new CountDownLatch(1));
+        failures = coalesce(cache, cache.getKey(new StringHmlSource(demoBadXML), false), validation, false, 1);
+        assertArrayEquals(new Exception[3], failures);
+        assertEquals(3, validation.count.get());
+        assertEquals(0, cache.getEntryCount());
+
+        //The waiting requests stop waiting for a validation that takes too long, and validate the document themselves.
+        cache = new ReportCache(1024 * 1024, 60000, 100);
+        validation = new CountingValidation(demoBadXML, false, new CountDownLatch(1));
+        failures = coalesce(cache, cache.getKey(new StringHmlSource(demoBadXML), false), validation, false, 3);
+        assertArrayEquals(new Exception[3], failures);
+        assertEquals(3, validation.count.get());
+
+        //The validation fails.  The waiting requests fail with it, instead of validating the document again one after another.
+        cache = new ReportCache(1024 * 1024, 60000);
+        validation = new CountingValidation(demoBadXML, false, new CountDownLatch(1))
+        {
+            @Override
+            public void write(OutputStream outputStream) throws IOException
+            {
+                count.incrementAndGet();
+                try
+                {
+                    release.await();
+                }
+                catch(InterruptedException e)
+                {
+                    throw new IOException(e);
+                }
+                throw new IOException("The validation fails");
+            }
+        };
+        failures = coalesce(cache, cache.getKey(new StringHmlSource(demoBadXML), false), validation, false, 1);
+        assertTrue(failures[0] instanceof IOException);
+        assertTrue(failures[1] instanceof IOException);
+        assertTrue(failures[2] instanceof IOException);
+        assertEquals(1, validation.count.get());
+        assertEquals(0, cache.getInFlightCount());
+    }
+
+    /**
+     * Send the same document three times.  The first request starts the validation, the other two arrive while it waits to be released.
+     *
+     * @param cache the ReportCache
+     * @param key the document's key
+     * @param validation the validation, which waits for it's release latch
+     * @param firstClientFails true if the first request's OutputStream throws
+     * @param validations the number of validations to wait for before the release
+     * @return what each request threw, or null if it got the report
+     */
+    private Exception[] coalesce(final ReportCache cache, final String key, final CountingValidation validation, boolean firstClientFails, int validations) throws Exception
+    {
+        final Exception[] failures = new Exception[3];
+        Thread[] threads = new Thread[failures.length];
+        for(int i = 0; i < threads.length; i++)
+        {
+            final int request = i;
+            final OutputStream reportStream = (i == 0 && firstClientFails) ? new OutputStream()
+            {
+                @Override
+                public void write(int b) throws IOException
+                {
+                    throw new IOException("The client went away");
+                }
+            } : new ByteArrayOutputStream();
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        cache.writeReport(key, false, reportStream, validation);
+                        assertTrue(((ByteArrayOutputStream)reportStream).toString("UTF-8").contains("<miring-report"));
+                    }
+                    catch(Exception e)
+                    {
+                        failures[request] = e;
+                    }
+                }
+            };
+            threads[i].start();
+            while(cache.getInFlightCount() == 0)
+            {
+                Thread.sleep(10);
+            }
+        }
+        while(cache.getCoalesced() < 2 || validation.count.get() < validations)
+        {
+            Thread.sleep(10);
+        }
+        validation.release.countDown();
+        for(Thread thread : threads)
+        {
+            thread.join();
+        }
+        return failures;
+    }
+
+    @Test
+    public void testKeys() throws Exception
+    {
+        logger.debug("starting testKeys");
+
+        String demoGoodXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml");
+        ReportCache cache = new ReportCache(1024 * 1024, 60000);
+        String key = cache.getKey(new StringHmlSource(demoGoodXML), false);
+        assertEquals(key, cache.getKey(new StringHmlSource(new String(demoGoodXML)), false));
+        assertNotEquals(key, cache.getKey(new StringHmlSource(demoGoodXML), true));
+        assertNotEquals(key, cache.getKey(new StringHmlSource(demoGoodXML + " "), false));
+        //The same text as bytes is parsed differently, so it is another document.
+        assertNotEquals(key, cache.getKey(new ByteArrayHmlSource(demoGoodXML.getBytes(StandardCharsets.UTF_8)), false));
+        assertNull(new ReportCache(0, 60000).getKey(new StringHmlSource(demoGoodXML), false));
+        assertEquals(64, ReportCache.getRuleSetVersion().length());
+        //Every file in the rule set directories is part of the version, including ones nobody listed by hand.
+        List<String> resources = ReportCache.listRuleSetResources();
+        assertTrue(resources.contains("/org/nmdp/miring/schema/hml-1.0.1.xsd"));
+        assertTrue(resources.contains("/org/nmdp/miring/schematron/MiringElement4.incl"));
+        assertTrue(resources.contains("/org/nmdp/miring/schematron/iso/iso_svrl_for_xslt2.xsl"));
+        assertTrue(resources.contains("/org/nmdp/miring/ruletemplates/SchematronRuleTemplate.xml"));
+    }
+
+    @Test
+    public void testEvictionAndExpiration() throws Exception
+    {
+        logger.debug("starting testEvictionAndExpiration");
+
+        ReportCache cache = new ReportCache(100, 1000);
+        byte[] report = "<miring-report timestamp=\"01/01/2016 00:00:00\">a</miring-report>".getBytes(StandardCharsets.UTF_8);
+        cache.putReport("a", report, false, 0);
+        cache.putReport("b", report, false, 0);
+        //The second report doesn't fit with the first.
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.getReport("a", 0));
+        assertNotNull(cache.getReport("b", 999));
+        assertNull(cache.getReport("b", 1000));
+        assertEquals(1, cache.getExpirations());
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getBytes());
+
+        //A report with no timestamp can't be refreshed, so it isn't kept.
+        cache.putReport("c", "<miring-report/>".getBytes(StandardCharsets.UTF_8), false, 0);
+        assertEquals(0, cache.getEntryCount());
+
+        //Recently used reports are kept over older ones.
+        cache = new ReportCache(report.length * 2, 1000);
+        cache.putReport("a", report, false, 0);
+        cache.putReport("b", report, false, 0);
+        assertNotNull(cache.getReport("a", 0));
+        cache.putReport("c", report, false, 0);
+        assertNotNull(cache.getReport("a", 0));
+        assertNull(cache.getReport("b", 0));
+
+        ByteArrayOutputStream reportStream = new ByteArrayOutputStream();
+        cache.getReport("c", 0).write("12/31/2016 23:59:59".getBytes(StandardCharsets.UTF_8), reportStream);
+        assertEquals("<miring-report timestamp=\"12/31/2016 23:59:59\">a</miring-report>", new String(reportStream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A validation that counts how often it runs, and can wait to be released before it starts.
+     */
+    private static class CountingValidation implements StreamingOutput
+    {
+        final String xml;
+        final boolean json;
+        final CountDownLatch release;
+        final AtomicInteger count = new AtomicInteger();
+
+        CountingValidation(String xml, boolean json, CountDownLatch release)
+        {
+            this.xml = xml;
+            this.json = json;
+            this.release = release;
+        }
+
+        @Override
+        public void write(OutputStream outputStream) throws IOException
+        {
+            count.incrementAndGet();
+            if(release != null)
+            {
+                try
+                {
+                    release.await();
+                }
+                catch(InterruptedException e)
+                {
+                    throw new IOException(e);
+                }
+            }
+            if(json)
+            {
+                new MiringValidator(xml).validateJson(outputStream);
+            }
+            else
+            {
+                new MiringValidator(xml).validate(outputStream);
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@ package org.nmdp.miring;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.util.HashMap;
 
 import org.nmdp.miring.ReportGenerator;
@@ -31,6 +32,8 @@ import org.nmdp.miring.Utilities;
 import org.nmdp.miring.ValidationResult;
 import org.nmdp.miring.ValidationResult.Severity;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.junit.Test;
@@ -106,6 +109,129 @@ public class ReportGeneratorTest
         }
     }
     
+    @Test
+    public void testWriteReport() throws Exception
+    {
+        logger.debug("starting testWriteReport");
+
+        ValidationResult miringError = new ValidationResult("This is a big problem.", Severity.MIRING);
+        ValidationResult hmlWarning1 = new ValidationResult("This is a small problem 1.", Severity.HMLWARNING);
+        ValidationResult hmlWarning2 = new ValidationResult("This is a small problem 2.", Severity.HMLWARNING);
+        ValidationResult[] results = {miringError, hmlWarning1, hmlWarning2};
+
+        ByteArrayOutputStream reportStream = new ByteArrayOutputStream();
+        ReportGenerator.writeReport(results, "testRoot", "1.2.3.4", null, null, 0, reportStream);
+        String streamedReport = reportStream.toString("UTF-8");
+        String stringReport = ReportGenerator.generateReport(results, "testRoot", "1.2.3.4", null, null, 0);
+
+        //The timestamp is the only thing that can differ.
+        assertEquals(stringReport.replaceAll("timestamp=\"[^\"]*\"", ""), streamedReport.replaceAll("timestamp=\"[^\"]*\"", ""));
+
+        //Every hml warning is on the report.
+        Element rootElement = Utilities.xmlToRootElement(streamedReport);
+        assertEquals(2, rootElement.getElementsByTagName("hml-result").getLength());
+        assertEquals(1, rootElement.getElementsByTagName("miring-result").getLength());
+    }
+    
+    @Test
+    public void testCombineSimilarResults()
+    {
+        logger.debug("starting testCombineSimilarResults");
+
+        //20,000 of the same finding, on different variants of two samples.
+        ValidationResult[] results = new ValidationResult[20000];
+        for(int i = 0; i < results.length; i++)
+        {
+            results[i] = new ValidationResult("The node variant is missing a quality-score attribute.", Severity.MIRING);
+            results[i].setMiringRule("5.6.a");
+            results[i].setSampleID("sample" + (i % 2));
+            results[i].addXPath("/hml[1]/sample[" + (i % 2 + 1) + "]/typing[1]/variant[" + (results.length - i) + "]");
+            //Every finding is reported twice.
+            results[i].addXPath("/hml[1]/sample[" + (i % 2 + 1) + "]/typing[1]/variant[" + (results.length - i) + "]");
+        }
+
+        ValidationResult[] combinedResults = ReportGenerator.combineSimilarResults(results);
+
+        assertEquals(2, combinedResults.length);
+        assertEquals("sample0", combinedResults[0].getSampleID());
+        assertEquals("sample1", combinedResults[1].getSampleID());
+        //The first result keeps it's duplicate, the others are only added once.  Then they are sorted, as text.
+        assertEquals(10001, combinedResults[0].getXPaths().size());
+        assertEquals("/hml[1]/sample[1]/typing[1]/variant[10000]", combinedResults[0].getXPaths().get(0));
+    }
+    
+    @Test
+    public void testSampleCompliance()
+    {
+        logger.debug("starting testSampleCompliance");
+
+        Sample[] samples = {new Sample("sample1", "123"), new Sample("sample2", null), new Sample("sample3", null)};
+        ValidationResult miringError = new ValidationResult("A miring problem.", Severity.MIRING);
+        miringError.addXPath("/hml[1]/sample[1]/typing[1]");
+        ValidationResult earlyHmlError = new ValidationResult("An hml problem before hmlstart.", Severity.HML);
+        earlyHmlError.addXPath("/hml[1]/sample[3]/typing[1]");
+        ValidationResult hmlError = new ValidationResult("An hml problem.", Severity.HMLFATAL);
+        hmlError.addXPath("/hml[1]/sample[2]/typing[1]");
+
+        String report = ReportGenerator.generateReport(new ValidationResult[]{miringError, earlyHmlError, hmlError}, null, null, null, samples, 2);
+        NodeList sampleNodes = Utilities.xmlToRootElement(report).getElementsByTagName("sample");
+        assertEquals(3, sampleNodes.getLength());
+        assertEquals("false", ((Element)sampleNodes.item(0)).getAttribute("miring-compliant"));
+        assertEquals("true", ((Element)sampleNodes.item(0)).getAttribute("hml-compliant"));
+        assertEquals("true", ((Element)sampleNodes.item(1)).getAttribute("miring-compliant"));
+        assertEquals("false", ((Element)sampleNodes.item(1)).getAttribute("hml-compliant"));
+        //Results before hmlstart don't count against a sample's HML compliance.
+        assertEquals("true", ((Element)sampleNodes.item(2)).getAttribute("hml-compliant"));
+
+        Element samplesElement = (Element)Utilities.xmlToRootElement(report).getElementsByTagName("samples").item(0);
+        assertEquals("4", samplesElement.getAttribute("compliant-sample-count"));
+        assertEquals("2", samplesElement.getAttribute("noncompliant-sample-count"));
+    }
+
+    @Test
+    public void testJsonReport() throws Exception
+    {
+        logger.debug("starting testJsonReport");
+
+        Sample[] samples = {new Sample("sample1", "123"), new Sample("sample2", null)};
+        ValidationResult miringError = new ValidationResult("A miring problem.", Severity.MIRING);
+        miringError.setMiringRule("1.2.b");
+        miringError.addXPath("/hml[1]/sample[1]/typing[1]");
+        ValidationResult hmlError = new ValidationResult("An \"hml\" problem.", Severity.HML);
+        hmlError.addXPath("/hml[1]/sample[2]/typing[1]");
+        HashMap<String, String> properties = new HashMap<String, String>();
+        properties.put("MessageReceived", "yes");
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        JsonReportGenerator.writeReport(new ValidationResult[]{miringError, hmlError}, "testRoot", "1.2.3.4", properties, samples, 1, outputStream);
+        JSONObject report = new JSONObject(outputStream.toString("UTF-8"));
+
+        assertEquals("false", report.getString("hml-compliant"));
+        assertEquals("false", report.getString("miring-compliant"));
+        assertEquals("testRoot", report.getJSONObject("hmlid").getString("root"));
+        assertEquals("1.2.3.4", report.getJSONObject("hmlid").getString("extension"));
+        assertEquals("yes", report.getJSONObject("properties").getString("MessageReceived"));
+
+        JSONObject samplesObject = report.getJSONObject("samples");
+        assertEquals(2, samplesObject.getInt("sample-count"));
+        assertEquals(2, samplesObject.getInt("compliant-sample-count"));
+        assertEquals(2, samplesObject.getInt("noncompliant-sample-count"));
+        JSONArray sampleArray = samplesObject.getJSONArray("sample");
+        assertEquals("123", sampleArray.getJSONObject(0).getString("center-code"));
+        assertFalse(sampleArray.getJSONObject(0).getBoolean("miring-compliant"));
+        assertFalse(sampleArray.getJSONObject(1).getBoolean("hml-compliant"));
+
+        JSONObject miringResult = report.getJSONArray("miring-validation-errors").getJSONObject(0);
+        assertEquals("1.2.b", miringResult.getString("miring-rule-id"));
+        assertEquals("sample1", miringResult.getString("sample-id"));
+        assertEquals("miring", miringResult.getString("severity"));
+        assertEquals("/hml[1]/sample[1]/typing[1]", miringResult.getJSONArray("xpath").getString(0));
+        JSONObject hmlResult = report.getJSONArray("hml-schema-validation-errors").getJSONObject(0);
+        assertEquals("An \"hml\" problem.", hmlResult.getString("description"));
+        assertEquals("hml", hmlResult.getString("severity"));
+        assertFalse(report.has("fatal-validation-errors"));
+    }
+    
     /*@Test
      * TODO: Make a test for getting properties fromt he HML File.
     public void testGetPropertiesFromRootHml()
@@ -0,0 +1,87 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import org.nmdp.miring.RuleTemplates.RuleTemplate;
+import org.nmdp.miring.RuleTemplates.Tier;
+import org.nmdp.miring.ValidationResult.Severity;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+
+public class RuleTemplatesTest
+{
+    Logger logger = LoggerFactory.getLogger(RuleTemplatesTest.class);
+
+    @Test
+    public void testMissingNodeTemplates()
+    {
+        logger.debug("starting testMissingNodeTemplates");
+
+        RuleTemplate hmlid = RuleTemplates.getMissingNodeTemplate(Tier.MIRING, "hmlid");
+        assertEquals("1.1.a", hmlid.getMiringRuleId());
+        assertEquals("miring", hmlid.getSeverity());
+        assertNull(hmlid.getSolutionText());
+
+        assertEquals("hml", RuleTemplates.getMissingNodeTemplate(Tier.HML, "sample").getSeverity());
+        assertNull(RuleTemplates.getMissingNodeTemplate(Tier.MIRING, "sample"));
+        assertNull(RuleTemplates.getMissingNodeTemplate(Tier.HML, "not-a-node"));
+    }
+
+    @Test
+    public void testMissingAttributeTemplates()
+    {
+        logger.debug("starting testMissingAttributeTemplates");
+
+        RuleTemplate qualityScore = RuleTemplates.getMissingAttributeTemplate(Tier.MIRING, "variant", "quality-score");
+        assertEquals("5.6.a", qualityScore.getMiringRuleId());
+        assertEquals("miring", qualityScore.getSeverity());
+
+        assertNotNull(RuleTemplates.getMissingAttributeTemplate(Tier.HML, "variant", "quality-score"));
+        assertNull(RuleTemplates.getMissingAttributeTemplate(Tier.MIRING, "variant", "not-an-attribute"));
+        assertNull(RuleTemplates.getMissingAttributeTemplate(Tier.MIRING, "quality-score", "variant"));
+    }
+
+    @Test
+    public void testSchematronTemplates()
+    {
+        logger.debug("starting testSchematronTemplates");
+
+        //Exactly the text of an assert in MiringAll.sch
+        RuleTemplate refSeqEnd = RuleTemplates.getSchematronTemplate("On a reference sequence node, end attribute should be greater than or equal to the start attribute.");
+        assertEquals("2.2.c", refSeqEnd.getMiringRuleId());
+        assertEquals(Severity.MIRING, refSeqEnd.getMiringSeverity());
+
+        //"formatted like an OID" must not be matched by the "not formatted" message
+        RuleTemplate notOid = RuleTemplates.getSchematronTemplate("The hmlid root is not formatted like an OID.");
+        assertEquals("Please format the hmlid node's root attribute like an OID:  11.234.55555.65", notOid.getSolutionText());
+        assertEquals(Severity.INFO, notOid.getMiringSeverity());
+
+        //Messages that aren't in the schema still match on the error-text
+        assertEquals("2.2.c", RuleTemplates.getSchematronTemplate("  On a reference sequence node, end attribute should be greater than or equal to the start attribute.  ").getMiringRuleId());
+        assertNull(RuleTemplates.getSchematronTemplate("Not a schematron message."));
+    }
+}
@@ -0,0 +1,63 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import javax.xml.validation.Schema;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+
+public class SchemaRegistryTest
+{
+    Logger logger = LoggerFactory.getLogger(SchemaRegistryTest.class);
+
+    @Test
+    public void testSchemaIsCompiledOnce() throws Exception
+    {
+        logger.debug("starting testSchemaIsCompiledOnce");
+
+        Schema first = SchemaRegistry.getSchema("/org/nmdp/miring/schema/hml-1.0.1.xsd");
+        Schema second = SchemaRegistry.getSchema("/org/nmdp/miring/schema/hml-1.0.1.xsd");
+        assertNotNull(first);
+        assertSame(first, second);
+        assertNotSame(first, SchemaRegistry.getSchema("/org/nmdp/miring/schema/MiringTier1.xsd"));
+    }
+
+    @Test
+    public void testMissingSchema()
+    {
+        logger.debug("starting testMissingSchema");
+        try
+        {
+            SchemaRegistry.getSchema("/org/nmdp/miring/schema/hml-9.9.9.xsd");
+            fail("Expected an exception for a missing schema resource.");
+        }
+        catch(Exception e)
+        {
+            assertTrue(e.getMessage().contains("hml-9.9.9.xsd"));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+
+public class SchematronEngineTest
+{
+    Logger logger = LoggerFactory.getLogger(SchematronEngineTest.class);
+    String[] schematronFileNames = new String[]{"/org/nmdp/miring/schematron/MiringAll.sch"};
+
+    @Test
+    public void testEnginesProduceSameResults() throws Exception
+    {
+        logger.debug("starting testEnginesProduceSameResults");
+
+        SchematronEngine probatron = ProbatronEngine.getInstance();
+        SchematronEngine saxon = SaxonSchematronEngine.getInstance();
+
+        File[] hmlFiles = new File(SchematronEngineTest.class.getResource("/org/nmdp/miring/hml").toURI()).listFiles();
+        Arrays.sort(hmlFiles);
+        assertTrue(hmlFiles.length > 0);
+        for(File hmlFile : hmlFiles)
+        {
+            String xml = Utilities.readXmlResource("/org/nmdp/miring/hml/" + hmlFile.getName());
+            if(xml == null || xml.length() == 0 || !HmlMetadata.parse(xml).isWellFormed())
+            {
+                continue;
+            }
+            ValidationContext context = new ValidationContext(xml);
+            ValidationResult[] probatronResults = SchematronValidator.validate(context, schematronFileNames, probatron);
+            ValidationResult[] saxonResults = SchematronValidator.validate(context, schematronFileNames, saxon);
+
+            assertArrayEquals("Results differ for " + hmlFile.getName(), probatronResults, saxonResults);
+        }
+    }
+}
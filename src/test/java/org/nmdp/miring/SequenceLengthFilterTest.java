@@ -0,0 +1,123 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+public class SequenceLengthFilterTest
+{
+    Logger logger = LoggerFactory.getLogger(SequenceLengthFilterTest.class);
+    String hmlStart = "<hml xmlns=\"http://schemas.nmdp.org/spec/hml/1.0.1\"><sample><typing><consensus-sequence>";
+    String hmlEnd = "</consensus-sequence></typing></sample></hml>";
+
+    @Test
+    public void testSequenceLengths() throws Exception
+    {
+        logger.debug("starting testSequenceLengths");
+
+        //Whitespace doesn't count.
+        String xml = hmlStart
+            + "<consensus-sequence-block start=\"10\" end=\"18\"><sequence>ACGT\n  ACGT\t</sequence></consensus-sequence-block>"
+            + "<consensus-sequence-block start=\"0\" end=\"5\"><sequence> ACGT </sequence></consensus-sequence-block>"
+            + "<consensus-sequence-block start=\"0\" end=\"0\"><sequence/></consensus-sequence-block>"
+            + hmlEnd;
+        TextCounter counter = filter(xml);
+        assertEquals(Arrays.asList("8", "4", "0"), counter.lengths);
+
+        //The sequence text is not passed on, only the lengths are.
+        assertEquals(3, counter.characters);
+    }
+
+    @Test
+    public void testOtherSequences() throws Exception
+    {
+        logger.debug("starting testOtherSequences");
+
+        //Only the sequence children of a consensus-sequence-block in the HML namespace are counted, and the rest of the text is passed on.
+        String xml = hmlStart
+            + "<reference-sequence start=\"0\" end=\"100\"><sequence>ACGT</sequence></reference-sequence>"
+            + "<consensus-sequence-block xmlns=\"urn:other\" start=\"0\" end=\"100\"><sequence>ACGT</sequence></consensus-sequence-block>"
+            + hmlEnd;
+        TextCounter counter = filter(xml);
+        assertEquals(0, counter.lengths.size());
+        assertEquals(8, counter.characters);
+    }
+
+    private TextCounter filter(String xml) throws Exception
+    {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        SequenceLengthFilter filter = new SequenceLengthFilter(factory.newSAXParser().getXMLReader());
+        TextCounter counter = new TextCounter();
+        filter.setContentHandler(counter);
+        filter.parse(new InputSource(new StringReader(xml)));
+        return counter;
+    }
+
+    /** 
+     * Counts the characters that get past the filter, and keeps the text of the length elements.
+    */
+    private static class TextCounter extends DefaultHandler
+    {
+        int characters = 0;
+        List<String> lengths = new ArrayList<String>();
+        boolean inLength = false;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
+        {
+            inLength = SequenceLengthFilter.lengthNamespaceURI.equals(uri) && localName.equals("length");
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException
+        {
+            characters += length;
+            if(inLength)
+            {
+                lengths.add(new String(ch, start, length));
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException
+        {
+            inLength = false;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+
+public class ShardedValidatorTest
+{
+    Logger logger = LoggerFactory.getLogger(ShardedValidatorTest.class);
+
+    String[] documentNames = new String[]
+    {
+        "/org/nmdp/miring/hml/demogood.xml",
+        "/org/nmdp/miring/hml/Element4.CSB.bad.startend.xml",
+        "/org/nmdp/miring/hml/Element5.variant.bad.attributes.xml",
+        "/org/nmdp/miring/hml/Element1.no.hmlid.xml"
+    };
+
+    @Test
+    public void testShardedValidation() throws Exception
+    {
+        logger.debug("starting testShardedValidation");
+
+        for(String documentName : documentNames)
+        {
+            String xml = repeatSamples(Utilities.readXmlResource(documentName), 5, true);
+            HmlSource mappedSource = MappedFileHmlSource.read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), 0);
+            for(HmlSource source : new HmlSource[]{new StringHmlSource(xml), new ByteArrayHmlSource(xml.replace("\n", "\r\n").getBytes(StandardCharsets.UTF_8)), mappedSource})
+            {
+                ValidationContext context = new ValidationContext(source);
+                ShardedValidator shards = ShardedValidator.forDocument(context, 3);
+                assertNotNull(shards);
+                assertEquals(3, shards.getShardCount());
+
+                //Every stage finds the same results as it does for the whole document.  Once they are sorted for the report, they are in the same order.
+                String hmlSchema = "/org/nmdp/miring/schema/hml-1.0.1.xsd";
+                String tier1Schema = "/org/nmdp/miring/schema/MiringTier1.xsd";
+                String[] schematronFiles = new String[] {"/org/nmdp/miring/schematron/MiringAll.sch"};
+                assertArrayEquals(ValidationResultCollector.merge(SchemaValidator.validate(context, hmlSchema)), ValidationResultCollector.merge(shards.validateSchema(hmlSchema)));
+                assertArrayEquals(ValidationResultCollector.merge(SchemaValidator.validate(context, tier1Schema)), ValidationResultCollector.merge(shards.validateSchema(tier1Schema)));
+                assertArrayEquals(ValidationResultCollector.merge(SchematronValidator.validate(context, schematronFiles)), ValidationResultCollector.merge(shards.validateSchematron(schematronFiles)));
+            }
+        }
+    }
+
+    @Test
+    public void testShardedReport() throws Exception
+    {
+        logger.debug("starting testShardedReport");
+
+        String xml = repeatSamples(Utilities.readXmlResource("/org/nmdp/miring/hml/Element5.variant.bad.attributes.xml"), 4, true);
+        String report = new MiringValidator(xml).validate();
+        System.setProperty(ShardedValidator.minSamplesProperty, "2");
+        try
+        {
+            String shardedReport = new MiringValidator(xml).validate();
+            assertEquals(report.replaceAll("timestamp=\"[^\"]*\"", ""), shardedReport.replaceAll("timestamp=\"[^\"]*\"", ""));
+            //The results of the last sample point at it, not at the first sample of it's fragment.
+            assertTrue(shardedReport.contains("/hml[1]/sample[4]/"));
+        }
+        finally
+        {
+            System.clearProperty(ShardedValidator.minSamplesProperty);
+        }
+    }
+
+    @Test
+    public void testSampleResultCache() throws Exception
+    {
+        logger.debug("starting testSampleResultCache");
+
+        String xml = Utilities.readXmlResource("/org/nmdp/miring/hml/Element5.variant.bad.attributes.xml");
+        String fourSamples = repeatSamples(xml, 4, true);
+        String fiveSamples = repeatSamples(xml, 5, true);
+        String report = new MiringValidator(fiveSamples).validate();
+        SampleResultCache cache = new SampleResultCache(1000);
+        SampleResultCache.setInstance(cache);
+        try
+        {
+            ShardedValidator shards = ShardedValidator.forDocument(new ValidationContext(fourSamples), cache);
+            assertEquals(4, shards.getShardCount());
+            new MiringValidator(fourSamples).validate();
+            long misses = cache.getMisses();
+            assertEquals(0, cache.getHits());
+
+            //The first four samples are the same, only the new one is validated.
+            String cachedReport = new MiringValidator(fiveSamples).validate();
+            assertEquals(report.replaceAll("timestamp=\"[^\"]*\"", ""), cachedReport.replaceAll("timestamp=\"[^\"]*\"", ""));
+            assertEquals(misses, cache.getHits());
+            assertEquals(misses + misses / 4, cache.getMisses());
+
+            //Samples that share reference-sequence ids have to be validated together.
+            assertNull(ShardedValidator.forDocument(new ValidationContext(repeatSamples(xml, 3, false)), cache));
+        }
+        finally
+        {
+            SampleResultCache.setInstance(null);
+        }
+    }
+
+    @Test
+    public void testUnsplitDocuments() throws Exception
+    {
+        logger.debug("starting testUnsplitDocuments");
+
+        String xml = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml");
+        assertNotNull(ShardedValidator.forDocument(new ValidationContext(repeatSamples(xml, 2, true)), 2));
+        //One sample.
+        assertNull(ShardedValidator.forDocument(new ValidationContext(xml), 2));
+        //The samples use the same reference-sequence id.
+        assertNull(ShardedValidator.forDocument(new ValidationContext(repeatSamples(xml, 2, false)), 2));
+        //Lines that end with \r
+        assertNull(ShardedValidator.forDocument(new ValidationContext(repeatSamples(xml, 2, true).replace("\n", "\r")), 2));
+        //A document spooled to disk is only split when sharding is on, like any other document.
+        HmlSource mappedSource = MappedFileHmlSource.read(new ByteArrayInputStream(repeatSamples(xml, 2, true).getBytes(StandardCharsets.UTF_8)), 0);
+        assertNull(ShardedValidator.forDocument(new ValidationContext(mappedSource)));
+        assertNull(ShardedValidator.forDocument(new ValidationContext(repeatSamples(xml, 2, true))));
+        System.setProperty(ShardedValidator.minSamplesProperty, "2");
+        try
+        {
+            assertNotNull(ShardedValidator.forDocument(new ValidationContext(mappedSource)));
+            assertNotNull(ShardedValidator.forDocument(new ValidationContext(repeatSamples(xml, 2, true))));
+        }
+        finally
+        {
+            System.clearProperty(ShardedValidator.minSamplesProperty);
+        }
+        //A DOCTYPE
+        String doctype = repeatSamples(xml, 2, true).replaceFirst("<hml", "<!DOCTYPE hml>\n<hml");
+        assertNull(ShardedValidator.forDocument(new ValidationContext(doctype), 2));
+        //UTF-16
+        byte[] utf16 = repeatSamples(xml, 2, true).replace("utf-8", "UTF-16").replace("UTF-8", "UTF-16").getBytes(StandardCharsets.UTF_16);
+        assertNull(ShardedValidator.forDocument(new ValidationContext(new ByteArrayHmlSource(utf16)), 2));
+    }
+
+    @Test
+    public void testShardSafeSchemas() throws Exception
+    {
+        logger.debug("starting testShardSafeSchemas");
+
+        assertTrue(ShardedValidator.isShardSafe("/org/nmdp/miring/schematron/MiringAll.sch"));
+        //Only a schema's own mark counts.
+        assertFalse(ShardedValidator.isShardSafe("/org/nmdp/miring/schematron/MiringElement1.incl"));
+        assertFalse(ShardedValidator.isShardSafe("/org/nmdp/miring/schematron/Missing.sch"));
+    }
+
+    /**
+     * Make a document with more samples, by repeating the samples of a document.
+     *
+     * @param xml a document with samples
+     * @param count how many times to repeat the samples
+     * @param uniqueIds true to give each copy it's own reference-sequence ids
+     * @return the new document
+     */
+    private String repeatSamples(String xml, int count, boolean uniqueIds)
+    {
+        int samplesStart = xml.indexOf("<sample");
+        int samplesEnd = xml.lastIndexOf("</sample>") + "</sample>".length();
+        StringBuilder document = new StringBuilder(xml.substring(0, samplesStart));
+        for(int i = 0; i < count; i++)
+        {
+            String samples = xml.substring(samplesStart, samplesEnd);
+            document.append(uniqueIds ? samples.replace("id=\"ref", "id=\"copy" + i + "ref") : samples).append("\n  ");
+        }
+        return document.append(xml.substring(samplesEnd)).toString();
+    }
+}
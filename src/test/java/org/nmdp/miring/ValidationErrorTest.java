@@ -71,4 +71,36 @@ public class ValidationErrorTest
         assertFalse(thirdError.compareTo(firstError) < 0);
     }
 
+    @Test
+    public void testValidationResultCollector()
+    {
+        logger.debug("starting testValidationResultCollector");
+
+        ValidationResult firstError = new ValidationResult("There is a problem with the HML",Severity.FATAL);
+        firstError.setMiringRule("1.3.4.d");
+        firstError.addXPath("/hml[1]/sample[1]");
+        ValidationResult duplicateError = new ValidationResult("There is a problem with the HML",Severity.FATAL);
+        duplicateError.setMiringRule("1.3.4.d");
+        duplicateError.addXPath("/hml[1]/sample[1]");
+        //The sample id isn't part of a result's identity.
+        duplicateError.setSampleID("sample1");
+        ValidationResult otherError = new ValidationResult("Another problem",Severity.MIRING);
+        otherError.setMiringRule("1.1.a");
+
+        assertEquals(firstError.hashCode(), duplicateError.hashCode());
+        assertFalse(firstError.equals(null));
+        assertFalse(firstError.equals("There is a problem with the HML"));
+
+        ValidationResultCollector collector = new ValidationResultCollector();
+        assertTrue(collector.add(firstError));
+        assertFalse(collector.add(duplicateError));
+        assertTrue(collector.add(otherError));
+        assertEquals(2, collector.size());
+        //The order they were added in.
+        assertArrayEquals(new ValidationResult[]{firstError, otherError}, collector.toArray());
+
+        //Merging sorts by rule.
+        ValidationResult[] merged = ValidationResultCollector.merge(collector.toArray(), null, new ValidationResult[0]);
+        assertArrayEquals(new ValidationResult[]{otherError, firstError}, merged);
+    }
 }
@@ -0,0 +1,212 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+public class ValidationJobManagerTest
+{
+    Logger logger = LoggerFactory.getLogger(ValidationJobManagerTest.class);
+
+    @Test(timeout=60000)
+    public void testValidationJob() throws Exception
+    {
+        logger.debug("starting testValidationJob");
+
+        String demoBadXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demobad.xml");
+        ValidationJobManager manager = new ValidationJobManager(1, 1, 60000);
+        ValidationJob job = manager.submit(new MiringValidator(demoBadXML), false);
+        assertSame(job, manager.getJob(job.getId()));
+        assertNull(manager.getJob("no such job"));
+
+        while(job.getState() != ValidationJob.State.DONE)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(MiringValidator.Stage.DONE, job.getStage());
+        String jobReport = new String(job.getReport(), "UTF-8");
+        String report = new MiringValidator(demoBadXML).validate();
+        assertEquals(report.replaceAll("timestamp=\"[^\"]*\"", ""), jobReport.replaceAll("timestamp=\"[^\"]*\"", ""));
+    }
+
+    @Test(timeout=60000)
+    public void testJobQueueLimit() throws Exception
+    {
+        logger.debug("starting testJobQueueLimit");
+
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingHmlSource source = new BlockingHmlSource(Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml"), release);
+        ValidationJobManager manager = new ValidationJobManager(1, 1, 60000);
+
+        //One job runs, one waits, and the third doesn't fit.
+        ValidationJob runningJob = manager.submit(new MiringValidator(source), false);
+        ValidationJob queuedJob = manager.submit(new MiringValidator(source), true);
+        try
+        {
+            manager.submit(new MiringValidator(source), false);
+            fail("The third job should be rejected");
+        }
+        catch(RejectedExecutionException e)
+        {
+            //Expected
+        }
+
+        source.started.await();
+        assertEquals(ValidationJob.State.RUNNING, runningJob.getState());
+        assertEquals(MiringValidator.Stage.HML, runningJob.getStage());
+        assertEquals(ValidationJob.State.QUEUED, queuedJob.getState());
+        assertEquals(MiringValidator.Stage.NOT_STARTED, queuedJob.getStage());
+        assertNull(queuedJob.getReport());
+
+        release.countDown();
+        while(queuedJob.getState() != ValidationJob.State.DONE)
+        {
+            Thread.sleep(10);
+        }
+        assertTrue(new String(queuedJob.getReport(), "UTF-8").startsWith("{"));
+    }
+
+    @Test(timeout=60000)
+    public void testJobErrors() throws Exception
+    {
+        logger.debug("starting testJobErrors");
+
+        //An Error, like running out of memory, still finishes the job with a report.
+        ValidationJobManager manager = new ValidationJobManager(1, 1, 60000);
+        MiringValidator validator = new MiringValidator(new ErrorHmlSource());
+        ValidationJob job = manager.submit(validator, false);
+        while(job.getState() != ValidationJob.State.DONE)
+        {
+            Thread.sleep(10);
+        }
+        assertTrue(new String(job.getReport(), "UTF-8").contains("Validation failed: java.lang.StackOverflowError"));
+        assertEquals(MiringValidator.Stage.DONE, job.getStage());
+        assertNull(validator.source);
+    }
+
+    @Test(timeout=60000)
+    public void testReportLimit() throws Exception
+    {
+        logger.debug("starting testReportLimit");
+
+        //The finished jobs' reports can't add up to a byte, so only the last job to finish is kept.
+        String demoBadXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demobad.xml");
+        ValidationJobManager manager = new ValidationJobManager(1, 1, 60000, 1);
+        ValidationJob firstJob = manager.submit(new MiringValidator(demoBadXML), false);
+        while(firstJob.getState() != ValidationJob.State.DONE)
+        {
+            Thread.sleep(10);
+        }
+        assertSame(firstJob, manager.getJob(firstJob.getId()));
+        ValidationJob secondJob = manager.submit(new MiringValidator(demoBadXML), false);
+        while(secondJob.getState() != ValidationJob.State.DONE)
+        {
+            Thread.sleep(10);
+        }
+        assertSame(secondJob, manager.getJob(secondJob.getId()));
+        assertNull(manager.getJob(firstJob.getId()));
+    }
+
+    /**
+     * An HmlSource that throws an Error when it is read.
+     */
+    private static class ErrorHmlSource implements HmlSource
+    {
+        @Override
+        public InputSource newInputSource()
+        {
+            throw new StackOverflowError();
+        }
+
+        @Override
+        public InputStream newInputStream()
+        {
+            throw new StackOverflowError();
+        }
+
+        @Override
+        public long length()
+        {
+            return 1;
+        }
+    }
+
+    /**
+     * An HmlSource that makes the parsers wait until it is released.
+     */
+    private static class BlockingHmlSource implements HmlSource
+    {
+        final StringHmlSource source;
+        final CountDownLatch release;
+        final CountDownLatch started = new CountDownLatch(1);
+
+        BlockingHmlSource(String xml, CountDownLatch release)
+        {
+            this.source = new StringHmlSource(xml);
+            this.release = release;
+        }
+
+        private void await() throws IOException
+        {
+            started.countDown();
+            try
+            {
+                release.await();
+            }
+            catch(InterruptedException e)
+            {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public InputSource newInputSource() throws IOException
+        {
+            await();
+            return source.newInputSource();
+        }
+
+        @Override
+        public InputStream newInputStream() throws IOException
+        {
+            await();
+            return source.newInputStream();
+        }
+
+        @Override
+        public long length()
+        {
+            return source.length();
+        }
+    }
+}
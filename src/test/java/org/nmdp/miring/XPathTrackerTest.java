@@ -0,0 +1,86 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+
+public class XPathTrackerTest
+{
+    Logger logger = LoggerFactory.getLogger(XPathTrackerTest.class);
+
+    @Test
+    public void testXpaths()
+    {
+        logger.debug("starting testXpaths");
+
+        XPathTracker tracker = new XPathTracker();
+        tracker.startElement("hml");
+        tracker.startElement("sample");
+        tracker.endElement();
+        tracker.startElement("sample");
+        tracker.startElement("typing");
+        assertEquals("/hml[1]/sample[2]/typing[1]", tracker.generateXpath());
+        assertEquals("typing", tracker.getCurrentNodeName());
+        assertEquals("/hml[1]/sample[2]/typing[1]/variant[1]", tracker.generateNextChildXpath("variant"));
+        tracker.endElement();
+        tracker.endElement();
+
+        assertEquals("/hml[1]/sample[3]", tracker.generateNextChildXpath("sample"));
+        assertEquals("/hml[1]/property[1]", tracker.generateNextChildXpath("property"));
+
+        //The root stays open after it is closed.
+        tracker.endElement();
+        tracker.endElement();
+        assertEquals("/hml[1]", tracker.generateXpath());
+    }
+
+    @Test
+    public void testManySiblings()
+    {
+        logger.debug("starting testManySiblings");
+
+        XPathTracker tracker = new XPathTracker();
+        tracker.startElement("hml");
+        for(int i = 0; i < 100000; i++)
+        {
+            tracker.startElement("sample");
+            tracker.startElement("typing");
+            tracker.endElement();
+            tracker.endElement();
+        }
+        assertEquals("/hml[1]/sample[100001]", tracker.generateNextChildXpath("sample"));
+        assertEquals(1, tracker.openElements.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNoCurrentElement()
+    {
+        logger.debug("starting testNoCurrentElement");
+
+        new XPathTracker().generateXpath();
+    }
+}